@@ -0,0 +1,149 @@
+import java.util.*;
+
+/**
+ * Implements the fourth inference algorithm: the junction tree.
+ * The network is compiled once into a clique tree (JunctionTree), and for every evidence set
+ * the tree is calibrated with two message passes (JunctionTreeState).
+ * The query is answered from the calibrated cliques, by summing out the other variables of one clique.
+
+ * The calibrated states are cached by their evidence (the outcome of every variable, so the order of the evidence
+ * in the query does not matter), and the next queries with the same evidence only sum out their marginal.
+ * A cached state keeps the counts of its calibration, and a hit adds them to the context of the query,
+ * like QueryResultCache does. So the counts of a line are always the full cost, the calibration and the marginal,
+ * and a result line never depends on the queries before it, in the sequential and in the batch mode.
+ * Reusing the calibration for many queries with incremental evidence is what InferenceSession is for.
+ */
+public class Algorithm4 {
+
+    // The number of calibrated states we keep (each one holds all the messages of its tree)
+    public static final int CALIBRATION_CACHE_CAPACITY = 64;
+
+    // The compiled tree of every network we saw (shared, the trees do not change)
+    private static final Map<BayesianNetwork, JunctionTree> _compiledTrees = new IdentityHashMap<>();
+
+    // The evidence of a calibrated state: the network and the observed outcome of every variable (-1 if not observed)
+    private static final class EvidenceKey {
+        private final BayesianNetwork _network;
+        private final int[] _evidence;
+        private final int _hash;
+
+        EvidenceKey(BayesianNetwork network, int[] evidence) {
+            _network = network;
+            _evidence = evidence;
+            _hash = System.identityHashCode(network) * 31 + Arrays.hashCode(evidence);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EvidenceKey)) return false;
+            EvidenceKey that = (EvidenceKey) o;
+            return _network == that._network && Arrays.equals(_evidence, that._evidence);
+        }
+
+        @Override
+        public int hashCode() {return _hash;}
+    }
+
+    // A calibrated state and the counts of its calibration. The state is never changed after it is cached.
+    private static final class Calibration {
+        final JunctionTreeState state;
+        final long additions;
+        final long multiplications;
+
+        Calibration(JunctionTreeState state) {
+            this.state = state;
+            this.additions = state.getNumberOfAdditions();
+            this.multiplications = state.getNumberOfMultiplications();
+        }
+    }
+
+    // The calibrated states by evidence, the least recently used one is evicted (shared by the workers of the batch mode)
+    private static final LinkedHashMap<EvidenceKey, Calibration> _calibrations =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<EvidenceKey, Calibration> eldest) {
+                    return size() > CALIBRATION_CACHE_CAPACITY;
+                }
+            };
+    private static long _hits = 0;
+    private static long _misses = 0;
+
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network) {
+        return calculateProbability(query, network, new QueryContext());
+    }
+
+    /**
+     * @param query   The classified query.
+     * @param network The Bayesian network.
+     * @param context The context of this query, the operations are counted into it.
+     * @return A string with the probability and the operation counts.
+     */
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network, QueryContext context) {
+        JunctionTree tree = compiledTree(network, context);
+
+        int[] evidence = new int[network.getVariableCount()];
+        Arrays.fill(evidence, -1);
+        int[] evidenceVariables = query.getEvidenceVariables();
+        int[] evidenceOutcomes = query.getEvidenceOutcomes();
+        for (int i = 0; i < evidenceVariables.length; i++) {
+            evidence[evidenceVariables[i]] = evidenceOutcomes[i];
+        }
+
+        Calibration calibration = calibration(tree, evidence, query, network, context);
+        context.addAdditions(calibration.additions);
+        context.addMultiplications(calibration.multiplications);
+
+        // A copy of the calibrated state counts from zero, so the marginal is counted like on a fresh calibration
+        JunctionTreeState state = new JunctionTreeState(calibration.state);
+        double[] posterior = state.getPosterior(query.getQueryVariable());
+        context.addAdditions(state.getNumberOfAdditions());
+        context.addMultiplications(state.getNumberOfMultiplications());
+        return context.formatResult(posterior[query.getQueryOutcome()]);
+    }
+
+    // The totals of the calibration cache so far
+    public static String statistics() {
+        synchronized (_calibrations) {
+            return "Junction tree calibrations: " + _hits + " hits, " + _misses + " misses, " + _calibrations.size()
+                    + "/" + CALIBRATION_CACHE_CAPACITY + " cached";
+        }
+    }
+
+    // The calibrated state of the evidence, calibrated now if it is not cached.
+    // Two threads that miss on the same evidence both calibrate it, the states and the counts are the same.
+    private static Calibration calibration(JunctionTree tree, int[] evidence, ClassifiedQuery query,
+                                           BayesianNetwork network, QueryContext context) {
+        EvidenceKey key = new EvidenceKey(network, evidence);
+        synchronized (_calibrations) {
+            Calibration cached = _calibrations.get(key);
+            if (cached != null) {
+                _hits++;
+                context.log("Using the calibrated junction tree of the same evidence.");
+                return cached;
+            }
+            _misses++;
+        }
+        context.log("Calibrating the junction tree for the evidence of " + query.toString(network));
+        JunctionTreeState state = new JunctionTreeState(tree, evidence);
+        state.calibrate();
+        Calibration calibration = new Calibration(state);
+        synchronized (_calibrations) {
+            _calibrations.put(key, calibration);
+        }
+        return calibration;
+    }
+
+    // The compiled tree of the network, compiled on the first call
+    private static JunctionTree compiledTree(BayesianNetwork network, QueryContext context) {
+        synchronized (_compiledTrees) {
+            JunctionTree tree = _compiledTrees.get(network);
+            if (tree == null) {
+                tree = JunctionTree.compile(network);
+                _compiledTrees.put(network, tree);
+                context.log("Compiled " + tree);
+            }
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs all the query lines of an input file on a pool of worker threads (a ForkJoinPool of the given size).
+ * The queries share the BayesianNetwork (it is not changed by the engines), and every query line gets
+ * a new QueryContext, so the counts of a line never depend on the lines a worker ran before it.
+ * The results are returned in the order of the lines, no matter which worker finished first.
+
+ * The engines print their steps through the context. With many threads the printing takes the lock of System.out
+ * for every line, and the workers wait for each other, so the contexts of the batch are quiet.
+ * Only a summary is printed at the end.
+ */
+public class BatchQueryExecutor {
+
+    /**
+     * Answers the query lines in parallel.
+     *
+     * @param queryLines The query lines (the first line of the input file, the XML file, is not part of them).
+     * @param network    The Bayesian network.
+     * @param threads    The number of worker threads.
+     * @return The result lines, in the order of the query lines. Empty lines and lines with an invalid algorithm
+     *         have no result line, like in the sequential mode.
+     * @throws IllegalArgumentException If a conditional query could not be classified.
+     */
+    public static List<String> execute(List<String> queryLines, BayesianNetwork network, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads has to be positive, got " + threads);
+        }
+        String[] lines = queryLines.stream().map(String::trim).toArray(String[]::new);
+        String[] results = new String[lines.length];
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, lines.length).parallel().forEach(i -> {
+                if (lines[i].isEmpty()) {
+                    return;
+                }
+                QueryContext context = new QueryContext(true);
+                try {
+                    results[i] = Ex1.answerQueryLine(lines[i], network, context);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the batch", e);
+        } catch (ExecutionException e) {
+            // A failed query stops the batch, like in the sequential mode
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("A query failed: " + cause.getMessage(), cause);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> ordered = new ArrayList<>();
+        for (String result : results) {
+            if (result != null) {
+                ordered.add(result);
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println("Batch mode: " + ordered.size() + " queries on " + threads + " threads in "
+                + String.format("%.3f", seconds) + " s (" + String.format("%.1f", ordered.size() / seconds) + " queries/s)");
+        return ordered;
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Bayes-Ball algorithm (Shachter, 1998): finds the CPTs and the evidence that P(Q|E) really depends on.
+ * Balls are bounced over the graph from the query variable:
+ *  - a ball that comes to an unobserved variable from a child goes on to its parents and its children,
+ *  - a ball that comes to an unobserved variable from a parent goes on to its children,
+ *  - a ball that comes to an observed variable from a parent goes back to its parents,
+ *  - a ball that comes to an observed variable from a child stops there.
+ * Every variable is marked on the top when it sends the ball to its parents, and on the bottom when it sends it
+ * to its children, and each mark is made once, so the pass is linear in the size of the graph.
+ * The CPTs of the variables marked on the top are all the CPTs the query needs, and the evidence variables
+ * the ball visited are all the evidence it needs. Everything else is d-separated from the query, or only
+ * contributes a factor that sums to 1.
+
+ * Algorithms 2 and 3 use it when pruning is on (Ex1 --prune), after the ancestor-based relevance.
+ * It is off by default, because building fewer factors changes the operation counts of a query.
+ */
+public class BayesBall {
+
+    private static volatile boolean _enabled = false;
+
+    // The totals of all the pruned queries, for the report at the end of a run
+    private static final AtomicLong _queries = new AtomicLong();
+    private static final AtomicLong _cptsBefore = new AtomicLong();
+    private static final AtomicLong _cptsAfter = new AtomicLong();
+    private static final AtomicLong _evidenceBefore = new AtomicLong();
+    private static final AtomicLong _evidenceAfter = new AtomicLong();
+
+    public static boolean isEnabled() {return _enabled;}
+
+    public static void setEnabled(boolean enabled) {_enabled = enabled;}
+
+    /**
+     * The result of one pass: the requisite CPTs and the requisite evidence, by variable id.
+     */
+    public static class Result {
+        private final boolean[] _requisiteCpts;
+        private final boolean[] _requisiteEvidence;
+
+        Result(boolean[] requisiteCpts, boolean[] requisiteEvidence) {
+            _requisiteCpts = requisiteCpts;
+            _requisiteEvidence = requisiteEvidence;
+        }
+
+        // True if the CPT of the variable is needed for the query
+        public boolean isRequisiteCpt(int id) {return _requisiteCpts[id];}
+
+        // True if the evidence on the variable can change the answer
+        public boolean isRequisiteEvidence(int id) {return _requisiteEvidence[id];}
+
+        // Do not modify the returned array
+        public boolean[] getRequisiteCpts() {return _requisiteCpts;}
+    }
+
+    /**
+     * Runs Bayes-Ball from the query variable.
+     *
+     * @param topology      The topology of the network.
+     * @param queryVariable The id of the query variable.
+     * @param query         The query (for the evidence).
+     * @return The requisite CPTs and evidence.
+     */
+    public static Result run(NetworkTopology topology, int queryVariable, ClassifiedQuery query) {
+        int variableCount = topology.getVariableCount();
+        boolean[] top = new boolean[variableCount];
+        boolean[] bottom = new boolean[variableCount];
+        boolean[] visited = new boolean[variableCount];
+
+        // The schedule holds (variable, direction) pairs. Every mark sends one ball over each edge of the variable,
+        // so there are at most two balls per edge, and the one for the query
+        int edges = 0;
+        for (int id = 0; id < variableCount; id++) {
+            edges += topology.getParentIds(id).length;
+        }
+        int[] schedule = new int[2 * edges + 1];
+        boolean[] fromChild = new boolean[2 * edges + 1];
+        int size = 0;
+        schedule[size] = queryVariable;
+        fromChild[size++] = true; // The query starts as if it was visited from a child
+
+        while (size > 0) {
+            size--;
+            int current = schedule[size];
+            boolean cameFromChild = fromChild[size];
+            visited[current] = true;
+            boolean observed = query.isEvidence(current);
+
+            if (!observed && cameFromChild) {
+                if (!top[current]) {
+                    top[current] = true;
+                    for (int parentId : topology.getParentIds(current)) {
+                        size = push(schedule, fromChild, size, parentId, true);
+                    }
+                }
+                if (!bottom[current]) {
+                    bottom[current] = true;
+                    for (int childId : topology.getChildIds(current)) {
+                        size = push(schedule, fromChild, size, childId, false);
+                    }
+                }
+            } else if (!cameFromChild) {
+                if (observed) {
+                    if (!top[current]) {
+                        top[current] = true;
+                        for (int parentId : topology.getParentIds(current)) {
+                            size = push(schedule, fromChild, size, parentId, true);
+                        }
+                    }
+                } else if (!bottom[current]) {
+                    bottom[current] = true;
+                    for (int childId : topology.getChildIds(current)) {
+                        size = push(schedule, fromChild, size, childId, false);
+                    }
+                }
+            }
+        }
+
+        boolean[] requisiteEvidence = new boolean[variableCount];
+        for (int evidenceVariable : query.getEvidenceVariables()) {
+            requisiteEvidence[evidenceVariable] = visited[evidenceVariable];
+        }
+        return new Result(top, requisiteEvidence);
+    }
+
+    // Adds a (variable, direction) pair to the schedule
+    private static int push(int[] schedule, boolean[] fromChild, int size, int id, boolean cameFromChild) {
+        schedule[size] = id;
+        fromChild[size] = cameFromChild;
+        return size + 1;
+    }
+
+    /**
+     * Prunes the relevant variables of a query (the query, the evidence and their ancestors) to the variables
+     * whose CPTs Bayes-Ball marks as requisite, and prints and records how much was pruned.
+     *
+     * @param query            The classified query.
+     * @param network          The Bayesian network.
+     * @param relevantVariable The relevant variables before pruning, by id.
+     * @param context          The context of the query, the pruning is printed through it.
+     * @return The relevant variables after pruning, by id.
+     */
+    public static boolean[] prune(ClassifiedQuery query, BayesianNetwork network, boolean[] relevantVariable,
+                                  QueryContext context) {
+        Result result = run(network.getTopology(), query.getQueryVariable(), query);
+        boolean[] pruned = new boolean[relevantVariable.length];
+        int before = 0;
+        int after = 0;
+        for (int id = 0; id < relevantVariable.length; id++) {
+            if (relevantVariable[id] && network.getDefinition(id) != null) {
+                before++;
+                if (result.isRequisiteCpt(id)) {
+                    after++;
+                }
+            }
+            // Only the requisite CPTs become factors (the outcome of an evidence variable is read from the query)
+            pruned[id] = relevantVariable[id] && result.isRequisiteCpt(id);
+        }
+        int evidenceAfter = 0;
+        for (int evidenceVariable : query.getEvidenceVariables()) {
+            if (result.isRequisiteEvidence(evidenceVariable)) {
+                evidenceAfter++;
+            }
+        }
+        _queries.incrementAndGet();
+        _cptsBefore.addAndGet(before);
+        _cptsAfter.addAndGet(after);
+        _evidenceBefore.addAndGet(query.getEvidenceVariables().length);
+        _evidenceAfter.addAndGet(evidenceAfter);
+        context.log("Bayes-Ball pruning: " + after + " of " + before + " CPTs are requisite, " + evidenceAfter +
+                " of " + query.getEvidenceVariables().length + " evidence variables are requisite");
+        return pruned;
+    }
+
+    // The totals of the pruned queries so far
+    public static String statistics() {
+        long queries = _queries.get();
+        if (queries == 0) {
+            return "Bayes-Ball pruning: no queries were pruned";
+        }
+        return "Bayes-Ball pruning: " + queries + " queries, " + _cptsAfter.get() + " of " + _cptsBefore.get() +
+                " CPTs kept, " + _evidenceAfter.get() + " of " + _evidenceBefore.get() + " evidence variables kept";
+    }
+}
@@ -1,109 +1,288 @@
-import java.util.*;
-import java.util.stream.Collectors;
-
-/**
- * This class represents a Bayesian network:
- * Network name, variables and their CPT table
- */
-
-public class BayesianNetwork {
-    private final String _name;
-    private final List<Definition> _definitions;
-    private final List<Variable> _variables;
-
-    public BayesianNetwork(String name, List<Definition> definitions, List<Variable> variables) {
-        _name = Objects.requireNonNull(name,"Name cannot be null");
-        Objects.requireNonNull(definitions, "Definitions list cannot be null");
-        Objects.requireNonNull(variables, "Variables list cannot be null");
-        List<Definition> definitionsCopy = new ArrayList<>(definitions);
-        List<Variable> variablesCopy = new ArrayList<>(variables);
-
-        _definitions = Collections.unmodifiableList(definitionsCopy);
-        _variables = Collections.unmodifiableList(variablesCopy);
-    }
-
-    public String getName() {return _name;}
-
-    public List<Definition> getDefinitions() {return _definitions;}
-    public String getDefinitionsString() {
-        StringBuilder sb = new StringBuilder();
-        for (Definition definition : _definitions) {
-            sb.append(definition.toString());
-        }
-        return sb.toString();
-    }
-
-    public List<Variable> getVariables() {return _variables;}
-    public String getVariablesString() {
-        StringBuilder sb = new StringBuilder();
-        for (Variable var : _variables) {
-            sb.append(var.toString()).append("\n");
-        }
-        return sb.toString();
-    }
-
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Bayesian Network: ").append(getName()).append("\n");
-        sb.append("Definitions:\n").append(getDefinitionsString());
-        sb.append("Variables:\n").append(getVariablesString());
-        return sb.toString();
-    }
-
-    /**
-     * This method returns the ancestors of a variable in the Bayesian network.
-     * It uses BFS to find all ancestors of the given variable.
-     *
-     * @param name The name of the variable whose ancestors we want to find.
-     * @return A list of ancestor variable names.
-     */
-    public List<String> getAncestors(String name) {
-        // Map {variableName , Variable(the Variable object)}
-        Map<String, Variable> variableMap = this.getVariables().stream()
-                .collect(Collectors.toMap(Variable::getName, v -> v));
-
-        Variable startVariable = variableMap.get(name);// The variable we want to find its ancestors
-
-        if (startVariable == null) {
-            return Collections.emptyList();
-        }
-
-        Set<Variable> ancestors = new HashSet<>(); // to store the ancestors
-        Set<Variable> visited = new HashSet<>();   // To prevent infinite loop
-        Queue<Variable> queue = new LinkedList<>();// for BFS
-
-        queue.offer(startVariable); // start with the variable we want to find its ancestors
-        visited.add(startVariable);  // mark it as visited
-
-        while (!queue.isEmpty()) {
-            Variable currentNode = queue.poll(); // pop the first element from the queue
-            ancestors.add(currentNode); // add it to the ancestors set. In another implementation, you can also not add it.
-
-            // Store the current node as definition to get its parents
-            Definition currentDefinition = null;
-            for (Definition def : this.getDefinitions()) {
-                if (def.getName().equals(currentNode.getName())) {
-                    currentDefinition = def;
-                    break;
-                }
-            }
-
-            if (currentDefinition != null) {
-                // go through all the parents of the current node
-                for (String parentName : currentDefinition.getParents()) {
-                    Variable parentVariable = variableMap.get(parentName);
-                    // check if the parent variable is not null and not visited
-                    if (parentVariable != null && visited.add(parentVariable)) {
-                        queue.offer(parentVariable);// add the parent to the queue
-                    }
-                }
-            }
-        }
-
-        return ancestors.stream()
-                .map(Variable::getName)
-                .collect(Collectors.toList()); // Convert to a list of names
-    }
-
-}
+import java.util.*;
+
+/**
+ * This class represents a Bayesian network:
+ * Network name, variables and their CPT table
+ */
+
+public class BayesianNetwork {
+    private final String _name;
+    private final List<Definition> _definitions;
+    private final List<Variable> _variables;
+
+    // The interning layer: every variable is known by its id (its position in _variables)
+    private final Map<String, Integer> _variableIds;  // {varName , id}
+    private final Definition[] _definitionsById;     // The definition (CPT) of every variable, null if it has none
+    private final int[][] _parentIds;                // The parents of every variable, in the order of <GIVEN>
+    private final int[][] _childIds;                 // The children of every variable (the reverse of _parentIds), by id
+    private final int[][] _cptParentStrides;          // How far a step in every parent moves in the CPT list
+    private final int[] _topologicalOrder;           // Every variable after its parents, null if the graph has a cycle
+    private volatile NetworkTopology _topology;      // The bitset index of the graph, built on the first request
+    private volatile QueryLineParser _queryParser;   // The name table of the query parser, built on the first request
+    private volatile JointEvaluator _jointEvaluator; // The evaluator of full joint assignments, built on the first request
+
+    public BayesianNetwork(String name, List<Definition> definitions, List<Variable> variables) {
+        _name = Objects.requireNonNull(name,"Name cannot be null");
+        Objects.requireNonNull(definitions, "Definitions list cannot be null");
+        Objects.requireNonNull(variables, "Variables list cannot be null");
+        List<Definition> definitionsCopy = new ArrayList<>(definitions);
+        List<Variable> variablesCopy = new ArrayList<>(variables);
+
+        _definitions = Collections.unmodifiableList(definitionsCopy);
+        _variables = Collections.unmodifiableList(variablesCopy);
+
+        // Build the interning layer once, so the algorithms can look up everything by index
+        _variableIds = new HashMap<>();
+        for (int id = 0; id < variablesCopy.size(); id++) {
+            Variable var = variablesCopy.get(id);
+            if (var.getId() != id) {
+                throw new IllegalArgumentException("Variable '" + var.getName() + "' has id " + var.getId() + " but it is at position " + id);
+            }
+            if (_variableIds.put(var.getName(), id) != null) {
+                throw new IllegalArgumentException("Duplicate variable name found: " + var.getName());
+            }
+        }
+
+        _definitionsById = new Definition[variablesCopy.size()];
+        _parentIds = new int[variablesCopy.size()][0];
+        _cptParentStrides = new int[variablesCopy.size()][0];
+        for (Definition def : definitionsCopy) {
+            int id = requireVariableId(def.getName());
+            _definitionsById[id] = def;
+
+            List<String> parents = def.getParents();
+            int[] parentIds = new int[parents.size()];
+            for (int i = 0; i < parents.size(); i++) {
+                parentIds[i] = requireVariableId(parents.get(i));
+            }
+            // Standard CPT order: the child changes fastest, then the last parent, etc.
+            int[] strides = new int[parents.size()];
+            int stride = variablesCopy.get(id).getOutcomeCount();
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                strides[i] = stride;
+                stride *= variablesCopy.get(parentIds[i]).getOutcomeCount();
+            }
+            _parentIds[id] = parentIds;
+            _cptParentStrides[id] = strides;
+        }
+        // The reverse index: every variable is a child of each of its parents
+        List<List<Integer>> children = new ArrayList<>();
+        for (int id = 0; id < variablesCopy.size(); id++) {
+            children.add(new ArrayList<>());
+        }
+        for (int id = 0; id < variablesCopy.size(); id++) {
+            for (int parentId : _parentIds[id]) {
+                children.get(parentId).add(id);
+            }
+        }
+        _childIds = new int[variablesCopy.size()][];
+        for (int id = 0; id < variablesCopy.size(); id++) {
+            _childIds[id] = children.get(id).stream().mapToInt(Integer::intValue).toArray();
+        }
+        _topologicalOrder = computeTopologicalOrder();
+    }
+
+    public String getName() {return _name;}
+
+    public List<Definition> getDefinitions() {return _definitions;}
+    public String getDefinitionsString() {
+        StringBuilder sb = new StringBuilder();
+        for (Definition definition : _definitions) {
+            sb.append(definition.toString());
+        }
+        return sb.toString();
+    }
+
+    public List<Variable> getVariables() {return _variables;}
+
+    public int getVariableCount() {return _variables.size();}
+
+    public Variable getVariable(int id) {return _variables.get(id);}
+
+    // Returns the id of the variable, or -1 if there is no variable with this name
+    public int getVariableId(String name) {
+        Integer id = _variableIds.get(name);
+        return (id == null) ? -1 : id;
+    }
+
+    public Definition getDefinition(int id) {return _definitionsById[id];}
+
+    // The ids of the parents, in the order they appear in the definition. Do not modify the returned array.
+    public int[] getParentIds(int id) {return _parentIds[id];}
+
+    // The ids of the children, by id. Do not modify the returned array.
+    public int[] getChildIds(int id) {return _childIds[id];}
+
+    /**
+     * Returns the position in the CPT list of the variable for the given assignment.
+     * The assignment is indexed by variable id, and has to contain the variable and all its parents.
+     */
+    public int getCptIndex(int id, int[] assignment) {
+        int index = assignment[id];
+        int[] parentIds = _parentIds[id];
+        int[] strides = _cptParentStrides[id];
+        for (int i = 0; i < parentIds.length; i++) {
+            index += assignment[parentIds[i]] * strides[i];
+        }
+        return index;
+    }
+
+    // P(variable = assignment[id] | parents = assignment[parents]) read from the CPT of the variable
+    public double getProbability(int id, int[] assignment) {
+        return _definitionsById[id].getProbability(getCptIndex(id, assignment));
+    }
+    public String getVariablesString() {
+        StringBuilder sb = new StringBuilder();
+        for (Variable var : _variables) {
+            sb.append(var.toString()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Bayesian Network: ").append(getName()).append("\n");
+        sb.append("Definitions:\n").append(getDefinitionsString());
+        sb.append("Variables:\n").append(getVariablesString());
+        return sb.toString();
+    }
+
+    /**
+     * This method returns the ancestors of a variable in the Bayesian network.
+     * The variable itself is part of the result.
+     *
+     * @param name The name of the variable whose ancestors we want to find.
+     * @return A list of ancestor variable names.
+     */
+    public List<String> getAncestors(String name) {
+        int id = getVariableId(name);
+        if (id < 0) {
+            return Collections.emptyList();
+        }
+        List<String> ancestors = new ArrayList<>();
+        for (int ancestorId : getAncestorIds(id)) {
+            ancestors.add(_variables.get(ancestorId).getName());
+        }
+        return ancestors;
+    }
+
+    /**
+     * This method returns the ancestors of a variable in the Bayesian network.
+     * It uses BFS over the parent ids to find all ancestors of the given variable.
+     *
+     * @param id The id of the variable whose ancestors we want to find.
+     * @return The ids of the ancestors, including the variable itself.
+     */
+    public int[] getAncestorIds(int id) {
+        boolean[] visited = new boolean[_variables.size()]; // To prevent infinite loop
+        int[] queue = new int[_variables.size()];           // for BFS, every variable enters at most once
+        int head = 0;
+        int tail = 0;
+
+        queue[tail++] = id; // start with the variable we want to find its ancestors
+        visited[id] = true;  // mark it as visited
+
+        while (head < tail) {
+            int current = queue[head++]; // pop the first element from the queue
+            // go through all the parents of the current node
+            for (int parentId : _parentIds[current]) {
+                if (!visited[parentId]) {
+                    visited[parentId] = true;
+                    queue[tail++] = parentId; // add the parent to the queue
+                }
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    // The topology index of the network (ancestor and descendant sets), built once
+    public NetworkTopology getTopology() {
+        NetworkTopology topology = _topology;
+        if (topology == null) {
+            synchronized (this) {
+                if (_topology == null) {
+                    _topology = new NetworkTopology(this);
+                }
+                topology = _topology;
+            }
+        }
+        return topology;
+    }
+
+    // The parser of the query lines of the network (names resolved straight to ids), built once
+    public QueryLineParser getQueryParser() {
+        QueryLineParser parser = _queryParser;
+        if (parser == null) {
+            synchronized (this) {
+                if (_queryParser == null) {
+                    _queryParser = new QueryLineParser(this);
+                }
+                parser = _queryParser;
+            }
+        }
+        return parser;
+    }
+
+    // The evaluator of the full joint queries (it reads the CPTs through the definitions), built once
+    public JointEvaluator getJointEvaluator() {
+        JointEvaluator evaluator = _jointEvaluator;
+        if (evaluator == null) {
+            synchronized (this) {
+                if (_jointEvaluator == null) {
+                    _jointEvaluator = new JointEvaluator(this);
+                }
+                evaluator = _jointEvaluator;
+            }
+        }
+        return evaluator;
+    }
+
+    /**
+     * Returns the variable ids in a topological order: every variable comes after all its parents.
+     * Do not modify the returned array.
+     *
+     * @throws IllegalStateException If the network has a directed cycle.
+     */
+    public int[] getTopologicalOrder() {
+        if (_topologicalOrder == null) {
+            throw new IllegalStateException("The network " + _name + " has a directed cycle, it has no topological order");
+        }
+        return _topologicalOrder;
+    }
+
+    // Kahn's algorithm over the parent ids, ties by id. Returns null if there is a cycle.
+    private int[] computeTopologicalOrder() {
+        int variableCount = _variables.size();
+        int[] missingParents = new int[variableCount];
+        for (int id = 0; id < variableCount; id++) {
+            missingParents[id] = _parentIds[id].length;
+        }
+        int[] order = new int[variableCount];
+        int head = 0;
+        int tail = 0;
+        for (int id = 0; id < variableCount; id++) {
+            if (missingParents[id] == 0) {
+                order[tail++] = id;
+            }
+        }
+        while (head < tail) {
+            int current = order[head++];
+            for (int child : _childIds[current]) {
+                if (--missingParents[child] == 0) {
+                    order[tail++] = child;
+                }
+            }
+        }
+        return (tail == variableCount) ? order : null;
+    }
+
+    private int requireVariableId(String name) {
+        int id = getVariableId(name);
+        if (id < 0) {
+            throw new IllegalArgumentException("Variable '" + name + "' used in a definition was not defined as a variable.");
+        }
+        return id;
+    }
+
+}
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class holds a conditional query P(Q=q|E1=e1,...,Ek=ek) after the names were resolved to ids.
+ * The query variable and the evidence variables are variable ids, and their values are outcome indexes.
+ * The evidence is kept as two parallel arrays (variable, outcome),
+ * and the hidden variables are all the other variables of the network, in id order.
+ */
+public class ClassifiedQuery {
+    private final int _queryVariable;
+    private final int _queryOutcome;
+    private final int[] _evidenceVariables;
+    private final int[] _evidenceOutcomes;
+    private final int[] _hiddenVariables;
+    private final int[] _evidenceByVariable; // {variable id -> observed outcome}, -1 if the variable is not evidence
+
+    public ClassifiedQuery(int queryVariable, int queryOutcome, int[] evidenceVariables, int[] evidenceOutcomes, int variableCount) {
+        Objects.requireNonNull(evidenceVariables, "Evidence variables cannot be null");
+        Objects.requireNonNull(evidenceOutcomes, "Evidence outcomes cannot be null");
+        if (evidenceVariables.length != evidenceOutcomes.length) {
+            throw new IllegalArgumentException("Every evidence variable needs exactly one outcome");
+        }
+        _queryVariable = queryVariable;
+        _queryOutcome = queryOutcome;
+        _evidenceVariables = evidenceVariables.clone();
+        _evidenceOutcomes = evidenceOutcomes.clone();
+
+        _evidenceByVariable = new int[variableCount];
+        Arrays.fill(_evidenceByVariable, -1);
+        for (int i = 0; i < _evidenceVariables.length; i++) {
+            _evidenceByVariable[_evidenceVariables[i]] = _evidenceOutcomes[i];
+        }
+
+        int[] hidden = new int[variableCount];
+        int hiddenCount = 0;
+        for (int id = 0; id < variableCount; id++) {
+            if (id != queryVariable && _evidenceByVariable[id] < 0) {
+                hidden[hiddenCount++] = id;
+            }
+        }
+        _hiddenVariables = Arrays.copyOf(hidden, hiddenCount);
+    }
+
+    public int getQueryVariable() {return _queryVariable;}
+
+    public int getQueryOutcome() {return _queryOutcome;}
+
+    // Do not modify the returned arrays
+    public int[] getEvidenceVariables() {return _evidenceVariables;}
+
+    public int[] getEvidenceOutcomes() {return _evidenceOutcomes;}
+
+    public int[] getHiddenVariables() {return _hiddenVariables;}
+
+    // The observed outcome of the variable, or -1 if it is not an evidence variable
+    public int getEvidenceOutcome(int variableId) {return _evidenceByVariable[variableId];}
+
+    public boolean isEvidence(int variableId) {return _evidenceByVariable[variableId] >= 0;}
+
+    // The number of variables in the network, the length of an assignment array
+    public int getVariableCount() {return _evidenceByVariable.length;}
+
+    /**
+     * Returns a readable form of the query, names are used only here (for printing).
+     * Example: "B=T | J=T, M=T (hidden: E, A)"
+     */
+    public String toString(BayesianNetwork network) {
+        StringBuilder sb = new StringBuilder();
+        Variable queryVar = network.getVariable(_queryVariable);
+        sb.append(queryVar.getName()).append("=").append(queryVar.getOutcomes().get(_queryOutcome)).append(" | ");
+        for (int i = 0; i < _evidenceVariables.length; i++) {
+            Variable evidenceVar = network.getVariable(_evidenceVariables[i]);
+            if (i > 0) sb.append(", ");
+            sb.append(evidenceVar.getName()).append("=").append(evidenceVar.getOutcomes().get(_evidenceOutcomes[i]));
+        }
+        sb.append(" (hidden: ");
+        for (int i = 0; i < _hiddenVariables.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(network.getVariable(_hiddenVariables[i]).getName());
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a BayesianNetwork to a compact binary file and loads it back, so a run does not have to parse the XML
+ * and build the ProbabilityEntry objects before the first query.
+
+ * The file (all numbers little-endian):
+ *  - header: magic "BNC1", format version, number of variables, number of definitions
+ *  - the network name
+ *  - every variable: its name, the number of outcomes and the outcomes
+ *  - every definition: the variable id, the number of parents, the parent ids (in the order of <GIVEN>),
+ *    the number of probabilities and the position of its table in the file
+ *  - the tables: all the CPTs one after the other as doubles (aligned to 8 bytes), in the standard CPT order
+ * A string is its length in bytes followed by its UTF-8 bytes.
+
+ * The loader maps the file with FileChannel.map. The names are read once, but the tables are not copied:
+ * every Definition reads its probabilities from a view of the mapped file.
+ * The probabilities are checked once, when the file is written, and not again when it is loaded (that would read
+ * every table of the file before the first query). The loader checks every count, id and table position,
+ * so a damaged header is reported as a damaged file.
+ */
+public class CompiledNetworkFile {
+
+    public static final String EXTENSION = ".bnc";
+
+    private static final int MAGIC = 0x31434E42; // "BNC1" when read as little-endian bytes
+    private static final int VERSION = 1;
+
+    /**
+     * Writes the network to a compiled file.
+     *
+     * @param network  The Bayesian network.
+     * @param filePath The path of the compiled file (created or replaced).
+     * @throws IOException If the file could not be written.
+     */
+    public static void write(BayesianNetwork network, String filePath) throws IOException {
+        List<Variable> variables = network.getVariables();
+        List<Definition> definitions = network.getDefinitions();
+
+        // First the size of everything before the tables, so the position of every table is known
+        byte[] networkName = network.getName().getBytes(StandardCharsets.UTF_8);
+        List<byte[]> strings = new ArrayList<>(); // The names and the outcomes, in the order they are written
+        long headerSize = 4L * 4 + 4 + networkName.length;
+        for (Variable variable : variables) {
+            byte[] name = variable.getName().getBytes(StandardCharsets.UTF_8);
+            strings.add(name);
+            headerSize += 4 + name.length + 4;
+            for (String outcome : variable.getOutcomes()) {
+                byte[] bytes = outcome.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                headerSize += 4 + bytes.length;
+            }
+        }
+        for (Definition definition : definitions) {
+            headerSize += 4 + 4 + 4L * definition.getParents().size() + 4 + 8;
+        }
+        long tablesStart = (headerSize + 7) & ~7L;
+        long fileSize = tablesStart;
+        for (Definition definition : definitions) {
+            fileSize += 8L * definition.getTableSize();
+        }
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("The network is too big for a compiled file (" + fileSize + " bytes)");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(variables.size()).putInt(definitions.size());
+        putString(buffer, networkName);
+        int stringIndex = 0;
+        for (Variable variable : variables) {
+            putString(buffer, strings.get(stringIndex++));
+            buffer.putInt(variable.getOutcomeCount());
+            for (int i = 0; i < variable.getOutcomeCount(); i++) {
+                putString(buffer, strings.get(stringIndex++));
+            }
+        }
+        long tablePosition = tablesStart;
+        for (Definition definition : definitions) {
+            buffer.putInt(network.getVariableId(definition.getName()));
+            buffer.putInt(definition.getParents().size());
+            for (String parent : definition.getParents()) {
+                buffer.putInt(network.getVariableId(parent));
+            }
+            buffer.putInt(definition.getTableSize());
+            buffer.putLong(tablePosition);
+            tablePosition += 8L * definition.getTableSize();
+        }
+        buffer.position((int) tablesStart);
+        for (Definition definition : definitions) {
+            for (int i = 0; i < definition.getTableSize(); i++) {
+                double probability = definition.getProbability(i);
+                if (!(probability >= 0 && probability <= 1)) {
+                    throw new IOException("The table of '" + definition.getName() + "' has the probability " +
+                            probability + ", it has to be between 0 and 1");
+                }
+                buffer.putDouble(probability);
+            }
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        System.out.println("Wrote compiled network " + network.getName() + " to " + filePath + " (" + fileSize + " bytes)");
+    }
+
+    /**
+     * Loads a network from a compiled file. The file is mapped, and the CPTs are read from the mapping.
+     *
+     * @param filePath The path of the compiled file.
+     * @return The Bayesian network.
+     * @throws IOException If the file is missing, is not a compiled network file, or is damaged.
+     */
+    public static BayesianNetwork load(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        if (!Files.exists(path)) {
+            throw new IOException("Compiled network file not found: " + filePath);
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a compiled network file: " + filePath);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported compiled network version " + version + " in " + filePath +
+                        " (expected " + VERSION + ")");
+            }
+            int variableCount = buffer.getInt();
+            int definitionCount = buffer.getInt();
+            // Every variable and every definition takes at least 8 bytes of the file
+            checkCount(variableCount, buffer.remaining() / 8, "number of variables", filePath);
+            checkCount(definitionCount, variableCount, "number of definitions", filePath);
+            String networkName = getString(buffer);
+
+            List<Variable> variables = new ArrayList<>(variableCount);
+            for (int id = 0; id < variableCount; id++) {
+                String name = getString(buffer);
+                int outcomeCount = buffer.getInt();
+                checkCount(outcomeCount, buffer.remaining() / 4, "number of outcomes of '" + name + "'", filePath);
+                List<String> outcomes = new ArrayList<>(outcomeCount);
+                for (int i = 0; i < outcomeCount; i++) {
+                    outcomes.add(getString(buffer));
+                }
+                variables.add(new Variable(id, name, outcomes));
+            }
+
+            List<Definition> definitions = new ArrayList<>(definitionCount);
+            for (int d = 0; d < definitionCount; d++) {
+                Variable variable = variables.get(checkId(buffer.getInt(), variableCount, "variable", filePath));
+                int parentCount = buffer.getInt();
+                checkCount(parentCount, variableCount - 1, "number of parents of '" + variable.getName() + "'", filePath);
+                List<Variable> parents = new ArrayList<>(parentCount);
+                for (int i = 0; i < parentCount; i++) {
+                    parents.add(variables.get(checkId(buffer.getInt(), variableCount, "parent", filePath)));
+                }
+                int tableSize = buffer.getInt();
+                long tablePosition = buffer.getLong();
+                checkCount(tableSize, buffer.limit() / 8, "table size of '" + variable.getName() + "'", filePath);
+                if (tablePosition < 0 || (tablePosition & 7) != 0 || tablePosition + 8L * tableSize > buffer.limit()) {
+                    throw new IOException("The compiled network file is damaged: the table of '" + variable.getName() +
+                            "' is outside of the file " + filePath);
+                }
+                // A view of the mapped file, no copy of the numbers
+                DoubleBuffer table = buffer.duplicate().position((int) tablePosition).limit((int) tablePosition + 8 * tableSize)
+                        .slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                definitions.add(new Definition(variable, parents, table));
+            }
+            System.out.println("Loaded compiled network " + networkName + ": " + variableCount + " variables, " +
+                    definitionCount + " definitions.");
+            return new BayesianNetwork(networkName, definitions, variables);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // The checks above should catch a damaged file first, this is for what they do not cover
+            // (e.g. a table that does not fit the outcomes of its variables)
+            throw new IOException("The compiled network file is damaged: " + filePath, e);
+        }
+    }
+
+    // A count read from the file has to be between 0 and max
+    private static void checkCount(int count, long max, String what, String filePath) throws IOException {
+        if (count < 0 || count > max) {
+            throw new IOException("The compiled network file is damaged: invalid " + what + " (" + count + ") in " + filePath);
+        }
+    }
+
+    // A variable id read from the file has to be one of the variables
+    private static int checkId(int id, int variableCount, String what, String filePath) throws IOException {
+        if (id < 0 || id >= variableCount) {
+            throw new IOException("The compiled network file is damaged: invalid " + what + " id " + id + " in " + filePath);
+        }
+        return id;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Scores a dataset of full assignments against a network: the log-likelihood of every record and of the whole file.
+ * The records are scored with log P(x) = Σ log P(xi | parents(xi)) (see JointEvaluator.logEvaluate),
+ * so long records do not underflow to 0 like the product of the joint queries does.
+
+ * The dataset is a CSV file: the first line has the variable names (one column for every variable, in any order),
+ * and every other line is a record with the outcome of every variable. Empty lines are skipped.
+ * The file is read in chunks of lines, and the records of a chunk are scored in parallel on a ForkJoinPool.
+ * Only one chunk is kept in memory, so the memory does not depend on the size of the file.
+ * The scores are added (and written) in the order of the records, so the total does not depend on the threads.
+ */
+public class DatasetScorer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * The result of scoring a dataset.
+     */
+    public static class Summary {
+        private final long _records;
+        private final long _impossibleRecords;
+        private final double _totalLogLikelihood;
+        private final long _elapsedNanos;
+
+        Summary(long records, long impossibleRecords, double totalLogLikelihood, long elapsedNanos) {
+            _records = records;
+            _impossibleRecords = impossibleRecords;
+            _totalLogLikelihood = totalLogLikelihood;
+            _elapsedNanos = elapsedNanos;
+        }
+
+        public long getRecords() {return _records;}
+
+        // The records with probability 0 (their log-likelihood is negative infinity, and so is the total)
+        public long getImpossibleRecords() {return _impossibleRecords;}
+
+        public double getTotalLogLikelihood() {return _totalLogLikelihood;}
+
+        public double getMeanLogLikelihood() {return (_records == 0) ? 0.0 : _totalLogLikelihood / _records;}
+
+        public long getElapsedNanos() {return _elapsedNanos;}
+
+        public double getRecordsPerSecond() {
+            return (_elapsedNanos == 0) ? 0.0 : _records / (_elapsedNanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d records, total log-likelihood %.6f, mean %.6f, %d impossible, %.3f s (%.1f records/s)",
+                    _records, _totalLogLikelihood, getMeanLogLikelihood(), _impossibleRecords,
+                    _elapsedNanos / 1_000_000_000.0, getRecordsPerSecond());
+        }
+    }
+
+    /**
+     * Scores the records of a CSV file.
+     *
+     * @param csvPath    The path of the dataset.
+     * @param network    The Bayesian network.
+     * @param scoresPath The path of the file for the log-likelihood of every record (one line per record), or null.
+     * @param threads    The number of worker threads.
+     * @param chunkSize  The number of records read and scored at a time.
+     * @return The summary of the dataset.
+     * @throws IOException              If the files could not be read or written.
+     * @throws IllegalArgumentException If the header or a record is invalid (the message has the line number).
+     */
+    public static Summary score(String csvPath, BayesianNetwork network, String scoresPath, int threads, int chunkSize)
+            throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads has to be positive, got " + threads);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be positive, got " + chunkSize);
+        }
+        JointEvaluator evaluator = network.getJointEvaluator();
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(csvPath), StandardCharsets.UTF_8);
+             BufferedWriter writer = (scoresPath == null) ? null : Files.newBufferedWriter(Paths.get(scoresPath), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("The dataset " + csvPath + " is empty");
+            }
+            int[] columnVariables = parseHeader(header, network);
+
+            String[] lines = new String[chunkSize];
+            long[] lineNumbers = new long[chunkSize];
+            double[] scores = new double[chunkSize];
+            ThreadLocal<int[]> assignments = ThreadLocal.withInitial(() -> new int[network.getVariableCount()]);
+            long lineNumber = 1;
+            long records = 0;
+            long impossibleRecords = 0;
+            double total = 0.0;
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                while (true) {
+                    // Read the next chunk
+                    int count = 0;
+                    String line;
+                    while (count < chunkSize && (line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        lines[count] = line;
+                        lineNumbers[count] = lineNumber;
+                        count++;
+                    }
+                    if (count == 0) {
+                        break;
+                    }
+
+                    // Score it in parallel, every worker with its own assignment
+                    int chunkCount = count;
+                    pool.submit(() -> IntStream.range(0, chunkCount).parallel().forEach(i -> {
+                        int[] assignment = assignments.get();
+                        parseRecord(lines[i], lineNumbers[i], columnVariables, network, assignment);
+                        scores[i] = evaluator.logEvaluate(assignment);
+                    })).get();
+
+                    // Add and write the scores in the order of the records
+                    for (int i = 0; i < chunkCount; i++) {
+                        total += scores[i];
+                        if (scores[i] == Double.NEGATIVE_INFINITY) {
+                            impossibleRecords++;
+                        }
+                        if (writer != null) {
+                            writer.write(Double.toString(scores[i]));
+                            writer.newLine();
+                        }
+                        lines[i] = null;
+                    }
+                    records += chunkCount;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scoring " + csvPath, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // The pool can rethrow a copy of the exception of the worker, with the original as its cause
+                while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Scoring failed: " + cause.getMessage(), cause);
+            } finally {
+                pool.shutdown();
+            }
+            return new Summary(records, impossibleRecords, total, System.nanoTime() - start);
+        }
+    }
+
+    // The variable id of every column. Every variable of the network has to have exactly one column.
+    static int[] parseHeader(String header, BayesianNetwork network) {
+        String[] names = header.split(",", -1);
+        int[] columnVariables = new int[names.length];
+        boolean[] seen = new boolean[network.getVariableCount()];
+        for (int column = 0; column < names.length; column++) {
+            String name = names[column].trim();
+            int id = network.getVariableId(name);
+            if (id < 0) {
+                throw new IllegalArgumentException("Line 1: unknown variable '" + name + "' in the header");
+            }
+            if (seen[id]) {
+                throw new IllegalArgumentException("Line 1: variable '" + name + "' appears twice in the header");
+            }
+            seen[id] = true;
+            columnVariables[column] = id;
+        }
+        for (int id = 0; id < seen.length; id++) {
+            if (!seen[id]) {
+                throw new IllegalArgumentException("Line 1: the header has no column for variable '" + network.getVariable(id).getName() + "'");
+            }
+        }
+        return columnVariables;
+    }
+
+    // Fills the assignment (by variable id) from the outcomes of one record
+    static void parseRecord(String line, long lineNumber, int[] columnVariables, BayesianNetwork network, int[] assignment) {
+        int column = 0;
+        int start = 0;
+        while (true) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            if (column == columnVariables.length) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": more than " + columnVariables.length + " values");
+            }
+            String outcome = line.substring(start, end).trim();
+            Variable variable = network.getVariable(columnVariables[column]);
+            int outcomeIndex = variable.getOutcomeIndex(outcome);
+            if (outcomeIndex < 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": '" + outcome + "' is not an outcome of " + variable.getName());
+            }
+            assignment[variable.getId()] = outcomeIndex;
+            column++;
+            if (end == line.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (column != columnVariables.length) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + column + " values, expected " + columnVariables.length);
+        }
+    }
+}
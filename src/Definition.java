@@ -1,55 +1,237 @@
-import java.util.*;
-
-/**
- * This class creates a "definition" object:
- * What is the name of the object, and the object's parents (if any),
- * and its probability table (taking into account its parents)
- */
-
-public class Definition {
-    private final String _name;
-    private final List<String> _parents;
-    private final List<ProbabilityEntry> _probabilityList;
-
-    public Definition(String name, List<String> parents, List<ProbabilityEntry> ProbabilityList) {
-        _name = Objects.requireNonNull(name, "Name cannot be null");
-
-        Objects.requireNonNull(parents, "Parents list cannot be null");
-        Objects.requireNonNull(ProbabilityList, "ProbabilityList cannot be null");
-        List<String> parentsCopy = new ArrayList<>(parents);
-        List<ProbabilityEntry> probabilityListCopy = new ArrayList<>(ProbabilityList);
-
-        _parents = Collections.unmodifiableList(parentsCopy);
-        _probabilityList = Collections.unmodifiableList(probabilityListCopy);
-    }
-
-    public String getName() {return _name;}
-
-    public List<String> getParents() {return _parents;}
-
-    public List<ProbabilityEntry> getProbabilityList() {return _probabilityList;}
-
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("--- CPT for Variable: ").append(getName()).append(" ---\n");
-
-        if (!_parents.isEmpty()) {
-            sb.append("Parents: [").append(String.join(", ", _parents)).append("]\n");
-        } else {
-            sb.append("Parents: None\n");
-        }
-
-        sb.append("Probability Entries:\n");
-        if (_probabilityList.isEmpty()) {
-            sb.append("  (No entries)\n");
-        } else {
-            for (ProbabilityEntry entry : _probabilityList) {
-                sb.append("  ").append(entry.toString()).append("\n");
-            }
-        }
-        sb.append("--- End CPT for ").append(getName()).append(" ---\n");
-        return sb.toString();
-    }
-
-}
\ No newline at end of file
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * This class creates a "definition" object:
+ * What is the name of the object, and the object's parents (if any),
+ * and its probability table (taking into account its parents)
+
+ * The table is one array of numbers in the standard CPT order: the child changes fastest, then the last parent, etc.
+ * The row of a parent configuration starts at Σ parentOutcome[i] * stride[i], so a lookup is an offset computation
+ * and not a search. The numbers are kept in a double[] (the XML parser), or in a view of a mapped compiled file
+ * (see CompiledNetworkFile). The ProbabilityEntry list is built only the first time someone asks for it.
+ */
+
+public class Definition {
+    private final String _name;
+    private final List<String> _parents;
+    private final Variable _variable;
+    private final List<Variable> _parentVariables;
+    private final int[] _parentStrides; // How far a step in every parent moves in the table (the child moves by 1)
+
+    // The table: exactly one of the two is set
+    private final double[] _probabilities;
+    private final DoubleBuffer _mappedTable;
+
+    private volatile List<ProbabilityEntry> _probabilityList; // The entry view, built on the first request
+
+    /**
+     * Builds a definition from the probabilities in the standard CPT order. The array is not copied.
+     *
+     * @param variable      The variable of the definition.
+     * @param parents       The parents, in the order of <GIVEN>.
+     * @param probabilities The probabilities.
+     */
+    public Definition(Variable variable, List<Variable> parents, double[] probabilities) {
+        this(variable, parents, Objects.requireNonNull(probabilities, "Probabilities cannot be null"), null);
+    }
+
+    /**
+     * Builds a definition from a table of probabilities in the standard CPT order. The table is not copied.
+     *
+     * @param variable The variable of the definition.
+     * @param parents  The parents, in the order of <GIVEN>.
+     * @param table    The probabilities, from position 0 to limit. They are not checked (see CompiledNetworkFile).
+     */
+    public Definition(Variable variable, List<Variable> parents, DoubleBuffer table) {
+        this(variable, parents, null, Objects.requireNonNull(table, "Table cannot be null"));
+    }
+
+    private Definition(Variable variable, List<Variable> parents, double[] probabilities, DoubleBuffer mappedTable) {
+        _variable = Objects.requireNonNull(variable, "Variable cannot be null");
+        Objects.requireNonNull(parents, "Parents list cannot be null");
+        _name = variable.getName();
+        _parentVariables = Collections.unmodifiableList(new ArrayList<>(parents));
+        _probabilities = probabilities;
+        _mappedTable = mappedTable;
+
+        List<String> parentNames = new ArrayList<>();
+        for (Variable parent : parents) {
+            parentNames.add(parent.getName());
+        }
+        _parents = Collections.unmodifiableList(parentNames);
+
+        _parentStrides = new int[parents.size()];
+        int stride = variable.getOutcomeCount();
+        for (int i = parents.size() - 1; i >= 0; i--) {
+            _parentStrides[i] = stride;
+            stride *= parents.get(i).getOutcomeCount();
+        }
+        if (getTableSize() != stride) {
+            throw new IllegalArgumentException("The table of '" + _name + "' has " + getTableSize() +
+                    " probabilities, expected " + stride);
+        }
+        // A mapped table was checked when its compiled file was written, reading it here would read the whole file
+        if (probabilities != null) {
+            for (double probability : probabilities) {
+                if (!(probability >= 0 && probability <= 1)) {
+                    throw new IllegalArgumentException("Probability must be between 0 and 1");
+                }
+            }
+        }
+    }
+
+    public String getName() {return _name;}
+
+    public List<String> getParents() {return _parents;}
+
+    public Variable getVariable() {return _variable;}
+
+    public List<Variable> getParentVariables() {return _parentVariables;}
+
+    public List<ProbabilityEntry> getProbabilityList() {
+        List<ProbabilityEntry> list = _probabilityList;
+        if (list == null) {
+            synchronized (this) {
+                if (_probabilityList == null) {
+                    _probabilityList = buildProbabilityList();
+                }
+                list = _probabilityList;
+            }
+        }
+        return list;
+    }
+
+    // The number of probabilities in the CPT
+    public int getTableSize() {
+        return (_probabilities != null) ? _probabilities.length : _mappedTable.limit();
+    }
+
+    // The probability at the given position of the CPT (in the standard order)
+    public double getProbability(int index) {
+        return (_probabilities != null) ? _probabilities[index] : _mappedTable.get(index);
+    }
+
+    // A copy of all the probabilities of the CPT, in the standard order
+    public double[] getProbabilities() {
+        if (_probabilities != null) {
+            return _probabilities.clone();
+        }
+        double[] probabilities = new double[getTableSize()];
+        _mappedTable.get(0, probabilities);
+        return probabilities;
+    }
+
+    /**
+     * Returns the position of the row of a parent configuration (the position of the first outcome of the child).
+     *
+     * @param parentOutcomes The outcome index of every parent, in the order of <GIVEN>.
+     */
+    public int getRowOffset(int[] parentOutcomes) {
+        if (parentOutcomes.length != _parentStrides.length) {
+            throw new IllegalArgumentException("'" + _name + "' has " + _parentStrides.length + " parents, got " +
+                    parentOutcomes.length + " outcomes");
+        }
+        int offset = 0;
+        for (int i = 0; i < parentOutcomes.length; i++) {
+            offset += parentOutcomes[i] * _parentStrides[i];
+        }
+        return offset;
+    }
+
+    // P(variable = outcome | parents = parentOutcomes), by outcome indexes
+    public double getProbability(int[] parentOutcomes, int outcome) {
+        return getProbability(getRowOffset(parentOutcomes) + outcome);
+    }
+
+    /**
+     * P(variable = outcome | parents = parentStates), by names.
+     *
+     * @param parentStates The outcome of every parent, {parentName , outcome}.
+     * @param outcome      The outcome of the variable.
+     * @throws IllegalArgumentException If an outcome is unknown or a parent is missing.
+     */
+    public double getProbability(Map<String, String> parentStates, String outcome) {
+        int offset = 0;
+        for (int i = 0; i < _parentVariables.size(); i++) {
+            Variable parent = _parentVariables.get(i);
+            int parentOutcome = parent.getOutcomeIndex(parentStates.get(parent.getName()));
+            if (parentOutcome < 0) {
+                throw new IllegalArgumentException("No valid outcome for parent '" + parent.getName() + "' of '" + _name + "'");
+            }
+            offset += parentOutcome * _parentStrides[i];
+        }
+        int childOutcome = _variable.getOutcomeIndex(outcome);
+        if (childOutcome < 0) {
+            throw new IllegalArgumentException("'" + outcome + "' is not an outcome of '" + _name + "'");
+        }
+        return getProbability(offset + childOutcome);
+    }
+
+    // The states of the parents in every row, as the ProbabilityEntry objects keep them
+    private List<Map<String, String>> rowParentStates() {
+        int rowCount = getTableSize() / _variable.getOutcomeCount();
+        List<Map<String, String>> rows = new ArrayList<>(rowCount);
+        int[] parentOutcomes = new int[_parentVariables.size()];
+        for (int row = 0; row < rowCount; row++) {
+            Map<String, String> parentStates = new HashMap<>();
+            for (int i = 0; i < parentOutcomes.length; i++) {
+                Variable parent = _parentVariables.get(i);
+                parentStates.put(parent.getName(), parent.getOutcomes().get(parentOutcomes[i]));
+            }
+            rows.add(new HashMap<>(parentStates)); // A copy, like the parser always made (the copy sets the order of the map)
+            // Next row: the last parent changes fastest
+            for (int i = parentOutcomes.length - 1; i >= 0; i--) {
+                parentOutcomes[i]++;
+                if (parentOutcomes[i] < _parentVariables.get(i).getOutcomeCount()) break;
+                parentOutcomes[i] = 0;
+            }
+        }
+        return rows;
+    }
+
+    // The ProbabilityEntry view of the table, one entry per number
+    private List<ProbabilityEntry> buildProbabilityList() {
+        List<ProbabilityEntry> entries = new ArrayList<>(getTableSize());
+        int index = 0;
+        for (Map<String, String> parentStates : rowParentStates()) {
+            for (String outcome : _variable.getOutcomes()) {
+                entries.add(new ProbabilityEntry(parentStates, getProbability(index++), outcome));
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("--- CPT for Variable: ").append(getName()).append(" ---\n");
+
+        if (!_parents.isEmpty()) {
+            sb.append("Parents: [").append(String.join(", ", _parents)).append("]\n");
+        } else {
+            sb.append("Parents: None\n");
+        }
+
+        sb.append("Probability Entries:\n");
+        if (getTableSize() == 0) {
+            sb.append("  (No entries)\n");
+        } else {
+            // The same lines as ProbabilityEntry.toString, without building the entries
+            int index = 0;
+            for (Map<String, String> parentStates : rowParentStates()) {
+                String parentInfo = ProbabilityEntry.formatParentStates(new HashMap<>(parentStates));
+                for (String outcome : _variable.getOutcomes()) {
+                    sb.append("  P(").append(outcome);
+                    if (!parentInfo.isEmpty()) {
+                        sb.append(" | ").append(parentInfo);
+                    }
+                    sb.append(") = ").append(getProbability(index++)).append("\n");
+                }
+            }
+        }
+        sb.append("--- End CPT for ").append(getName()).append(" ---\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,211 @@
+import java.util.*;
+
+/**
+ * This class chooses an elimination order for variable elimination.
+ * It works on the moralized interaction graph of the network: every variable is a node,
+ * and two variables are connected if they appear together in a CPT (a variable and its parents).
+
+ * The order is built greedily: at every step the variable with the best score is eliminated,
+ * its neighbours are connected to each other (fill edges), and only the scores that could change are recomputed.
+ * Three scores are supported:
+ * min-degree        - the number of neighbours.
+ * min-fill          - the number of fill edges the elimination adds.
+ * weighted-min-fill - the sum of the weights of the fill edges, the weight of an edge is the product of
+ *                     the number of outcomes of its two variables.
+ * Ties are broken by variable name, like the name-sorted order of Algorithm 2.
+ */
+public class EliminationOrder {
+
+    public enum Heuristic {
+        MIN_DEGREE("min-degree"),
+        MIN_FILL("min-fill"),
+        WEIGHTED_MIN_FILL("weighted-min-fill");
+
+        private final String _name;
+
+        Heuristic(String name) {_name = name;}
+
+        public String getName() {return _name;}
+
+        // Returns the heuristic with this name (as written in the input file), or null if there is none
+        public static Heuristic fromName(String name) {
+            for (Heuristic heuristic : values()) {
+                if (heuristic._name.equalsIgnoreCase(name.trim())) {
+                    return heuristic;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final BayesianNetwork _network;
+    private final BitSet[] _neighbours; // The interaction graph, by variable id
+    private final BitSet _nodes;        // The variables that are still in the graph
+
+    /**
+     * Builds the moralized interaction graph over the given variables, from their own CPTs.
+     *
+     * @param network   The Bayesian network.
+     * @param variables The variables of the graph, by id.
+     */
+    public EliminationOrder(BayesianNetwork network, boolean[] variables) {
+        this(network, variables, variables);
+    }
+
+    /**
+     * Builds the moralized interaction graph over the given variables, from the CPTs of the given variables.
+     * A CPT adds edges only between its variables that are in the graph, so the CPT of a variable that is not
+     * in the graph (an evidence child) still connects its parents that are.
+     *
+     * @param network   The Bayesian network.
+     * @param variables The variables of the graph, by id.
+     * @param cpts      The variables whose CPTs become factors, by id.
+     */
+    public EliminationOrder(BayesianNetwork network, boolean[] variables, boolean[] cpts) {
+        _network = network;
+        _neighbours = new BitSet[network.getVariableCount()];
+        _nodes = new BitSet(network.getVariableCount());
+        for (int id = 0; id < variables.length; id++) {
+            _neighbours[id] = new BitSet(network.getVariableCount());
+            if (variables[id]) {
+                _nodes.set(id);
+            }
+        }
+
+        // Every CPT is a clique in the moral graph: the variable and all its parents are connected
+        for (int id = 0; id < cpts.length; id++) {
+            if (!cpts[id] || network.getDefinition(id) == null) continue;
+            int[] parentIds = network.getParentIds(id);
+            int[] scope = Arrays.copyOf(parentIds, parentIds.length + 1);
+            scope[parentIds.length] = id;
+            for (int a : scope) {
+                if (!_nodes.get(a)) continue;
+                for (int b : scope) {
+                    if (a != b && _nodes.get(b)) {
+                        _neighbours[a].set(b);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The elimination order of the hidden variables of a query, for Algorithm 2 and Algorithm 3.
+     * The graph holds the relevant variables without the evidence variables (after the factors are restricted,
+     * an evidence variable has a single value), but the edges come from the CPTs of all the relevant variables:
+     * the restricted CPT of an evidence variable is still a factor over its other variables, and connects them.
+     *
+     * @param query     The classified query.
+     * @param network   The Bayesian network.
+     * @param relevant  The relevant variables of the query (by id).
+     * @param heuristic The score to use.
+     * @return The ids of the relevant hidden variables, in the order they should be eliminated.
+     */
+    public static List<Integer> forQuery(ClassifiedQuery query, BayesianNetwork network, boolean[] relevant, Heuristic heuristic) {
+        boolean[] graphVariables = new boolean[network.getVariableCount()];
+        List<Integer> hiddenVariables = new ArrayList<>();
+        for (int id = 0; id < graphVariables.length; id++) {
+            graphVariables[id] = relevant[id] && !query.isEvidence(id);
+        }
+        for (int hiddenVariable : query.getHiddenVariables()) {
+            if (relevant[hiddenVariable]) {
+                hiddenVariables.add(hiddenVariable);
+            }
+        }
+        return new EliminationOrder(network, graphVariables, relevant).eliminate(hiddenVariables, heuristic, null);
+    }
+
+    /**
+     * Eliminates the candidates from the graph, one at a time, and returns the order.
+     * The graph is changed: the candidates are removed and the fill edges are added.
+     *
+     * @param candidates The variables to eliminate, they have to be in the graph.
+     * @param heuristic  The score to use.
+     * @param cliques    If not null, the clique of every step (the variable and its neighbours) is added to it.
+     * @return The candidates in the order they were eliminated.
+     */
+    public List<Integer> eliminate(Collection<Integer> candidates, Heuristic heuristic, List<BitSet> cliques) {
+        Objects.requireNonNull(heuristic, "Heuristic cannot be null");
+
+        // The rank of every variable by name, for the tie break
+        List<Integer> byName = new ArrayList<>(candidates);
+        byName.sort(Comparator.comparing(id -> _network.getVariable(id).getName()));
+        int[] nameRank = new int[_neighbours.length];
+        for (int i = 0; i < byName.size(); i++) {
+            nameRank[byName.get(i)] = i;
+        }
+
+        BitSet remaining = new BitSet(_neighbours.length);
+        for (int candidate : candidates) {
+            if (!_nodes.get(candidate)) {
+                throw new IllegalArgumentException("Variable " + _network.getVariable(candidate).getName() + " is not in the interaction graph");
+            }
+            remaining.set(candidate);
+        }
+
+        long[] scores = new long[_neighbours.length];
+        BitSet dirty = (BitSet) remaining.clone(); // The scores that have to be computed again
+        List<Integer> order = new ArrayList<>();
+
+        while (!remaining.isEmpty()) {
+            // Compute only the scores that could have changed since the last step
+            for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+                scores[id] = score(id, heuristic);
+            }
+            dirty.clear();
+
+            int best = -1;
+            for (int id = remaining.nextSetBit(0); id >= 0; id = remaining.nextSetBit(id + 1)) {
+                if (best < 0 || scores[id] < scores[best] || (scores[id] == scores[best] && nameRank[id] < nameRank[best])) {
+                    best = id;
+                }
+            }
+
+            BitSet neighbours = (BitSet) _neighbours[best].clone();
+            if (cliques != null) {
+                BitSet clique = (BitSet) neighbours.clone();
+                clique.set(best);
+                cliques.add(clique);
+            }
+
+            // Eliminate 'best': connect its neighbours to each other, and remove it from the graph
+            for (int a = neighbours.nextSetBit(0); a >= 0; a = neighbours.nextSetBit(a + 1)) {
+                _neighbours[a].or(neighbours);
+                _neighbours[a].clear(a);
+                _neighbours[a].clear(best);
+            }
+            _neighbours[best].clear();
+            _nodes.clear(best);
+            remaining.clear(best);
+            order.add(best);
+
+            // The degree changes only for the neighbours, the fill can change also for their neighbours
+            dirty.or(neighbours);
+            if (heuristic != Heuristic.MIN_DEGREE) {
+                for (int a = neighbours.nextSetBit(0); a >= 0; a = neighbours.nextSetBit(a + 1)) {
+                    dirty.or(_neighbours[a]);
+                }
+            }
+            dirty.and(remaining);
+        }
+        return order;
+    }
+
+    // The score of eliminating the variable now (smaller is better)
+    private long score(int id, Heuristic heuristic) {
+        BitSet neighbours = _neighbours[id];
+        if (heuristic == Heuristic.MIN_DEGREE) {
+            return neighbours.cardinality();
+        }
+        long fill = 0;
+        for (int a = neighbours.nextSetBit(0); a >= 0; a = neighbours.nextSetBit(a + 1)) {
+            for (int b = neighbours.nextSetBit(a + 1); b >= 0; b = neighbours.nextSetBit(b + 1)) {
+                if (!_neighbours[a].get(b)) {
+                    fill += (heuristic == Heuristic.MIN_FILL) ? 1
+                            : (long) _network.getVariable(a).getOutcomeCount() * _network.getVariable(b).getOutcomeCount();
+                }
+            }
+        }
+        return fill;
+    }
+}
@@ -1,6 +1,5 @@
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -8,19 +7,138 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Ex1 {
+
+    // The results of Algorithms 1, 2 and 3, for queries that repeat in the input ("--cache N" sets the size, 0 turns it off)
+    private static QueryResultCache _resultCache = new QueryResultCache(QueryResultCache.DEFAULT_CAPACITY);
+
+    // The plans of Algorithms 2 and 3 by query shape, for every thread ("--prepared" turns them on),
+    // null when the algorithms run directly. A plan reuses its buffers, so every worker of the batch mode
+    // prepares and runs its own plans and never waits for another worker.
+    private static ThreadLocal<Map<String, PreparedQuery>> _preparedQueries = null;
+    private static final AtomicInteger _preparedCount = new AtomicInteger();
+
+    // The number of lines the streaming mode gives to the batch executor at a time
+    private static final int STREAM_BLOCK_SIZE = 8192;
+
     public static void main(String[] args) {
 
+        // "--threads N" runs the queries in batch mode on N worker threads (without N: one per core)
+        int threads = 0;
+        // "--compile FILE" writes the network to a compiled file (see CompiledNetworkFile) before the queries
+        String compiledFilePath = null;
+        // "--score FILE" scores a CSV dataset of full assignments (see DatasetScorer) before the queries
+        String datasetFilePath = null;
+        // "--learn FILE [--alpha A]" learns the CPTs of the network from a CSV file (see ParameterLearner)
+        String learningFilePath = null;
+        double alpha = ParameterLearner.DEFAULT_ALPHA;
+        // "--parse-benchmark [ROUNDS]" measures the query parser on the query lines (queries per second)
+        int parseRounds = 0;
+        // "--stream" reads the queries one at a time and writes every result as soon as it is ready (constant memory)
+        boolean stream = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--cache") && i + 1 < args.length) {
+                try {
+                    _resultCache = new QueryResultCache(Math.max(0, Integer.parseInt(args[++i])));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid cache size: " + args[i] + ". Using " + QueryResultCache.DEFAULT_CAPACITY + ".");
+                }
+            }
+            if (args[i].equals("--factor-cache") && i + 1 < args.length) {
+                // The cell budget of the factors shared by Algorithms 2 and 3, 0 turns it off
+                try {
+                    FactorCache.setShared(new FactorCache(Math.max(0, Long.parseLong(args[++i]))));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid factor cache size: " + args[i] + ". Using " + FactorCache.DEFAULT_CELL_BUDGET + " cells.");
+                }
+            }
+            if (args[i].equals("--stream")) {
+                stream = true;
+            }
+            if (args[i].equals("--prepared")) {
+                // Algorithms 2 and 3 compile every query shape once (see PreparedQuery) and run only the numbers after that
+                _preparedQueries = ThreadLocal.withInitial(HashMap::new);
+            }
+            if (args[i].equals("--prune")) {
+                // Algorithms 2 and 3 keep only the CPTs and the evidence that Bayes-Ball finds requisite
+                BayesBall.setEnabled(true);
+            }
+            if (args[i].equals("--parse-benchmark")) {
+                parseRounds = 1000;
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    try {
+                        parseRounds = Math.max(1, Integer.parseInt(args[++i]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid number of rounds: " + args[i] + ". Using 1000.");
+                    }
+                }
+            }
+            if (args[i].equals("--learn")) {
+                if (i + 1 < args.length) {
+                    learningFilePath = args[++i];
+                } else {
+                    System.out.println("--learn needs the path of the data. Not learning.");
+                }
+            }
+            if (args[i].equals("--alpha") && i + 1 < args.length) {
+                try {
+                    alpha = Double.parseDouble(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid pseudo-count: " + args[i] + ". Using " + ParameterLearner.DEFAULT_ALPHA + ".");
+                }
+            }
+            if (args[i].equals("--score")) {
+                if (i + 1 < args.length) {
+                    datasetFilePath = args[++i];
+                } else {
+                    System.out.println("--score needs the path of the dataset. Not scoring.");
+                }
+            }
+            if (args[i].equals("--compile")) {
+                if (i + 1 < args.length) {
+                    compiledFilePath = args[++i];
+                } else {
+                    System.out.println("--compile needs the path of the compiled file. Not compiling.");
+                }
+            }
+            if (args[i].equals("--threads")) {
+                threads = Runtime.getRuntime().availableProcessors();
+                if (i + 1 < args.length) {
+                    try {
+                        threads = Integer.parseInt(args[i + 1]);
+                        i++;
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid number of threads: " + args[i + 1] + ". Using " + threads + ".");
+                    }
+                }
+                if (threads < 1) {
+                    System.out.println("The number of threads has to be positive. Using 1.");
+                    threads = 1;
+                }
+            }
+        }
+
         String txtFilePath = "input.txt";
         System.out.println("Attempting to read text file: " + txtFilePath);
 
         String firstLine;
         String xmlFilePath = "";
+        // In the streaming mode the same reader gives the first line now and the queries later, the file is read once
+        QueryLineReader streamReader = null;
         //Try to read the first line of the text file, to extract which XML file to parse
         try {
-            firstLine = Files.lines(Paths.get(txtFilePath), StandardCharsets.UTF_8).findFirst()
-                    .orElse("There was an error reading the file");
+            if (stream) {
+                streamReader = new QueryLineReader(Paths.get(txtFilePath));
+                firstLine = streamReader.nextLine();
+                if (firstLine == null) {
+                    firstLine = "There was an error reading the file";
+                }
+            } else {
+                firstLine = Files.lines(Paths.get(txtFilePath), StandardCharsets.UTF_8).findFirst()
+                        .orElse("There was an error reading the file");
+            }
             xmlFilePath += firstLine;
             System.out.println("Attempting to parse XML file: " + xmlFilePath);
         } catch (IOException e) {
@@ -31,8 +149,36 @@ public class Ex1 {
         NetworkXmlParser parser = new NetworkXmlParser();
 
         try {
-            BayesianNetwork network = parser.parse(xmlFilePath);
+            // A compiled network file is mapped, any other file is parsed as XML
+            BayesianNetwork network = xmlFilePath.endsWith(CompiledNetworkFile.EXTENSION)
+                    ? CompiledNetworkFile.load(xmlFilePath)
+                    : parser.parse(xmlFilePath);
             System.out.println("\n--- Successfully Parsed Bayesian Network ---");
+            if (compiledFilePath != null) {
+                CompiledNetworkFile.write(network, compiledFilePath);
+            }
+            if (learningFilePath != null) {
+                // The learned network is written next to the structure, the queries still use the given network
+                int learningThreads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+                try {
+                    BayesianNetwork learned = ParameterLearner.learn(network, learningFilePath, alpha,
+                            learningThreads, DatasetScorer.DEFAULT_CHUNK_SIZE);
+                    NetworkXmlWriter.write(learned, network.getName() + "_learned.xml");
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error in data " + learningFilePath + ": " + e.getMessage());
+                }
+            }
+            if (datasetFilePath != null) {
+                // The log-likelihood of every record goes to scores.txt, the summary to the console
+                int scoringThreads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+                try {
+                    DatasetScorer.Summary summary = DatasetScorer.score(datasetFilePath, network, "scores.txt",
+                            scoringThreads, DatasetScorer.DEFAULT_CHUNK_SIZE);
+                    System.out.println("Scored " + datasetFilePath + ": " + summary);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error in dataset " + datasetFilePath + ": " + e.getMessage());
+                }
+            }
 
             // Get the string representation of the network
             String networkOutputString = network.toString(); // Use the existing toString method
@@ -46,6 +192,19 @@ public class Ex1 {
             byte[] networkBytes = networkOutputString.getBytes(StandardCharsets.UTF_8);
             Files.write(outputPath, networkBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
+            if (streamReader != null) {
+                System.out.println("Streaming queries from text file: " + txtFilePath + " to " + OutPutFile);
+                try (QueryLineReader reader = streamReader) {
+                    streamQueries(reader, network, threads, OutPutFile);
+                } catch (IllegalArgumentException e) {
+                    // The results before the failed query are already in the output file
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                printStatistics();
+                return;
+            }
+
             /**
              * Here I start to read the queries from the text file
 
@@ -54,86 +213,60 @@ public class Ex1 {
 
              * Second option - the more complex query.
              * A query will ask about the probability of getting a value for one query variable, given multiple evidence variables.
-             * After the query, it is indicated which algorithm to use: 1, 2, or 3.
+             * After the query, it is indicated which algorithm to use: 1, 2, 3, 4 (junction tree), 5 (likelihood weighting) or 6 (Gibbs sampling).
+             * Algorithms 2 and 3 can get an elimination ordering heuristic after the algorithm:
+             * min-degree, min-fill or weighted-min-fill.
+             * Algorithm 5 can get a number of samples or a time budget after the algorithm.
+             * Algorithm 6 can get the number of sweeps, the burn-in and the thinning after the algorithm.
              */
 
             List<String> lines = Files.readAllLines(Paths.get(txtFilePath), StandardCharsets.UTF_8);
             System.out.println("Attempting to read queries from text file: " + txtFilePath.replace("src/", "") +
                      " and " + xmlFilePath.replace("src/", ""));
 
+            if (parseRounds > 0) {
+                List<String> queryLines = new ArrayList<>();
+                for (String line : lines.subList(1, lines.size())) {
+                    if (!line.trim().isEmpty()) {
+                        queryLines.add(line.trim());
+                    }
+                }
+                double queriesPerSecond = network.getQueryParser().measureThroughput(queryLines, parseRounds);
+                System.out.println("Query parser: " + queryLines.size() + " lines x " + parseRounds + " rounds, "
+                        + String.format("%.0f", queriesPerSecond) + " queries/s");
+            }
+
+            if (threads > 0) {
+                // Batch mode: all the query lines at once on a worker pool, the results in the order of the lines
+                List<String> results;
+                try {
+                    results = BatchQueryExecutor.execute(lines.subList(1, lines.size()), network, threads);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                for (String result : results) {
+                    ans.append(result).append("\n");
+                }
+            }
+
             // Skip the first line as it contains the XML file name
-            for (int i = 1; i < lines.size(); i++) {
+            for (int i = 1; i < lines.size() && threads == 0; i++) {
                 String queryLine = lines.get(i).trim();
                 if (queryLine.isEmpty()) {
                     System.out.println("Skipping empty line at index " + (i+1));
                     continue; // Skip empty lines if any
                 }
-                if(!queryLine.contains("|")){
-                    System.out.println("----------------------- Start of query " + i +" -----------------------------------");
-                    System.out.println("First option - the simplest query. " + queryLine);
-                    System.out.println(SimplestQuery.calculateJointProbability(network, queryLine));
-                    ans.append(SimplestQuery.calculateJointProbability(network, queryLine)).append("\n");
-                    System.out.println("----------------------- End of query " + i +" -----------------------------------");
-                }
-                if (queryLine.contains("|")) {
-                    System.out.println("----------------------- Start of query " + i +" -----------------------------------");
-                    System.out.println("Second option - the more complex query. " + queryLine);
-
-                    /**
-                     * Here I send the query line to the function that will classify the variables
-                     * The function will return a list of maps.
-                     * The first map will contain the query variable and his value we are looking for.
-                     * The second map will contain the query variable and his list<ProbabilityEntry>.
-                     * The third map will contain the evidence variables and his list<ProbabilityEntry>.
-                     * The fourth map will contain the hidden variables and his list<ProbabilityEntry>.
-                     */
-                    List<Object> vars = QueryAnalysis.classifiedVariable(queryLine, network);
-                    System.out.println("Classified variables: " + vars.get(0)); // The value we need to take after the normalization
-                    System.out.println("Query variable: " + vars.get(1));
-                    System.out.println("Evidence variables: " + vars.get(2)); // Here we have the evidence outcome that observed
-                    System.out.println("Hidden variables: " + vars.get(3));
-
-                    if (vars.size() == 4) {
-                        @SuppressWarnings("unchecked")
-                        Map<String, String> requestedQueryAssignment = (Map<String, String>) vars.get(0);
-                        @SuppressWarnings("unchecked")
-                        Map<String, List<ProbabilityEntry>> queryMap = (Map<String, List<ProbabilityEntry>>) vars.get(1);
-                        @SuppressWarnings("unchecked")
-                        Map<String, List<ProbabilityEntry>> evidenceMap = (Map<String, List<ProbabilityEntry>>) vars.get(2);
-                        @SuppressWarnings("unchecked")
-                        Map<String, List<ProbabilityEntry>> hiddenMap = (Map<String, List<ProbabilityEntry>>) vars.get(3);
-
-                        String algorithm = queryLine.substring(queryLine.lastIndexOf(",") + 1).trim();
-
-                        switch (algorithm) {
-                            case "1":
-                                System.out.println("Using Algorithm 1");
-                                String result = Algorithm1.calculateProbability(requestedQueryAssignment, queryMap, evidenceMap, hiddenMap, network);
-                                System.out.println("Result: " + result);
-                                ans.append(result).append("\n");
-                                break;
-                            case "2":
-                                System.out.println("Using Algorithm 2");
-                                String result2 = Algorithm2.calculateProbability(requestedQueryAssignment, queryMap, evidenceMap, hiddenMap, network);
-                                ans.append(result2).append("\n");
-                                break;
-                            case "3":
-                                System.out.println("Using Algorithm 3");
-                                String result3 = Algorithm3.calculateProbability(requestedQueryAssignment, queryMap, evidenceMap, hiddenMap, network);
-                                ans.append(result3).append("\n");
-                                break;
-                            default:
-                                System.out.println("Invalid algorithm specified: " + algorithm);
-                                break;
-                        }
-                    }else{
-                        System.err.println("Error: classifiedVariable did not return the expected number of components for query: " + queryLine);
-                        return;
-                    }
-                    System.out.println("----------------------- End of query " + i +" -----------------------------------");
+                String result;
+                try {
+                    result = answerLogged(i, queryLine, network);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error: " + e.getMessage());
+                    return;
+                }
+                if (result != null) {
+                    ans.append(result).append("\n");
                 }
-                // Just print the query line to confirm it's read
-                System.out.println("Read query line [" + (i+1) + "]: " + queryLine);
             }
 
             if (ans.length() > 0) {
@@ -146,11 +279,9 @@ public class Ex1 {
             String contentToWrite = ans.toString();
             byte[] fileBytes = contentToWrite.getBytes(StandardCharsets.UTF_8);
             Files.write(OutPutFile, fileBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            printStatistics();
 
-        } catch (ParserConfigurationException e) {
-            System.err.println("XML Parser Configuration Error: " + e.getMessage());
-            e.printStackTrace();
-        } catch (SAXException e) {
+        } catch (XMLStreamException e) {
             System.err.println("XML Parsing Error: " + e.getMessage());
             e.printStackTrace();
         } catch (IOException e) {
@@ -166,4 +297,229 @@ public class Ex1 {
 
     }
 
-}
\ No newline at end of file
+    // The statistics of the caches and the optimizations of the run
+    private static void printStatistics() {
+        System.out.println(_resultCache);
+        System.out.println(FactorCache.shared());
+        if (BayesBall.isEnabled()) {
+            System.out.println(BayesBall.statistics());
+        }
+        System.out.println(Algorithm4.statistics());
+        if (_preparedQueries != null) {
+            System.out.println("Prepared queries: " + _preparedCount.get() + " plans (one per query shape and thread)");
+        }
+    }
+
+    /**
+     * Answers one line of the sequential mode, with the log of the query around it.
+     *
+     * @param i         The number of the query (the index of the line in the input).
+     * @param queryLine The query line (trimmed, not empty).
+     * @param network   The Bayesian network.
+     * @return The result line, or null if the algorithm is invalid.
+     * @throws IllegalArgumentException If the conditional query could not be classified.
+     */
+    private static String answerLogged(long i, String queryLine, BayesianNetwork network) throws IOException {
+        System.out.println("----------------------- Start of query " + i +" -----------------------------------");
+        if(!queryLine.contains("|")){
+            System.out.println("First option - the simplest query. " + queryLine);
+        }
+        else {
+            System.out.println("Second option - the more complex query. " + queryLine);
+        }
+        // Every query gets its own context for the counters and the timing
+        QueryContext context = new QueryContext();
+        String result = answerQueryLine(queryLine, network, context);
+        if (result != null) {
+            System.out.println(result);
+        }
+        context.finish();
+        System.out.println("Query time: " + String.format("%.3f", context.getElapsedNanos() / 1_000_000.0) + " ms");
+        System.out.println("----------------------- End of query " + i +" -----------------------------------");
+        // Just print the query line to confirm it's read
+        System.out.println("Read query line [" + (i+1) + "]: " + queryLine);
+        return result;
+    }
+
+    /**
+     * The streaming mode: reads the query lines one at a time and writes the result lines to the output file
+     * as they are answered, in the order of the input. Nothing grows with the number of queries.
+     * With threads, the lines are answered in blocks of STREAM_BLOCK_SIZE lines by the batch executor.
+     *
+     * @param reader     The reader of the input, after the first line.
+     * @param network    The Bayesian network.
+     * @param threads    The number of worker threads, 0 for the sequential mode.
+     * @param outputPath The output file (created or replaced).
+     * @throws IllegalArgumentException If a conditional query could not be classified (the earlier results are written).
+     */
+    private static void streamQueries(QueryLineReader reader, BayesianNetwork network, int threads, Path outputPath) throws IOException {
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            if (threads > 0) {
+                List<String> block = new ArrayList<>(STREAM_BLOCK_SIZE);
+                while (true) {
+                    block.clear();
+                    String line;
+                    while (block.size() < STREAM_BLOCK_SIZE && (line = reader.nextLine()) != null) {
+                        block.add(line);
+                    }
+                    if (block.isEmpty()) break;
+                    for (String result : BatchQueryExecutor.execute(block, network, threads)) {
+                        written = writeResult(writer, result, written);
+                    }
+                }
+            } else {
+                String line;
+                while ((line = reader.nextLine()) != null) {
+                    // The first line of the file was the network, so the number of the line is the number of the query
+                    long i = reader.getLineNumber() - 1;
+                    String queryLine = line.trim();
+                    if (queryLine.isEmpty()) {
+                        System.out.println("Skipping empty line at index " + (i+1));
+                        continue;
+                    }
+                    String result = answerLogged(i, queryLine, network);
+                    if (result != null) {
+                        written = writeResult(writer, result, written);
+                    }
+                }
+            }
+        }
+        if (written == 0) {
+            System.out.println("No results to write to output file.");
+        }
+    }
+
+    // Writes a result line (a line break goes between the lines, like in the output of the other modes)
+    private static long writeResult(BufferedWriter writer, String result, long written) throws IOException {
+        if (written > 0) {
+            writer.write('\n');
+        }
+        writer.write(result);
+        return written + 1;
+    }
+
+    /**
+     * Answers one query line: a joint probability query, or a conditional query with the algorithm after it.
+     * The sequential loop of main and the batch mode both use it.
+     *
+     * @param queryLine The query line (trimmed, not empty).
+     * @param network   The Bayesian network.
+     * @param context   The context of this query, the operations are counted into it.
+     * @return The result line (probability, additions, multiplications), or null if the algorithm is invalid.
+     * @throws IllegalArgumentException If the conditional query could not be classified.
+     */
+    static String answerQueryLine(String queryLine, BayesianNetwork network, QueryContext context) throws IOException {
+        if (!queryLine.contains("|")) {
+            return SimplestQuery.calculateJointProbability(network, queryLine, context);
+        }
+
+        /**
+         * Here I send the query line to the function that will classify the variables
+         * The function will return a ClassifiedQuery, where every name was replaced by its id:
+         * The query variable and the outcome we look for.
+         * The evidence variables and their observed outcomes.
+         * The hidden variables.
+         */
+        ClassifiedQuery classifiedQuery = QueryAnalysis.classifiedVariable(queryLine, network);
+        if (classifiedQuery == null) {
+            throw new IllegalArgumentException("classifiedVariable could not classify the query: " + queryLine);
+        }
+        context.log("Classified query: " + classifiedQuery.toString(network));
+
+        // After the query: the algorithm, and optionally an elimination ordering heuristic
+        // for algorithms 2 and 3, e.g. "P(B=T|J=T,M=T),2,min-fill",
+        // or a sampling budget for algorithm 5, e.g. "P(B=T|J=T,M=T),5,100000" or "P(B=T|J=T,M=T),5,500ms",
+        // or sweeps, burn-in and thinning for algorithm 6, e.g. "P(B=T|J=T,M=T),6,20000,2000,1"
+        String[] options = queryLine.substring(queryLine.lastIndexOf("),") + 2).split(",");
+        String algorithm = options[0].trim();
+        EliminationOrder.Heuristic heuristic = null;
+        if (options.length > 1 && (algorithm.equals("2") || algorithm.equals("3"))) {
+            heuristic = EliminationOrder.Heuristic.fromName(options[1]);
+            if (heuristic == null) {
+                context.log("Invalid elimination heuristic specified: " + options[1].trim() + ". Using the default order.");
+            }
+        }
+
+        // Algorithms 1, 2 and 3 always give the same answer (and counts) for the same query, so it can be cached
+        QueryResultCache.Key cacheKey = null;
+        if (algorithm.equals("1") || algorithm.equals("2") || algorithm.equals("3")) {
+            cacheKey = QueryResultCache.key(network, classifiedQuery, algorithm, heuristic);
+            String cached = _resultCache.get(cacheKey, context);
+            if (cached != null) {
+                context.log("Using the cached result of Algorithm " + algorithm);
+                return cached;
+            }
+        }
+        long additionsBefore = context.getNumberOfAdditions();
+        long multiplicationsBefore = context.getNumberOfMultiplications();
+        String result = runAlgorithm(algorithm, classifiedQuery, network, heuristic, options, context);
+        if (cacheKey != null) {
+            _resultCache.put(cacheKey, result, context.getNumberOfAdditions() - additionsBefore,
+                    context.getNumberOfMultiplications() - multiplicationsBefore);
+        }
+        return result;
+    }
+
+    // Runs the algorithm of a classified query, returns null for an invalid algorithm
+    private static String runAlgorithm(String algorithm, ClassifiedQuery classifiedQuery, BayesianNetwork network,
+                                       EliminationOrder.Heuristic heuristic, String[] options, QueryContext context) throws IOException {
+        switch (algorithm) {
+            case "1":
+                context.log("Using Algorithm 1");
+                return Algorithm1.calculateProbability(classifiedQuery, network, context);
+            case "2":
+                context.log("Using Algorithm 2");
+                if (_preparedQueries != null && canPrepare(classifiedQuery)) {
+                    return runPrepared(2, classifiedQuery, network, heuristic, context);
+                }
+                return Algorithm2.calculateProbability(classifiedQuery, network, heuristic, context);
+            case "3":
+                context.log("Using Algorithm 3");
+                if (_preparedQueries != null && canPrepare(classifiedQuery)) {
+                    return runPrepared(3, classifiedQuery, network, heuristic, context);
+                }
+                return Algorithm3.calculateProbability(classifiedQuery, network, heuristic, context);
+            case "4":
+                context.log("Using Algorithm 4 (junction tree)");
+                return Algorithm4.calculateProbability(classifiedQuery, network, context);
+            case "5":
+                context.log("Using Algorithm 5 (likelihood weighting)");
+                return LikelihoodWeighting.calculateProbability(classifiedQuery, network,
+                        options.length > 1 ? options[1] : null, context);
+            case "6":
+                context.log("Using Algorithm 6 (Gibbs sampling)");
+                return GibbsSampler.calculateProbability(classifiedQuery, network,
+                        Arrays.copyOfRange(options, 1, options.length), context);
+            default:
+                context.log("Invalid algorithm specified: " + algorithm);
+                return null;
+        }
+    }
+
+    // A query whose variable is also in the evidence has no plan (prepare() rejects it), it runs directly
+    private static boolean canPrepare(ClassifiedQuery classifiedQuery) {
+        return !classifiedQuery.isEvidence(classifiedQuery.getQueryVariable());
+    }
+
+    // Answers a query of Algorithm 2 or 3 with the plan of its shape,
+    // the plan is prepared on the first query of the shape on this thread
+    private static String runPrepared(int algorithm, ClassifiedQuery classifiedQuery, BayesianNetwork network,
+                                      EliminationOrder.Heuristic heuristic, QueryContext context) {
+        String shape = algorithm + "," + heuristic + "," + classifiedQuery.getQueryVariable() + ","
+                + Arrays.toString(classifiedQuery.getEvidenceVariables());
+        Map<String, PreparedQuery> plans = _preparedQueries.get();
+        PreparedQuery prepared = plans.get(shape);
+        if (prepared == null) {
+            prepared = PreparedQuery.prepare(network, classifiedQuery.getQueryVariable(),
+                    classifiedQuery.getEvidenceVariables(), algorithm, heuristic, context);
+            plans.put(shape, prepared);
+            _preparedCount.incrementAndGet();
+            context.log("Prepared " + prepared);
+        }
+        double probability = prepared.execute(classifiedQuery.getQueryOutcome(), classifiedQuery.getEvidenceOutcomes(), context);
+        return String.format(Locale.US, "%.5f,%d,%d", probability,
+                context.getNumberOfAdditions(), context.getNumberOfMultiplications());
+    }
+
+}
@@ -1,246 +1,626 @@
-import java.util.*;
-import java.util.stream.Collectors;
-
-/**
- * Factor class represents a factor in a Bayesian network.
- * It contains a domain of variables and their corresponding probability values.
- */
-
-public class Factor {
-
-    private final List<Variable> _domain;
-    private final Map<Map<String, String>, Double> _values;
-
-    // This constructor is used to create a Factor from a Definition object and a BayesianNetwork object.
-    // It initializes the domain of the factor and populates the values based on the definition.
-    // this constructor is used when creating factors at the beginning of algorithm 2.
-    public Factor(Definition definition, BayesianNetwork network) {
-
-        // Adding the Variable of the factor, itself to the domain
-        List<Variable> domain = new ArrayList<>();
-        Variable selfVariable = null;
-        for(Variable var : network.getVariables()){
-            if(var.getName().equals(definition.getName())){
-                selfVariable = var;
-                break;
-            }
-        }
-
-        domain.add(selfVariable);
-
-        // Map {varName , Variable}
-        Map<String, Variable> variableMap = network.getVariables().stream()
-                .collect(Collectors.toMap(Variable::getName, v -> v));
-
-        // find the parents of the variable
-        for (String parentName : definition.getParents()) {
-            Variable parentVar = variableMap.get(parentName);
-            domain.add(parentVar);
-        }
-        _domain = Collections.unmodifiableList(domain);
-
-
-        Map<Map<String, String>, Double> values = new HashMap<>();
-        for (ProbabilityEntry entry : definition.getProbabilityList()) {
-            // Adding the parent status and the variable and his outcome to the map
-            Map<String, String> assignmentForDomain = new HashMap<>(entry.getStatusParent());
-            assignmentForDomain.put(definition.getName(), entry.getOutcome());
-
-            values.put(Collections.unmodifiableMap(assignmentForDomain), entry.getProbability());
-        }
-        _values = Collections.unmodifiableMap(values);
-    }
-
-    // This constructor is used to create a Factor with a specific domain and values.
-    Factor(List<Variable> domain, Map<Map<String, String>, Double> values) {
-        Objects.requireNonNull(domain, "Factor domain list cannot be null");
-        Objects.requireNonNull(values, "Factor values map cannot be null");
-
-        List<Variable> domainCopy = new ArrayList<>(domain);
-        _domain = Collections.unmodifiableList(domainCopy);
-
-        Map<Map<String, String>, Double> processedValues = new HashMap<>();
-        for (Map.Entry<Map<String, String>, Double> entry : values.entrySet()) {
-            Map<String, String> keyCopy = new HashMap<>(entry.getKey());
-            Map<String, String> immutableKey = Collections.unmodifiableMap(keyCopy);
-            processedValues.put(immutableKey, entry.getValue());
-        }
-        _values = Collections.unmodifiableMap(processedValues);
-    }
-
-    public List<Variable> getDomain() {return _domain;}
-    public Map<Map<String, String>, Double> getValues() {return _values;}
-
-    // This method retrieves the probability value for a given assignment of variable values.
-    // We get a map with values, and we go over the values of the domain of our factor. And we return the desired value.
-    // In many cases, not all the values in the new factor match the values in the old factor,
-    // so we go over the values in the old factor and try to extract the desired probability from them
-    public double getValue(Map<String, String> assignment) {
-        // The map will contain the vars (and their value) we want to know the probability of
-        Map<String, String> assignmentForDomain = new HashMap<>();
-        for(Variable var : _domain) {
-            String assignedValue = assignment.get(var.getName());
-            if (assignedValue == null) {
-                throw new IllegalArgumentException("Assignment is incomplete for factor domain in getValue. Missing: " + var.getName() + " in assignment " + assignment);
-            }
-            if (!var.getOutcomes().contains(assignedValue)) {
-                throw new IllegalArgumentException("Warning: Invalid value '" + assignedValue + "' requested for variable '" + var.getName() + "'. Expected one of: " + var.getOutcomes());
-            }
-            assignmentForDomain.put(var.getName(), assignedValue);
-        }
-        Double value = _values.get(assignmentForDomain);
-
-        if (value == null) {
-            System.out.println("DEBUG: getValue returning 0.0 for missing key " + assignmentForDomain + " in factor over " + _domain.stream().map(Variable::getName).collect(Collectors.joining(",")));
-            return 0.0;
-        }
-        return value;
-    }
-
-    public Factor restrict(String evidenceVariable, String evidenceValue) {
-        Objects.requireNonNull(evidenceVariable, "Evidence variable name cannot be null");
-        Objects.requireNonNull(evidenceValue, "Evidence value cannot be null");
-
-        // Check if the evidence variable is actually in this factor's domain
-        boolean variableInDomain = false;
-        for (Variable var : _domain) {
-            if (var.getName().equals(evidenceVariable)) {
-                variableInDomain = true;
-                if (!var.getOutcomes().contains(evidenceValue)) {
-                    System.err.println("Warning: Evidence value '" + evidenceValue + "' is not a valid outcome for variable '" + evidenceVariable + "'. Restriction might result in an empty factor.");
-                }
-                break;
-            }
-        }
-
-        // If the variable is not in the domain, the evidence doesn't affect this factor
-        if (!variableInDomain) {
-            return this; // The original factor unchanged
-        }
-
-        // Filter the values map to keep only rows matching the evidence
-        Map<Map<String, String>, Double> restrictedValues = new HashMap<>();
-        for (Map.Entry<Map<String, String>, Double> entry : _values.entrySet()) {
-            Map<String, String> assignment = entry.getKey();
-            // Check if the assignment for the evidence variable matches the observed value
-            if (evidenceValue.equals(assignment.get(evidenceVariable))) {
-                // Keep this row (assignment and its probability)
-                restrictedValues.put(assignment, entry.getValue());
-            }
-        }
-        // Create and return a new Factor with the same domain but restricted values
-        // Using the private constructor that accepts the final domain and values
-        return new Factor(_domain, restrictedValues);
-    }
-
-    @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("Factor [Domain: ");
-        if (_domain == null || _domain.isEmpty()) {
-            sb.append("None");
-        } else {
-            List<Variable> sortedDomain = new ArrayList<>(_domain);
-            sortedDomain.sort(Comparator.comparing(Variable::getName));
-            sb.append(sortedDomain.stream().map(Variable::getName).collect(Collectors.joining(", ")));
-        }
-        sb.append("]\n");
-
-        if (_values == null || _values.isEmpty()) {
-            sb.append("  (Empty Factor)\n");
-            return sb.toString();
-        }
-
-        if(_domain == null || _domain.isEmpty()) {throw new IllegalArgumentException("Empty Factor");}
-
-        List<Variable> domainVariablesSorted = new ArrayList<>(_domain);
-        domainVariablesSorted.sort(Comparator.comparing(Variable::getName));
-
-        List<String> columnHeaders = domainVariablesSorted.stream()
-                .map(Variable::getName)
-                .collect(Collectors.toList());
-        columnHeaders.add("Probability");
-
-        Map<String, Integer> columnWidths = new HashMap<>();
-
-        for (String header : columnHeaders) {
-            columnWidths.put(header, header.length());
-        }
-
-        for (Map<String, String> assignmentKey : _values.keySet()) {
-            for (Variable var : domainVariablesSorted) {
-                String varName = var.getName();
-                String assignedValue = assignmentKey.get(varName);
-                if (assignedValue != null) {
-                    columnWidths.put(varName, Math.max(columnWidths.get(varName), assignedValue.length()));
-                }
-            }
-            double probabilityValue = _values.get(assignmentKey);
-            String formattedProb = String.format("%.5f", probabilityValue);
-            columnWidths.put("Probability", Math.max(columnWidths.get("Probability"), formattedProb.length()));
-        }
-
-        for (String header : columnHeaders) {
-            int width = columnWidths.get(header);
-            sb.append(String.format("%-" + (width + 2) + "s", header));
-        }
-        sb.append("\n");
-        for (String header : columnHeaders) {
-            int width = columnWidths.get(header);
-            int repeatCount = Math.max(0, width + 2);
-            for (int i = 0; i < repeatCount; i++) {
-                sb.append('-');
-            }
-        }
-        sb.append("\n");
-
-        List<Map.Entry<Map<String, String>, Double>> sortedValues = new ArrayList<>(_values.entrySet());
-        sortedValues.sort((entry1, entry2) -> {
-            Map<String, String> assign1 = entry1.getKey();
-            Map<String, String> assign2 = entry2.getKey();
-
-            for(Variable var : domainVariablesSorted) {
-                String varName = var.getName();
-                String val1 = assign1.get(varName);
-                String val2 = assign2.get(varName);
-
-                int cmp = 0;
-                if ("T".equals(val1) && "F".equals(val2)) {
-                    cmp = -1;
-                } else if ("F".equals(val1) && "T".equals(val2)) {
-                    cmp = 1;
-                } else {
-                    if (val1 == null && val2 == null) continue;
-                    if (val1 == null) return -1;
-                    if (val2 == null) return 1;
-                    cmp = val1.compareTo(val2);
-                }
-
-                if (cmp != 0) return cmp;
-            }
-            return 0;
-        });
-
-        for (Map.Entry<Map<String, String>, Double> entry : sortedValues) {
-            Map<String, String> assignment = entry.getKey();
-            double probabilityValue = entry.getValue();
-            String formattedProb = String.format("%.5f", probabilityValue);
-
-            for (Variable var : domainVariablesSorted) {
-                String varName = var.getName();
-                String assignedValue = assignment.get(varName);
-                int width = columnWidths.get(varName);
-                sb.append(String.format("%-" + (width + 2) + "s", assignedValue));
-            }
-
-            int probWidth = columnWidths.get("Probability");
-            sb.append(String.format("%-" + (probWidth + 2) + "s", formattedProb));
-
-            sb.append("\n");
-        }
-
-        return sb.toString();
-    }
-
-}
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Factor class represents a factor in a Bayesian network.
+ * It contains a domain of variables and their corresponding probability values.
+
+ * The values are stored in a flat double[] in mixed-radix order over the domain:
+ * the last variable of the domain changes fastest. Every variable has a stride,
+ * so the cell of an assignment is the sum of (outcome index * stride).
+ * A variable that was restricted to an evidence value keeps its place in the domain,
+ * but it has only one cell (cardinality 1) and remembers which outcome it was fixed to.
+ */
+
+public class Factor {
+
+    private final List<Variable> _domain;
+    private final int[] _cardinalities; // Number of cells per variable (1 for a restricted variable)
+    private final int[] _fixedOutcomes; // The outcome index a variable was restricted to, or -1 if it is free
+    private final int[] _strides;
+    private final double[] _table;
+    private Map<Map<String, String>, Double> _valuesView; // Built only when someone asks for the map form
+
+    // This constructor is used to create a Factor from a Definition object and a BayesianNetwork object.
+    // It initializes the domain of the factor and populates the values based on the definition.
+    // this constructor is used when creating factors at the beginning of algorithm 2.
+    public Factor(Definition definition, BayesianNetwork network) {
+
+        // Adding the Variable of the factor, itself to the domain, and after it the parents
+        int selfId = network.getVariableId(definition.getName());
+        int[] parentIds = network.getParentIds(selfId);
+        List<Variable> domain = new ArrayList<>();
+        domain.add(network.getVariable(selfId));
+        for (int parentId : parentIds) {
+            domain.add(network.getVariable(parentId));
+        }
+        _domain = Collections.unmodifiableList(domain);
+        _cardinalities = new int[domain.size()];
+        _fixedOutcomes = new int[domain.size()];
+        for (int i = 0; i < domain.size(); i++) {
+            _cardinalities[i] = domain.get(i).getOutcomeCount();
+            _fixedOutcomes[i] = -1;
+        }
+        _strides = computeStrides(_cardinalities);
+        _table = new double[tableSize(_cardinalities)];
+
+        // The CPT list is in the standard order (the child changes fastest, then the last parent, etc.),
+        // so we walk over it with a counter of the parents and the child, and put every entry in its cell.
+        int[] outcomes = new int[domain.size()];
+        for (int entry = 0; entry < definition.getTableSize(); entry++) {
+            int index = 0;
+            for (int i = 0; i < outcomes.length; i++) {
+                index += outcomes[i] * _strides[i];
+            }
+            _table[index] = definition.getProbability(entry);
+
+            // Next entry: the child first, and then the parents from the last one
+            outcomes[0]++;
+            if (outcomes[0] == _cardinalities[0]) {
+                outcomes[0] = 0;
+                for (int i = outcomes.length - 1; i >= 1; i--) {
+                    outcomes[i]++;
+                    if (outcomes[i] < _cardinalities[i]) break;
+                    outcomes[i] = 0;
+                }
+            }
+        }
+    }
+
+    // This constructor is used when the flat table is already built (for example by restrict or by a join).
+    // fixedOutcomes holds, for every domain variable, the outcome it was restricted to or -1.
+    // An empty table marks a factor that was restricted to a value that no row matches.
+    Factor(List<Variable> domain, int[] fixedOutcomes, double[] table) {
+        Objects.requireNonNull(domain, "Factor domain list cannot be null");
+        Objects.requireNonNull(fixedOutcomes, "Factor fixed outcomes cannot be null");
+        Objects.requireNonNull(table, "Factor table cannot be null");
+
+        _domain = Collections.unmodifiableList(new ArrayList<>(domain));
+        _fixedOutcomes = fixedOutcomes.clone();
+        _cardinalities = new int[_domain.size()];
+        for (int i = 0; i < _domain.size(); i++) {
+            _cardinalities[i] = (_fixedOutcomes[i] >= 0) ? 1 : _domain.get(i).getOutcomeCount();
+        }
+        _strides = computeStrides(_cardinalities);
+        if (table.length != 0 && table.length != tableSize(_cardinalities)) {
+            throw new IllegalArgumentException("Factor table has " + table.length + " cells, expected " + tableSize(_cardinalities));
+        }
+        _table = table;
+    }
+
+    public List<Variable> getDomain() {return _domain;}
+
+    // The number of rows (cells) in the factor
+    public int size() {return _table.length;}
+
+    // The value in the given cell of the flat table
+    double valueAt(int index) {return _table[index];}
+
+    // The outcome every domain variable is restricted to, or -1 if it is free
+    int[] getFixedOutcomes() {return _fixedOutcomes.clone();}
+
+    /**
+     * Returns the values as a map {assignment , probability}.
+     * The map is built from the flat table on the first call, it is used for printing and not by the algorithms.
+     */
+    public Map<Map<String, String>, Double> getValues() {
+        if (_valuesView == null) {
+            Map<Map<String, String>, Double> values = new HashMap<>();
+            for (int index = 0; index < _table.length; index++) {
+                Map<String, String> assignment = new HashMap<>();
+                for (int i = 0; i < _domain.size(); i++) {
+                    assignment.put(_domain.get(i).getName(), _domain.get(i).getOutcomes().get(outcomeAt(index, i)));
+                }
+                values.put(Collections.unmodifiableMap(assignment), _table[index]);
+            }
+            _valuesView = Collections.unmodifiableMap(values);
+        }
+        return _valuesView;
+    }
+
+    /**
+     * This method retrieves the probability value for a given assignment of variable values.
+     * The assignment is indexed by variable id and has to hold a valid outcome index for every domain variable.
+     * If the assignment does not match the outcome a variable was restricted to, there is no such row and we return 0.0
+     */
+    public double getValue(int[] assignment) {
+        for (Variable var : _domain) {
+            int assignedValue = assignment[var.getId()];
+            if (assignedValue < 0 || assignedValue >= var.getOutcomeCount()) {
+                throw new IllegalArgumentException("Invalid outcome index " + assignedValue + " requested for variable '" + var.getName() + "'. Expected one of: " + var.getOutcomes());
+            }
+        }
+        int index = indexOf(assignment);
+
+        if (index < 0) {
+            System.out.println("DEBUG: getValue returning 0.0 for missing row in factor over " + _domain.stream().map(Variable::getName).collect(Collectors.joining(",")));
+            return 0.0;
+        }
+        return _table[index];
+    }
+
+    /**
+     * Keeps only the rows where the variable has the observed outcome.
+     * The variable stays in the domain with a single cell.
+     *
+     * @param variableId The id of the evidence variable.
+     * @param outcome    The index of the observed outcome.
+     * @return The restricted factor, or this factor if the variable is not in the domain.
+     */
+    public Factor restrict(int variableId, int outcome) {
+        // Check if the evidence variable is actually in this factor's domain
+        int position = -1;
+        for (int i = 0; i < _domain.size(); i++) {
+            if (_domain.get(i).getId() == variableId) {
+                position = i;
+                break;
+            }
+        }
+
+        // If the variable is not in the domain, the evidence doesn't affect this factor
+        if (position < 0) {
+            return this; // The original factor unchanged
+        }
+        if (outcome < 0 || outcome >= _domain.get(position).getOutcomeCount()) {
+            throw new IllegalArgumentException("Invalid evidence outcome index " + outcome + " for variable '" + _domain.get(position).getName() + "'");
+        }
+
+        int[] fixedOutcomes = _fixedOutcomes.clone();
+        fixedOutcomes[position] = outcome;
+
+        // No row matches the evidence: the variable is already fixed to another value
+        if (_table.length == 0 || (_fixedOutcomes[position] >= 0 && _fixedOutcomes[position] != outcome)) {
+            return new Factor(_domain, fixedOutcomes, new double[0]);
+        }
+        if (_fixedOutcomes[position] == outcome) {
+            return this;
+        }
+
+        // Keep only the slice of the table where the evidence variable has the observed value.
+        // The rows are copied in the same order, only the evidence variable is skipped.
+        double[] restrictedTable = new double[_table.length / _cardinalities[position]];
+        int stride = _strides[position];
+        int blockSize = stride * _cardinalities[position];
+        int target = 0;
+        for (int blockStart = 0; blockStart < _table.length; blockStart += blockSize) {
+            System.arraycopy(_table, blockStart + outcome * stride, restrictedTable, target, stride);
+            target += stride;
+        }
+        // Create and return a new Factor with the same domain but restricted values
+        return new Factor(_domain, fixedOutcomes, restrictedTable);
+    }
+
+    /**
+     * Multiplies this factor with another factor (join).
+     * The domain of the result is the union of the two domains, ordered by variable id.
+     * A variable that is restricted in one of the factors stays restricted in the result.
+
+     * The kernel walks over the cells of the result with a mixed-radix counter,
+     * and keeps one index into each input table that moves by the input strides,
+     * so every result cell costs exactly one multiplication and nothing is allocated per row.
+     *
+     * @param other The second factor.
+     * @return The product factor. Its size is the number of multiplications that were done.
+     */
+    public Factor multiply(Factor other) {
+        // The new domain is the union of the two factors' domains, ordered by id
+        List<Variable> newDomain = new ArrayList<>(_domain);
+        for (Variable var : other._domain) {
+            if (!newDomain.contains(var)) {
+                newDomain.add(var);
+            }
+        }
+        newDomain.sort(Comparator.comparingInt(Variable::getId));
+
+        int size = newDomain.size();
+        int[] fixedOutcomes = new int[size];
+        int[] stridesThis = new int[size];  // How far the index in this table moves for a step of the variable
+        int[] stridesOther = new int[size];
+        int baseThis = 0;                   // The offset of the restricted variables in each table
+        int baseOther = 0;
+        boolean contradiction = false;      // Both factors are restricted to different values of the same variable
+
+        for (int j = 0; j < size; j++) {
+            Variable var = newDomain.get(j);
+            int positionThis = _domain.indexOf(var);
+            int positionOther = other._domain.indexOf(var);
+            int fixedThis = (positionThis >= 0) ? _fixedOutcomes[positionThis] : -1;
+            int fixedOther = (positionOther >= 0) ? other._fixedOutcomes[positionOther] : -1;
+
+            fixedOutcomes[j] = (fixedThis >= 0) ? fixedThis : fixedOther;
+            if (fixedThis >= 0 && fixedOther >= 0 && fixedThis != fixedOther) {
+                contradiction = true;
+            }
+
+            if (fixedOutcomes[j] >= 0) {
+                // The variable has one cell in the result, a free input reads the cell of the fixed outcome
+                if (positionThis >= 0 && fixedThis < 0) baseThis += fixedOutcomes[j] * _strides[positionThis];
+                if (positionOther >= 0 && fixedOther < 0) baseOther += fixedOutcomes[j] * other._strides[positionOther];
+            } else {
+                stridesThis[j] = (positionThis >= 0) ? _strides[positionThis] : 0;
+                stridesOther[j] = (positionOther >= 0) ? other._strides[positionOther] : 0;
+            }
+        }
+
+        if (contradiction || _table.length == 0 || other._table.length == 0) {
+            return new Factor(newDomain, fixedOutcomes, new double[0]);
+        }
+
+        int[] cardinalities = new int[size];
+        for (int j = 0; j < size; j++) {
+            cardinalities[j] = (fixedOutcomes[j] >= 0) ? 1 : newDomain.get(j).getOutcomeCount();
+        }
+        double[] newValues = new double[tableSize(cardinalities)];
+
+        // Walk over all the cells of the result, the last variable changes fastest
+        int[] counter = new int[size];
+        int indexThis = baseThis;
+        int indexOther = baseOther;
+        for (int row = 0; row < newValues.length; row++) {
+            newValues[row] = _table[indexThis] * other._table[indexOther];
+
+            // Move the counter one step, and the two indexes with it
+            for (int j = size - 1; j >= 0; j--) {
+                counter[j]++;
+                indexThis += stridesThis[j];
+                indexOther += stridesOther[j];
+                if (counter[j] < cardinalities[j]) break;
+                // Carry: this variable goes back to its first outcome, and the previous one moves
+                counter[j] = 0;
+                indexThis -= stridesThis[j] * cardinalities[j];
+                indexOther -= stridesOther[j] * cardinalities[j];
+            }
+        }
+        return new Factor(newDomain, fixedOutcomes, newValues);
+    }
+
+    /**
+     * Eliminates (sums out) a variable from this factor.
+
+     * The kernel reads the input table once, in order, and adds every cell straight into its cell
+     * in the result. The result cell moves by the result strides of the variables that stay,
+     * and does not move for the eliminated variable, so no grouping or boxing is needed.
+     * The first value that reaches a result cell is not an addition, every other value is one,
+     * so the number of additions is size() - result.size().
+     *
+     * @param variableId The id of the variable to eliminate.
+     * @return A new Factor without the variable, or this factor if the variable is not in the domain.
+     */
+    public Factor sumOut(int variableId) {
+        int eliminated = -1;
+        for (int i = 0; i < _domain.size(); i++) {
+            if (_domain.get(i).getId() == variableId) {
+                eliminated = i;
+                break;
+            }
+        }
+        if (eliminated < 0) {
+            return this;
+        }
+
+        // Create a new domain excluding the variable to be eliminated, the order of the others is kept
+        List<Variable> newDomain = new ArrayList<>(_domain);
+        newDomain.remove(eliminated);
+        int[] newFixedOutcomes = new int[newDomain.size()];
+        int[] newCardinalities = new int[newDomain.size()];
+        for (int i = 0, j = 0; i < _domain.size(); i++) {
+            if (i == eliminated) continue;
+            newFixedOutcomes[j] = _fixedOutcomes[i];
+            newCardinalities[j] = _cardinalities[i];
+            j++;
+        }
+        int[] newStrides = computeStrides(newCardinalities);
+
+        // The step of every input variable in the result table (0 for the eliminated variable)
+        int[] outputStrides = new int[_domain.size()];
+        for (int i = 0, j = 0; i < _domain.size(); i++) {
+            if (i == eliminated) continue;
+            outputStrides[i] = newStrides[j++];
+        }
+
+        if (_table.length == 0) {
+            return new Factor(newDomain, newFixedOutcomes, new double[0]);
+        }
+        double[] newValues = new double[tableSize(newCardinalities)];
+
+        int[] counter = new int[_domain.size()];
+        int outputIndex = 0;
+        for (int index = 0; index < _table.length; index++) {
+            newValues[outputIndex] += _table[index];
+
+            // Move the counter of the input one step, and the result cell with it
+            for (int i = _domain.size() - 1; i >= 0; i--) {
+                counter[i]++;
+                outputIndex += outputStrides[i];
+                if (counter[i] < _cardinalities[i]) break;
+                counter[i] = 0;
+                outputIndex -= outputStrides[i] * _cardinalities[i];
+            }
+        }
+        return new Factor(newDomain, newFixedOutcomes, newValues);
+    }
+
+    /**
+     * Multiplies all the given factors and sums out a variable, without building the product factor.
+
+     * The kernel walks over the cells of the result (the union of the domains without the variable),
+     * and for every cell it goes over the outcomes of the eliminated variable, multiplies the matching
+     * cells of all the factors and adds the products. The eliminated dimension is never stored.
+     * Every product cell costs (factors - 1) multiplications, and every result cell costs
+     * (outcomes of the variable - 1) additions, exactly like a join followed by sumOut.
+     *
+     * @param factors    The factors to multiply, at least one.
+     * @param variableId The id of the variable to eliminate, it has to be free (not restricted) in all the factors.
+     * @return The factor of the product with the variable summed out.
+     */
+    public static Factor multiplyAndSumOut(List<Factor> factors, int variableId) {
+        if (factors.isEmpty()) {
+            throw new IllegalArgumentException("multiplyAndSumOut needs at least one factor");
+        }
+
+        // The domain of the result: the union of the domains without the eliminated variable, ordered by id
+        Variable eliminatedVar = null;
+        List<Variable> newDomain = new ArrayList<>();
+        for (Factor factor : factors) {
+            for (Variable var : factor._domain) {
+                if (var.getId() == variableId) {
+                    eliminatedVar = var;
+                } else if (!newDomain.contains(var)) {
+                    newDomain.add(var);
+                }
+            }
+        }
+        if (eliminatedVar == null) {
+            throw new IllegalArgumentException("Variable " + variableId + " is not in the domain of the factors");
+        }
+        newDomain.sort(Comparator.comparingInt(Variable::getId));
+
+        int size = newDomain.size();
+        int count = factors.size();
+        int[] fixedOutcomes = new int[size];
+        Arrays.fill(fixedOutcomes, -1);
+        int[][] strides = new int[count][size]; // strides[f][j]: the step of factor f for result variable j
+        int[] indexes = new int[count];         // The current cell in every factor (starts at the restricted offsets)
+        int[] eliminatedStrides = new int[count];
+        boolean empty = false;
+
+        for (int f = 0; f < count; f++) {
+            Factor factor = factors.get(f);
+            if (factor._table.length == 0) {
+                empty = true;
+            }
+            int position = factor._domain.indexOf(eliminatedVar);
+            if (position >= 0) {
+                if (factor._fixedOutcomes[position] >= 0) {
+                    throw new IllegalArgumentException("Cannot sum out the restricted variable " + eliminatedVar.getName());
+                }
+                eliminatedStrides[f] = factor._strides[position];
+            }
+            for (int j = 0; j < size; j++) {
+                int inputPosition = factor._domain.indexOf(newDomain.get(j));
+                if (inputPosition < 0) continue;
+                int fixed = factor._fixedOutcomes[inputPosition];
+                if (fixed >= 0) {
+                    if (fixedOutcomes[j] >= 0 && fixedOutcomes[j] != fixed) {
+                        empty = true; // Two factors are restricted to different values
+                    }
+                    fixedOutcomes[j] = fixed;
+                }
+            }
+        }
+        // A variable restricted in one factor and free in another: the free one reads the cell of the fixed outcome
+        for (int f = 0; f < count; f++) {
+            Factor factor = factors.get(f);
+            for (int j = 0; j < size; j++) {
+                int inputPosition = factor._domain.indexOf(newDomain.get(j));
+                if (inputPosition < 0 || factor._fixedOutcomes[inputPosition] >= 0) continue;
+                if (fixedOutcomes[j] >= 0) {
+                    indexes[f] += fixedOutcomes[j] * factor._strides[inputPosition];
+                } else {
+                    strides[f][j] = factor._strides[inputPosition];
+                }
+            }
+        }
+
+        int[] cardinalities = new int[size];
+        for (int j = 0; j < size; j++) {
+            cardinalities[j] = (fixedOutcomes[j] >= 0) ? 1 : newDomain.get(j).getOutcomeCount();
+        }
+        if (empty) {
+            return new Factor(newDomain, fixedOutcomes, new double[0]);
+        }
+        double[] newValues = new double[tableSize(cardinalities)];
+        int eliminatedCount = eliminatedVar.getOutcomeCount();
+
+        int[] counter = new int[size];
+        for (int row = 0; row < newValues.length; row++) {
+            // Sum over the outcomes of the eliminated variable, the product of the factors for each one
+            double sum = 0.0;
+            for (int outcome = 0; outcome < eliminatedCount; outcome++) {
+                double product = factors.get(0)._table[indexes[0] + outcome * eliminatedStrides[0]];
+                for (int f = 1; f < count; f++) {
+                    product *= factors.get(f)._table[indexes[f] + outcome * eliminatedStrides[f]];
+                }
+                sum += product;
+            }
+            newValues[row] = sum;
+
+            // Move the counter of the result one step, and the index of every factor with it
+            for (int j = size - 1; j >= 0; j--) {
+                counter[j]++;
+                for (int f = 0; f < count; f++) {
+                    indexes[f] += strides[f][j];
+                }
+                if (counter[j] < cardinalities[j]) break;
+                counter[j] = 0;
+                for (int f = 0; f < count; f++) {
+                    indexes[f] -= strides[f][j] * cardinalities[j];
+                }
+            }
+        }
+        return new Factor(newDomain, fixedOutcomes, newValues);
+    }
+
+    /**
+     * Computes the cell of an assignment in the flat table.
+     *
+     * @param assignment Outcome indexes by variable id, it has to contain all the domain variables.
+     * @return The index in the table, or -1 if the assignment does not match a restricted variable.
+     */
+    int indexOf(int[] assignment) {
+        if (_table.length == 0) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < _domain.size(); i++) {
+            int outcome = assignment[_domain.get(i).getId()];
+            if (_fixedOutcomes[i] >= 0) {
+                if (outcome != _fixedOutcomes[i]) {
+                    return -1;
+                }
+            } else {
+                index += outcome * _strides[i];
+            }
+        }
+        return index;
+    }
+
+    // The outcome index of the domain variable at 'position' in the given cell
+    private int outcomeAt(int index, int position) {
+        if (_fixedOutcomes[position] >= 0) {
+            return _fixedOutcomes[position];
+        }
+        return (index / _strides[position]) % _cardinalities[position];
+    }
+
+    // Mixed-radix strides: the last variable has stride 1
+    private static int[] computeStrides(int[] cardinalities) {
+        int[] strides = new int[cardinalities.length];
+        int stride = 1;
+        for (int i = cardinalities.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= cardinalities[i];
+        }
+        return strides;
+    }
+
+    private static int tableSize(int[] cardinalities) {
+        int size = 1;
+        for (int cardinality : cardinalities) {
+            size = Math.multiplyExact(size, cardinality);
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Map<Map<String, String>, Double> values = getValues();
+
+        sb.append("Factor [Domain: ");
+        if (_domain == null || _domain.isEmpty()) {
+            sb.append("None");
+        } else {
+            List<Variable> sortedDomain = new ArrayList<>(_domain);
+            sortedDomain.sort(Comparator.comparing(Variable::getName));
+            sb.append(sortedDomain.stream().map(Variable::getName).collect(Collectors.joining(", ")));
+        }
+        sb.append("]\n");
+
+        if (values == null || values.isEmpty()) {
+            sb.append("  (Empty Factor)\n");
+            return sb.toString();
+        }
+
+        if(_domain == null || _domain.isEmpty()) {throw new IllegalArgumentException("Empty Factor");}
+
+        List<Variable> domainVariablesSorted = new ArrayList<>(_domain);
+        domainVariablesSorted.sort(Comparator.comparing(Variable::getName));
+
+        List<String> columnHeaders = domainVariablesSorted.stream()
+                .map(Variable::getName)
+                .collect(Collectors.toList());
+        columnHeaders.add("Probability");
+
+        Map<String, Integer> columnWidths = new HashMap<>();
+
+        for (String header : columnHeaders) {
+            columnWidths.put(header, header.length());
+        }
+
+        for (Map<String, String> assignmentKey : values.keySet()) {
+            for (Variable var : domainVariablesSorted) {
+                String varName = var.getName();
+                String assignedValue = assignmentKey.get(varName);
+                if (assignedValue != null) {
+                    columnWidths.put(varName, Math.max(columnWidths.get(varName), assignedValue.length()));
+                }
+            }
+            double probabilityValue = values.get(assignmentKey);
+            String formattedProb = String.format("%.5f", probabilityValue);
+            columnWidths.put("Probability", Math.max(columnWidths.get("Probability"), formattedProb.length()));
+        }
+
+        for (String header : columnHeaders) {
+            int width = columnWidths.get(header);
+            sb.append(String.format("%-" + (width + 2) + "s", header));
+        }
+        sb.append("\n");
+        for (String header : columnHeaders) {
+            int width = columnWidths.get(header);
+            int repeatCount = Math.max(0, width + 2);
+            for (int i = 0; i < repeatCount; i++) {
+                sb.append('-');
+            }
+        }
+        sb.append("\n");
+
+        List<Map.Entry<Map<String, String>, Double>> sortedValues = new ArrayList<>(values.entrySet());
+        sortedValues.sort((entry1, entry2) -> {
+            Map<String, String> assign1 = entry1.getKey();
+            Map<String, String> assign2 = entry2.getKey();
+
+            for(Variable var : domainVariablesSorted) {
+                String varName = var.getName();
+                String val1 = assign1.get(varName);
+                String val2 = assign2.get(varName);
+
+                int cmp = 0;
+                if ("T".equals(val1) && "F".equals(val2)) {
+                    cmp = -1;
+                } else if ("F".equals(val1) && "T".equals(val2)) {
+                    cmp = 1;
+                } else {
+                    if (val1 == null && val2 == null) continue;
+                    if (val1 == null) return -1;
+                    if (val2 == null) return 1;
+                    cmp = val1.compareTo(val2);
+                }
+
+                if (cmp != 0) return cmp;
+            }
+            return 0;
+        });
+
+        for (Map.Entry<Map<String, String>, Double> entry : sortedValues) {
+            Map<String, String> assignment = entry.getKey();
+            double probabilityValue = entry.getValue();
+            String formattedProb = String.format("%.5f", probabilityValue);
+
+            for (Variable var : domainVariablesSorted) {
+                String varName = var.getName();
+                String assignedValue = assignment.get(varName);
+                int width = columnWidths.get(varName);
+                sb.append(String.format("%-" + (width + 2) + "s", assignedValue));
+            }
+
+            int probWidth = columnWidths.get("Probability");
+            sb.append(String.format("%-" + (probWidth + 2) + "s", formattedProb));
+
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+
+}
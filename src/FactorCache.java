@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the intermediate factors of variable elimination (Algorithms 2 and 3), shared by all the queries,
+ * so queries with the same evidence reuse the work they have in common, even when they ask about other variables.
+
+ * Two kinds of factors are kept:
+ *  - restricted CPTs: the CPT factor of a variable after the evidence on its family was applied,
+ *    keyed by the variable and that evidence.
+ *  - eliminations: the factor that eliminating a hidden variable from a list of factors gives,
+ *    keyed by the hidden variable and the factors themselves (by identity, in order).
+ * The factors of an elimination are restricted CPTs or results of earlier eliminations that came from this cache,
+ * so the key of an elimination stands for the evidence and all the variables eliminated before it.
+
+ * The computations are deterministic, so a cached factor is exactly the factor a new computation would build.
+ * An elimination also keeps the operations it took, and a reuse adds them to the context of the query,
+ * so the counts of a query do not depend on what was cached before it.
+
+ * The memory is bounded by the total number of cells of the cached factors: when a new factor goes over the budget,
+ * the least recently used ones are evicted. All the methods are synchronized (the workers of the batch mode share it).
+ */
+public class FactorCache {
+
+    public static final long DEFAULT_CELL_BUDGET = 1L << 22; // 4M doubles, 32 MB
+
+    private static volatile FactorCache _shared = new FactorCache(DEFAULT_CELL_BUDGET);
+
+    // The cache that Algorithms 2 and 3 use
+    public static FactorCache shared() {return _shared;}
+
+    // Replaces the shared cache (for example with a budget of 0, to turn it off)
+    public static void setShared(FactorCache cache) {_shared = cache;}
+
+    // The key of a restricted CPT: the network, the variable, and the evidence on its family (in family order)
+    private static final class RestrictionKey {
+        private final BayesianNetwork _network;
+        private final int _variableId;
+        private final int[] _familyEvidence;
+
+        RestrictionKey(BayesianNetwork network, int variableId, int[] familyEvidence) {
+            _network = network;
+            _variableId = variableId;
+            _familyEvidence = familyEvidence;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RestrictionKey)) return false;
+            RestrictionKey that = (RestrictionKey) o;
+            return _network == that._network && _variableId == that._variableId && Arrays.equals(_familyEvidence, that._familyEvidence);
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(_network) * 31 + _variableId) * 31 + Arrays.hashCode(_familyEvidence);
+        }
+    }
+
+    // The key of an elimination: the hidden variable and the factors it was eliminated from (by identity, in order)
+    private static final class EliminationKey {
+        private final int _hiddenVariable;
+        private final Factor[] _factors;
+
+        EliminationKey(int hiddenVariable, List<Factor> factors) {
+            _hiddenVariable = hiddenVariable;
+            _factors = factors.toArray(new Factor[0]);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof EliminationKey)) return false;
+            EliminationKey that = (EliminationKey) o;
+            if (_hiddenVariable != that._hiddenVariable || _factors.length != that._factors.length) return false;
+            for (int i = 0; i < _factors.length; i++) {
+                if (_factors[i] != that._factors[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = _hiddenVariable;
+            for (Factor factor : _factors) {
+                hash = hash * 31 + System.identityHashCode(factor);
+            }
+            return hash;
+        }
+    }
+
+    // A cached factor (null for a restriction that left no rows) and the operations it took
+    private static final class Entry {
+        final Factor factor;
+        final long additions;
+        final long multiplications;
+        final long cells;
+
+        Entry(Factor factor, long additions, long multiplications) {
+            this.factor = factor;
+            this.additions = additions;
+            this.multiplications = multiplications;
+            this.cells = (factor == null) ? 1 : Math.max(1, factor.size());
+        }
+    }
+
+    private final long _cellBudget;
+    private final LinkedHashMap<Object, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long _cells = 0;
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * @param cellBudget The maximum total number of cells of the cached factors (0 turns the cache off).
+     */
+    public FactorCache(long cellBudget) {
+        if (cellBudget < 0) {
+            throw new IllegalArgumentException("The cell budget cannot be negative, got " + cellBudget);
+        }
+        _cellBudget = cellBudget;
+    }
+
+    /**
+     * Returns the CPT factor of a variable restricted to the evidence of the query,
+     * or null if no row of the CPT agrees with the evidence.
+     * Restricting does not count any operation, so a cached factor does not change the counts.
+     */
+    public Factor restrictedFactor(BayesianNetwork network, int variableId, ClassifiedQuery query) {
+        // The evidence on the family of the variable is all that the restriction depends on
+        int[] parentIds = network.getParentIds(variableId);
+        int[] familyEvidence = new int[2 * (parentIds.length + 1)];
+        int length = 0;
+        for (int i = -1; i < parentIds.length; i++) {
+            int member = (i < 0) ? variableId : parentIds[i];
+            if (query.isEvidence(member)) {
+                familyEvidence[length++] = member;
+                familyEvidence[length++] = query.getEvidenceOutcome(member);
+            }
+        }
+        RestrictionKey key = new RestrictionKey(network, variableId, Arrays.copyOf(familyEvidence, length));
+
+        synchronized (this) {
+            Entry entry = _entries.get(key);
+            if (entry != null) {
+                _hits++;
+                return entry.factor;
+            }
+            _misses++;
+        }
+        Factor factor = new Factor(network.getDefinition(variableId), network);
+        for (int i = 0; i < length && factor != null; i += 2) {
+            factor = factor.restrict(familyEvidence[i], familyEvidence[i + 1]);
+            if (factor.size() == 0) {
+                factor = null;
+            }
+        }
+        synchronized (this) {
+            // Another worker may have built it at the same time, the first one stays so the factor is unique
+            Entry existing = _entries.get(key);
+            if (existing != null) {
+                return existing.factor;
+            }
+            add(key, new Entry(factor, 0, 0));
+        }
+        return factor;
+    }
+
+    /**
+     * Returns the factor of eliminating a hidden variable from the factors, or null if it is not cached.
+     * On a hit the operations of the cached elimination are added to the context.
+     */
+    public synchronized Factor getElimination(int hiddenVariable, List<Factor> factors, QueryContext context) {
+        if (_cellBudget == 0) {
+            return null;
+        }
+        Entry entry = _entries.get(new EliminationKey(hiddenVariable, factors));
+        if (entry == null) {
+            _misses++;
+            return null;
+        }
+        _hits++;
+        context.addAdditions(entry.additions);
+        context.addMultiplications(entry.multiplications);
+        return entry.factor;
+    }
+
+    /**
+     * Caches the factor of eliminating a hidden variable from the factors, with the operations it took.
+     * If another worker cached the same elimination first, its factor is returned (so the factors stay unique),
+     * otherwise the given factor.
+     */
+    public synchronized Factor putElimination(int hiddenVariable, List<Factor> factors, Factor result,
+                                              long additions, long multiplications) {
+        EliminationKey key = new EliminationKey(hiddenVariable, new ArrayList<>(factors));
+        Entry existing = _entries.get(key);
+        if (existing != null) {
+            return existing.factor;
+        }
+        add(key, new Entry(result, additions, multiplications));
+        return result;
+    }
+
+    // Adds an entry and evicts the least recently used entries that go over the budget
+    private void add(Object key, Entry entry) {
+        if (entry.cells > _cellBudget) {
+            return; // Too big to keep (or the cache is off)
+        }
+        _entries.put(key, entry);
+        _cells += entry.cells;
+        Iterator<Map.Entry<Object, Entry>> eldest = _entries.entrySet().iterator();
+        while (_cells > _cellBudget && eldest.hasNext()) {
+            _cells -= eldest.next().getValue().cells;
+            eldest.remove();
+            _evictions++;
+        }
+    }
+
+    public synchronized int size() {return _entries.size();}
+
+    public synchronized long getCells() {return _cells;}
+
+    public synchronized long getHits() {return _hits;}
+
+    public synchronized long getMisses() {return _misses;}
+
+    public synchronized long getEvictions() {return _evictions;}
+
+    @Override
+    public synchronized String toString() {
+        return "Factor cache: " + _hits + " hits, " + _misses + " misses, " + _evictions + " evictions, " +
+                _entries.size() + " factors, " + _cells + "/" + _cellBudget + " cells";
+    }
+}
@@ -0,0 +1,349 @@
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Implements an MCMC inference algorithm: Gibbs sampling, for evidence that is too unlikely for likelihood weighting.
+
+ * The chain walks over the relevant variables (ancestors of the query and the evidence), the evidence stays fixed.
+ * A sweep draws every non-evidence variable again from its distribution given its Markov blanket:
+ * P(X=x | blanket) ∝ P(x | parents(X)) * Π_children P(child | parents(child)).
+ * The blanket of every variable (parents, children and the other parents of the children) is computed once
+ * from the parents of the definitions and the reverse children index of the network.
+
+ * Several chains run in parallel on the SamplingPool, one per core. Every chain has its own SplittableRandom (split from one seed)
+ * and its own assignment, and returns its own counts, so the chains share nothing while they run.
+ * The first sweeps of every chain (burn-in) are dropped, and only every thinning-th sweep is kept.
+ * The convergence of the chains is checked with the Gelman-Rubin statistic (R-hat) of the indicator [Q=q]:
+ * values close to 1 mean the chains agree, values above about 1.1 mean more sweeps are needed.
+
+ * The counts are the operations of the full conditionals: the multiplications by the CPTs of the children
+ * and the additions of the normalization.
+ */
+public class GibbsSampler {
+
+    public static final long DEFAULT_SEED = 42L;
+    public static final int DEFAULT_SWEEPS = 20_000;
+    public static final int DEFAULT_THINNING = 1;
+
+    /**
+     * The result of a run: the posterior of the query variable and the convergence statistic.
+     */
+    public static class Estimate {
+        private final double[] _posterior;
+        private final int _queryOutcome;
+        private final double _rHat;
+        private final int _chains;
+        private final long _keptSamples;
+        private final long _stuckSteps;
+        private final long _numberOfAdditions;
+        private final long _numberOfMultiplications;
+
+        Estimate(double[] posterior, int queryOutcome, double rHat, int chains, long keptSamples, long stuckSteps,
+                 long numberOfAdditions, long numberOfMultiplications) {
+            _posterior = posterior;
+            _queryOutcome = queryOutcome;
+            _rHat = rHat;
+            _chains = chains;
+            _keptSamples = keptSamples;
+            _stuckSteps = stuckSteps;
+            _numberOfAdditions = numberOfAdditions;
+            _numberOfMultiplications = numberOfMultiplications;
+        }
+
+        public double getProbability() {return _posterior[_queryOutcome];}
+
+        // The estimated probability of every outcome of the query variable
+        public double[] getPosterior() {return _posterior.clone();}
+
+        public double getRHat() {return _rHat;}
+
+        public int getChains() {return _chains;}
+
+        public long getKeptSamples() {return _keptSamples;}
+
+        // How many times a variable kept its old state because every outcome was impossible given its blanket
+        public long getStuckSteps() {return _stuckSteps;}
+
+        public long getNumberOfAdditions() {return _numberOfAdditions;}
+
+        public long getNumberOfMultiplications() {return _numberOfMultiplications;}
+
+        @Override
+        public String toString() {
+            return String.format("%.5f (posterior %s, R-hat %.4f, %d chains, %d kept samples)",
+                    getProbability(), Arrays.toString(_posterior), _rHat, _chains, _keptSamples);
+        }
+    }
+
+    // The counts of one chain
+    private static class ChainCounts {
+        long[] outcomeCounts; // How many kept samples had every outcome of the query variable
+        long kept = 0;
+        long stuck = 0;
+        long additions = 0;
+        long multiplications = 0;
+    }
+
+    // Runs the query with a new context
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network, String[] options) {
+        return calculateProbability(query, network, options, new QueryContext());
+    }
+
+    /**
+     * Runs the sampler with the default seed and one chain per core, for a query line of Ex1.
+     *
+     * @param query   The classified query.
+     * @param network The Bayesian network.
+     * @param options The options after the algorithm: [sweeps per chain [, burn-in [, thinning]]], may be empty.
+     * @param context The context of this query, the operations are counted into it.
+     * @return A string with the estimated probability and the operation counts.
+     */
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network, String[] options, QueryContext context) {
+        int sweeps = DEFAULT_SWEEPS;
+        int burnIn = -1;
+        int thinning = DEFAULT_THINNING;
+        try {
+            if (options.length > 0) sweeps = Integer.parseInt(options[0].trim());
+            if (options.length > 1) burnIn = Integer.parseInt(options[1].trim());
+            if (options.length > 2) thinning = Integer.parseInt(options[2].trim());
+        } catch (NumberFormatException e) {
+            context.log("Invalid Gibbs options: " + String.join(",", options) + ". Using the defaults.");
+            sweeps = DEFAULT_SWEEPS;
+            burnIn = -1;
+            thinning = DEFAULT_THINNING;
+        }
+        if (burnIn < 0) {
+            burnIn = sweeps / 10; // The default burn-in is a tenth of the sweeps
+        }
+        int chains = Math.max(2, Runtime.getRuntime().availableProcessors());
+        Estimate estimate = estimate(query, network, chains, sweeps, burnIn, thinning, DEFAULT_SEED, context);
+        context.log("Gibbs sampling estimate: " + estimate);
+        if (estimate.getStuckSteps() > 0) {
+            context.log("Warning: the chains were stuck " + estimate.getStuckSteps() +
+                    " times (every outcome of a variable was impossible given its Markov blanket).");
+        }
+        if (estimate.getRHat() > 1.1) {
+            context.log("Warning: R-hat is " + String.format("%.4f", estimate.getRHat()) + ", the chains did not converge. Try more sweeps.");
+        }
+        context.addAdditions(estimate.getNumberOfAdditions());
+        context.addMultiplications(estimate.getNumberOfMultiplications());
+        return context.formatResult(estimate.getProbability());
+    }
+
+    /**
+     * Estimates the posterior of the query variable with Gibbs sampling.
+     *
+     * @param query    The classified query.
+     * @param network  The Bayesian network.
+     * @param chains   The number of chains (at least 2, for R-hat).
+     * @param sweeps   The number of sweeps of every chain, including the burn-in.
+     * @param burnIn   The number of first sweeps of every chain that are dropped.
+     * @param thinning Only every thinning-th sweep after the burn-in is kept.
+     * @param seed     The seed the chains are split from.
+     * @return The estimate and R-hat.
+     */
+    public static Estimate estimate(ClassifiedQuery query, BayesianNetwork network, int chains, int sweeps, int burnIn,
+                                    int thinning, long seed) {
+        return estimate(query, network, chains, sweeps, burnIn, thinning, seed, new QueryContext());
+    }
+
+    // Estimates the posterior, and prints the Markov blankets through the context (its counters are not used)
+    static Estimate estimate(ClassifiedQuery query, BayesianNetwork network, int chains, int sweeps, int burnIn,
+                             int thinning, long seed, QueryContext context) {
+        if (chains < 2) {
+            throw new IllegalArgumentException("At least 2 chains are needed for R-hat, got " + chains);
+        }
+        if (sweeps <= 0 || burnIn < 0 || burnIn >= sweeps || thinning < 1) {
+            throw new IllegalArgumentException("Invalid sweeps " + sweeps + ", burn-in " + burnIn + " or thinning " + thinning);
+        }
+
+        int variableCount = network.getVariableCount();
+        int[] evidence = new int[variableCount];
+        Arrays.fill(evidence, -1);
+        int[] evidenceVariables = query.getEvidenceVariables();
+        int[] evidenceOutcomes = query.getEvidenceOutcomes();
+        for (int i = 0; i < evidenceVariables.length; i++) {
+            evidence[evidenceVariables[i]] = evidenceOutcomes[i];
+        }
+
+        // Only the ancestors of the query and the evidence take part, the other variables sum to 1
+        boolean[] relevant = network.getTopology().relevantVariables(query.getQueryVariable(), evidenceVariables);
+        int[] order = Arrays.stream(network.getTopologicalOrder()).filter(id -> relevant[id]).toArray();
+        int[] sampled = Arrays.stream(order).filter(id -> evidence[id] < 0).toArray();
+
+        // The CPTs as arrays, and the relevant children of every variable (the CPTs that mention it besides its own)
+        double[][] cpts = new double[variableCount][];
+        int[][] children = new int[variableCount][];
+        for (int id : order) {
+            Definition definition = network.getDefinition(id);
+            if (definition == null) {
+                throw new IllegalStateException("Variable " + network.getVariable(id).getName() + " has no CPT to sample from");
+            }
+            cpts[id] = definition.getProbabilities();
+            children[id] = Arrays.stream(network.getChildIds(id)).filter(child -> relevant[child]).toArray();
+        }
+        printMarkovBlankets(network, sampled, children, context);
+
+        // One task per chain, every chain gets its own random stream
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Future<ChainCounts>> futures = new ArrayList<>();
+        for (int chain = 0; chain < chains; chain++) {
+            SplittableRandom random = root.split();
+            futures.add(SamplingPool.get().submit(
+                    () -> runChain(query, network, evidence, order, sampled, cpts, children, random, sweeps, burnIn, thinning)));
+        }
+        List<ChainCounts> results = new ArrayList<>();
+        try {
+            for (Future<ChainCounts> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sampling", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sampling failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        // Pool the chains
+        int outcomeCount = network.getVariable(query.getQueryVariable()).getOutcomeCount();
+        long[] totalCounts = new long[outcomeCount];
+        long kept = 0;
+        long stuck = 0;
+        long additions = 0;
+        long multiplications = 0;
+        for (ChainCounts counts : results) {
+            for (int outcome = 0; outcome < outcomeCount; outcome++) {
+                totalCounts[outcome] += counts.outcomeCounts[outcome];
+            }
+            kept += counts.kept;
+            stuck += counts.stuck;
+            additions += counts.additions;
+            multiplications += counts.multiplications;
+        }
+        double[] posterior = new double[outcomeCount];
+        for (int outcome = 0; outcome < outcomeCount; outcome++) {
+            posterior[outcome] = (double) totalCounts[outcome] / kept;
+        }
+        double rHat = rHat(results, query.getQueryOutcome());
+        return new Estimate(posterior, query.getQueryOutcome(), rHat, chains, kept, stuck, additions, multiplications);
+    }
+
+    // Runs one chain: a forward sample to start, then the sweeps
+    private static ChainCounts runChain(ClassifiedQuery query, BayesianNetwork network, int[] evidence, int[] order,
+                                       int[] sampled, double[][] cpts, int[][] children, SplittableRandom random,
+                                       int sweeps, int burnIn, int thinning) {
+        ChainCounts counts = new ChainCounts();
+        int queryVariable = query.getQueryVariable();
+        counts.outcomeCounts = new long[network.getVariable(queryVariable).getOutcomeCount()];
+        int[] assignment = new int[network.getVariableCount()];
+
+        // Start from a forward sample with the evidence fixed
+        for (int id : order) {
+            if (evidence[id] >= 0) {
+                assignment[id] = evidence[id];
+            } else {
+                assignment[id] = 0;
+                int row = network.getCptIndex(id, assignment);
+                assignment[id] = draw(cpts[id], row, network.getVariable(id).getOutcomeCount(), 1.0, random);
+            }
+        }
+
+        double[] weights = new double[maxOutcomeCount(network, sampled)];
+        for (int sweep = 0; sweep < sweeps; sweep++) {
+            for (int id : sampled) {
+                int outcomeCount = network.getVariable(id).getOutcomeCount();
+                double total = 0.0;
+                for (int outcome = 0; outcome < outcomeCount; outcome++) {
+                    assignment[id] = outcome;
+                    double weight = cpts[id][network.getCptIndex(id, assignment)];
+                    for (int child : children[id]) {
+                        weight *= cpts[child][network.getCptIndex(child, assignment)];
+                    }
+                    counts.multiplications += children[id].length;
+                    weights[outcome] = weight;
+                    total += weight;
+                }
+                counts.additions += outcomeCount - 1;
+                if (total == 0.0) {
+                    // Every outcome is impossible given the blanket (deterministic CPTs), keep the old state
+                    counts.stuck++;
+                    continue;
+                }
+                assignment[id] = draw(weights, 0, outcomeCount, total, random);
+            }
+            if (sweep >= burnIn && (sweep - burnIn) % thinning == 0) {
+                counts.outcomeCounts[assignment[queryVariable]]++;
+                counts.kept++;
+            }
+        }
+        return counts;
+    }
+
+    // Draws an outcome from the weights[start .. start+outcomeCount), which sum to total
+    private static int draw(double[] weights, int start, int outcomeCount, double total, SplittableRandom random) {
+        double u = random.nextDouble() * total;
+        int outcome = 0;
+        double cumulative = weights[start];
+        while (u >= cumulative && outcome < outcomeCount - 1) {
+            outcome++;
+            cumulative += weights[start + outcome];
+        }
+        return outcome;
+    }
+
+    // The Gelman-Rubin statistic of the indicator [Q=q] over the chains
+    private static double rHat(List<ChainCounts> chains, int queryOutcome) {
+        int m = chains.size();
+        double n = chains.get(0).kept; // All the chains keep the same number of samples
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double[] means = new double[m];
+        double meanOfMeans = 0.0;
+        double withinVariance = 0.0; // W
+        for (int j = 0; j < m; j++) {
+            means[j] = chains.get(j).outcomeCounts[queryOutcome] / n;
+            meanOfMeans += means[j] / m;
+            // The sample variance of a 0/1 sequence with mean p is p(1-p) n/(n-1)
+            withinVariance += means[j] * (1 - means[j]) * n / (n - 1) / m;
+        }
+        double betweenVariance = 0.0; // B
+        for (int j = 0; j < m; j++) {
+            betweenVariance += (means[j] - meanOfMeans) * (means[j] - meanOfMeans) * n / (m - 1);
+        }
+        if (withinVariance == 0.0) {
+            // Every chain stayed on one value: they agree only if it is the same value
+            return (betweenVariance == 0.0) ? 1.0 : Double.POSITIVE_INFINITY;
+        }
+        double pooledVariance = (n - 1) / n * withinVariance + betweenVariance / n;
+        return Math.sqrt(pooledVariance / withinVariance);
+    }
+
+    private static int maxOutcomeCount(BayesianNetwork network, int[] variables) {
+        int max = 1;
+        for (int id : variables) {
+            max = Math.max(max, network.getVariable(id).getOutcomeCount());
+        }
+        return max;
+    }
+
+    // Prints the Markov blanket of every sampled variable: parents, children and the other parents of the children
+    private static void printMarkovBlankets(BayesianNetwork network, int[] sampled, int[][] children, QueryContext context) {
+        for (int id : sampled) {
+            Set<String> blanket = new TreeSet<>();
+            for (int parentId : network.getParentIds(id)) {
+                blanket.add(network.getVariable(parentId).getName());
+            }
+            for (int child : children[id]) {
+                blanket.add(network.getVariable(child).getName());
+                for (int coParent : network.getParentIds(child)) {
+                    if (coParent != id) {
+                        blanket.add(network.getVariable(coParent).getName());
+                    }
+                }
+            }
+            context.log("Markov blanket of " + network.getVariable(id).getName() + ": " + blanket);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.*;
+
+/**
+ * A stateful inference session over a compiled network, for callers that change the evidence one item at a time.
+ * The network is compiled once into a junction tree, and the session keeps the messages between calls:
+ * setting or retracting one evidence item drops only the messages that depend on it,
+ * and a posterior computes again only the dropped messages it needs.
+
+ * Example:
+ *   InferenceSession session = new InferenceSession(network);
+ *   session.setEvidence("J", "T");
+ *   session.setEvidence("M", "T");
+ *   double p = session.getPosterior("B", "T");   // P(B=T|J=T,M=T)
+ *   session.retractEvidence("M");
+ *   p = session.getPosterior("B", "T");          // P(B=T|J=T)
+ */
+public class InferenceSession {
+    private final BayesianNetwork _network;
+    private final JunctionTreeState _state;
+
+    public InferenceSession(BayesianNetwork network) {
+        this(JunctionTree.compile(network));
+    }
+
+    // A session over a tree that was already compiled (the tree is not changed, many sessions can share it)
+    public InferenceSession(JunctionTree tree) {
+        _network = tree.getNetwork();
+        int[] noEvidence = new int[_network.getVariableCount()];
+        Arrays.fill(noEvidence, -1);
+        _state = new JunctionTreeState(tree, noEvidence);
+    }
+
+    public BayesianNetwork getNetwork() {return _network;}
+
+    // The operations done by this session since it was created
+    public long getNumberOfAdditions() {return _state.getNumberOfAdditions();}
+
+    public long getNumberOfMultiplications() {return _state.getNumberOfMultiplications();}
+
+    /**
+     * Observes an outcome of a variable. If the variable was observed before, the old outcome is replaced.
+     *
+     * @throws IllegalArgumentException If the variable or the outcome does not exist.
+     */
+    public void setEvidence(String variableName, String outcome) {
+        Variable variable = _network.getVariable(requireVariableId(variableName));
+        int outcomeIndex = variable.getOutcomeIndex(outcome);
+        if (outcomeIndex < 0) {
+            throw new IllegalArgumentException("Invalid outcome " + outcome + " for variable " + variableName);
+        }
+        _state.setEvidence(variable.getId(), outcomeIndex);
+    }
+
+    /**
+     * Removes the observation of a variable. Nothing happens if the variable is not observed.
+     *
+     * @throws IllegalArgumentException If the variable does not exist.
+     */
+    public void retractEvidence(String variableName) {
+        _state.setEvidence(requireVariableId(variableName), -1);
+    }
+
+    // The current evidence: the observed variables and their outcomes, in variable order
+    public Map<String, String> getEvidence() {
+        Map<String, String> evidence = new LinkedHashMap<>();
+        for (int id = 0; id < _network.getVariableCount(); id++) {
+            int outcome = _state.getEvidence(id);
+            if (outcome >= 0) {
+                Variable variable = _network.getVariable(id);
+                evidence.put(variable.getName(), variable.getOutcomes().get(outcome));
+            }
+        }
+        return evidence;
+    }
+
+    /**
+     * The posterior distribution of a variable given the current evidence.
+     *
+     * @return The probability of every outcome (in the order of the network), all zeros if the evidence is impossible.
+     * @throws IllegalArgumentException If the variable does not exist.
+     */
+    public Map<String, Double> getPosterior(String variableName) {
+        Variable variable = _network.getVariable(requireVariableId(variableName));
+        double[] posterior = _state.getPosterior(variable.getId());
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int i = 0; i < posterior.length; i++) {
+            result.put(variable.getOutcomes().get(i), posterior[i]);
+        }
+        return result;
+    }
+
+    /**
+     * P(variable=outcome | current evidence).
+     *
+     * @throws IllegalArgumentException If the variable or the outcome does not exist.
+     */
+    public double getPosterior(String variableName, String outcome) {
+        Variable variable = _network.getVariable(requireVariableId(variableName));
+        int outcomeIndex = variable.getOutcomeIndex(outcome);
+        if (outcomeIndex < 0) {
+            throw new IllegalArgumentException("Invalid outcome " + outcome + " for variable " + variableName);
+        }
+        return _state.getPosterior(variable.getId())[outcomeIndex];
+    }
+
+    private int requireVariableId(String name) {
+        int id = _network.getVariableId(name);
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown variable: " + name);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * A prepared evaluator of full joint probabilities: P(X1=x1, ..., Xn=xn) = Π P(Xi=xi | parents(Xi)).
+ * For every variable the evaluator keeps its definition, its parent ids and how far a step in every parent moves
+ * in the CPT. The probabilities are read through the definitions and never copied, so a network mapped from
+ * a compiled file (see CompiledNetworkFile) stays mapped, and only the cells a query needs are read.
+ * An assignment is evaluated with one indexed read per variable, without any allocation,
+ * so one evaluator can be reused for any number of joint queries (and by several threads at once, it is not changed).
+ * The network keeps its evaluator (BayesianNetwork.getJointEvaluator()), it lives as long as the network.
+ */
+public class JointEvaluator {
+    private final BayesianNetwork _network;
+    private final Definition[] _definitions; // The definition (CPT) of every variable, by id
+    private final int[][] _parentIds;        // The parents of every variable, in the order of <GIVEN>
+    private final int[][] _parentStrides;    // How far a step in every parent moves in the CPT of the variable
+
+    // Use BayesianNetwork.getJointEvaluator(), it builds the evaluator once
+    JointEvaluator(BayesianNetwork network) {
+        _network = network;
+        int variableCount = network.getVariableCount();
+        _definitions = new Definition[variableCount];
+        _parentIds = new int[variableCount][];
+        _parentStrides = new int[variableCount][];
+
+        for (int id = 0; id < variableCount; id++) {
+            Definition definition = network.getDefinition(id);
+            if (definition == null) {
+                throw new IllegalArgumentException("Variable " + network.getVariable(id).getName() + " has no CPT");
+            }
+            _definitions[id] = definition;
+            int[] parentIds = network.getParentIds(id);
+            int[] strides = new int[parentIds.length];
+            int stride = network.getVariable(id).getOutcomeCount();
+            for (int i = parentIds.length - 1; i >= 0; i--) {
+                strides[i] = stride;
+                stride *= network.getVariable(parentIds[i]).getOutcomeCount();
+            }
+            _parentIds[id] = parentIds.clone();
+            _parentStrides[id] = strides;
+        }
+    }
+
+    public BayesianNetwork getNetwork() {return _network;}
+
+    /**
+     * Returns the joint probability of a full assignment.
+     * The product is taken in the order of the variable ids, so a query gives the same number as reading the
+     * CPTs one by one from the network.
+     *
+     * @param assignment The outcome index of every variable, by variable id (all of them have to be set).
+     * @return The joint probability.
+     */
+    public double evaluate(int[] assignment) {
+        if (assignment.length != _definitions.length) {
+            throw new IllegalArgumentException("The assignment has " + assignment.length + " variables, the network has " + _definitions.length);
+        }
+        double jointProbability = 1.0;
+        for (int id = 0; id < _definitions.length && jointProbability != 0.0; id++) {
+            int index = assignment[id];
+            int[] parentIds = _parentIds[id];
+            int[] strides = _parentStrides[id];
+            for (int i = 0; i < parentIds.length; i++) {
+                index += assignment[parentIds[i]] * strides[i];
+            }
+            jointProbability *= _definitions[id].getProbability(index);
+        }
+        return jointProbability;
+    }
+
+    /**
+     * Returns the natural logarithm of the joint probability of a full assignment: Σ log P(Xi=xi | parents(Xi)).
+     * A sum of logarithms does not underflow to 0 like the product does for many variables.
+     *
+     * @param assignment The outcome index of every variable, by variable id (all of them have to be set).
+     * @return The log-likelihood, or negative infinity if the assignment is impossible.
+     */
+    public double logEvaluate(int[] assignment) {
+        if (assignment.length != _definitions.length) {
+            throw new IllegalArgumentException("The assignment has " + assignment.length + " variables, the network has " + _definitions.length);
+        }
+        double logLikelihood = 0.0;
+        for (int id = 0; id < _definitions.length; id++) {
+            int index = assignment[id];
+            int[] parentIds = _parentIds[id];
+            int[] strides = _parentStrides[id];
+            for (int i = 0; i < parentIds.length; i++) {
+                index += assignment[parentIds[i]] * strides[i];
+            }
+            logLikelihood += Math.log(_definitions[id].getProbability(index));
+        }
+        return logLikelihood;
+    }
+
+    // Same as evaluate(assignment), and the n-1 multiplications of the product are counted into the context
+    public double evaluate(int[] assignment, QueryContext context) {
+        double jointProbability = evaluate(assignment);
+        context.addMultiplications(_definitions.length - 1);
+        return jointProbability;
+    }
+}
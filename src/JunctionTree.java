@@ -0,0 +1,223 @@
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * This class is a Bayesian network compiled into a clique tree (junction tree).
+
+ * Compilation:
+ * 1. The moralized graph of the whole network is triangulated by eliminating all the variables with min-fill.
+ *    Every elimination step gives a clique: the variable and its neighbours at that time.
+ * 2. Cliques that are contained in another clique are dropped.
+ * 3. The cliques are connected by a maximum spanning tree, the weight of an edge is the size of the separator
+ *    (the variables the two cliques share). This tree has the running intersection property.
+ * 4. Every CPT is assigned to the smallest clique that holds the variable and its parents,
+ *    and the potential of a clique is the product of its CPTs.
+
+ * The compiled tree does not change after compilation, the evidence and the messages live in JunctionTreeState.
+ */
+public class JunctionTree {
+    private final BayesianNetwork _network;
+    private final List<List<Variable>> _cliques;
+    private final int[][] _neighbours;  // The adjacent cliques of every clique
+    private final int[] _parent;        // The parent of every clique when the tree hangs from clique 0, -1 for the root
+    private final int[] _preOrder;      // The cliques from the root down, every clique comes after its parent
+    private final Factor[] _potentials; // The product of the CPTs assigned to every clique (before evidence)
+    private final int[] _homeClique;    // The smallest clique that holds every variable (by id)
+
+    private JunctionTree(BayesianNetwork network, List<List<Variable>> cliques, int[][] neighbours, int[] parent,
+                         int[] preOrder, Factor[] potentials, int[] homeClique) {
+        _network = network;
+        _cliques = Collections.unmodifiableList(cliques);
+        _neighbours = neighbours;
+        _parent = parent;
+        _preOrder = preOrder;
+        _potentials = potentials;
+        _homeClique = homeClique;
+    }
+
+    /**
+     * Compiles the network into a junction tree.
+     *
+     * @param network The Bayesian network.
+     * @return The compiled tree.
+     */
+    public static JunctionTree compile(BayesianNetwork network) {
+        int variableCount = network.getVariableCount();
+
+        // 1. Triangulate the moral graph, every elimination step gives a clique
+        boolean[] allVariables = new boolean[variableCount];
+        Arrays.fill(allVariables, true);
+        List<Integer> allIds = new ArrayList<>();
+        for (int id = 0; id < variableCount; id++) {
+            allIds.add(id);
+        }
+        List<BitSet> eliminationCliques = new ArrayList<>();
+        new EliminationOrder(network, allVariables).eliminate(allIds, EliminationOrder.Heuristic.MIN_FILL, eliminationCliques);
+
+        // 2. Keep only the maximal cliques (and only one copy of equal cliques)
+        List<BitSet> cliqueSets = new ArrayList<>();
+        for (int i = 0; i < eliminationCliques.size(); i++) {
+            BitSet clique = eliminationCliques.get(i);
+            boolean contained = false;
+            for (int j = 0; j < eliminationCliques.size() && !contained; j++) {
+                if (i == j) continue;
+                BitSet other = eliminationCliques.get(j);
+                BitSet rest = (BitSet) clique.clone();
+                rest.andNot(other);
+                // Contained in a bigger clique, or equal to a clique that comes first
+                contained = rest.isEmpty() && (other.cardinality() > clique.cardinality() || j < i);
+            }
+            if (!contained) {
+                cliqueSets.add(clique);
+            }
+        }
+        int cliqueCount = cliqueSets.size();
+
+        // 3. Maximum spanning tree on the separator sizes (Prim), from clique 0
+        int[] parent = new int[cliqueCount];
+        int[] bestWeight = new int[cliqueCount];
+        boolean[] inTree = new boolean[cliqueCount];
+        Arrays.fill(parent, -1);
+        Arrays.fill(bestWeight, -1);
+        List<List<Integer>> adjacency = new ArrayList<>();
+        for (int i = 0; i < cliqueCount; i++) {
+            adjacency.add(new ArrayList<>());
+        }
+        int[] preOrder = new int[cliqueCount];
+        int next = 0;
+        bestWeight[0] = 0;
+        for (int step = 0; step < cliqueCount; step++) {
+            int chosen = -1;
+            for (int i = 0; i < cliqueCount; i++) {
+                if (!inTree[i] && (chosen < 0 || bestWeight[i] > bestWeight[chosen])) {
+                    chosen = i;
+                }
+            }
+            inTree[chosen] = true;
+            preOrder[next++] = chosen;
+            if (parent[chosen] >= 0) {
+                adjacency.get(chosen).add(parent[chosen]);
+                adjacency.get(parent[chosen]).add(chosen);
+            }
+            for (int i = 0; i < cliqueCount; i++) {
+                if (inTree[i]) continue;
+                BitSet separator = (BitSet) cliqueSets.get(i).clone();
+                separator.and(cliqueSets.get(chosen));
+                if (separator.cardinality() > bestWeight[i]) {
+                    bestWeight[i] = separator.cardinality();
+                    parent[i] = chosen;
+                }
+            }
+        }
+        // Prim adds every clique after its parent, so the order of the tree is a pre-order from clique 0
+        int[][] neighbours = new int[cliqueCount][];
+        for (int i = 0; i < cliqueCount; i++) {
+            neighbours[i] = adjacency.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        List<List<Variable>> cliques = new ArrayList<>();
+        for (BitSet clique : cliqueSets) {
+            List<Variable> domain = new ArrayList<>();
+            for (int id = clique.nextSetBit(0); id >= 0; id = clique.nextSetBit(id + 1)) {
+                domain.add(network.getVariable(id));
+            }
+            cliques.add(Collections.unmodifiableList(domain));
+        }
+
+        // The home clique of every variable: the smallest clique that holds it
+        int[] homeClique = new int[variableCount];
+        for (int id = 0; id < variableCount; id++) {
+            homeClique[id] = smallestCliqueContaining(cliqueSets, new int[]{id});
+        }
+
+        // 4. Every CPT goes to the smallest clique that holds its family, the potential starts as ones over the clique
+        Factor[] potentials = new Factor[cliqueCount];
+        for (int i = 0; i < cliqueCount; i++) {
+            potentials[i] = unitFactor(cliques.get(i));
+        }
+        for (int id = 0; id < variableCount; id++) {
+            Definition definition = network.getDefinition(id);
+            if (definition == null) continue;
+            int[] parentIds = network.getParentIds(id);
+            int[] family = Arrays.copyOf(parentIds, parentIds.length + 1);
+            family[parentIds.length] = id;
+            int clique = smallestCliqueContaining(cliqueSets, family);
+            potentials[clique] = potentials[clique].multiply(new Factor(definition, network));
+        }
+
+        return new JunctionTree(network, cliques, neighbours, parent, preOrder, potentials, homeClique);
+    }
+
+    public BayesianNetwork getNetwork() {return _network;}
+
+    public int getCliqueCount() {return _cliques.size();}
+
+    public List<Variable> getClique(int clique) {return _cliques.get(clique);}
+
+    // Do not modify the returned arrays
+    public int[] getNeighbours(int clique) {return _neighbours[clique];}
+
+    public int getParent(int clique) {return _parent[clique];}
+
+    public int[] getPreOrder() {return _preOrder;}
+
+    // The potential of the clique before evidence: the product of its CPTs
+    public Factor getPotential(int clique) {return _potentials[clique];}
+
+    public int getHomeClique(int variableId) {return _homeClique[variableId];}
+
+    // The variables of clique 'from' that are not in clique 'to' (they are summed out in the message from -> to)
+    int[] variablesNotIn(int from, int to) {
+        List<Variable> target = _cliques.get(to);
+        return _cliques.get(from).stream()
+                .filter(v -> !target.contains(v))
+                .mapToInt(Variable::getId)
+                .toArray();
+    }
+
+    // A factor with the value 1.0 in all the cells of the domain
+    private static Factor unitFactor(List<Variable> domain) {
+        int size = 1;
+        for (Variable var : domain) {
+            size = Math.multiplyExact(size, var.getOutcomeCount());
+        }
+        double[] ones = new double[size];
+        Arrays.fill(ones, 1.0);
+        int[] free = new int[domain.size()];
+        Arrays.fill(free, -1);
+        return new Factor(domain, free, ones);
+    }
+
+    private static int smallestCliqueContaining(List<BitSet> cliques, int[] variables) {
+        int best = -1;
+        for (int i = 0; i < cliques.size(); i++) {
+            BitSet clique = cliques.get(i);
+            boolean containsAll = true;
+            for (int id : variables) {
+                if (!clique.get(id)) {
+                    containsAll = false;
+                    break;
+                }
+            }
+            if (containsAll && (best < 0 || clique.cardinality() < cliques.get(best).cardinality())) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalStateException("No clique holds the variables " + Arrays.toString(variables));
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Junction tree of ").append(_network.getName()).append(" (").append(_cliques.size()).append(" cliques)\n");
+        for (int i = 0; i < _cliques.size(); i++) {
+            sb.append("  Clique ").append(i).append(": [")
+                    .append(_cliques.get(i).stream().map(Variable::getName).collect(Collectors.joining(",")))
+                    .append("] parent: ").append(_parent[i]).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.*;
+
+/**
+ * This class holds the evidence and the messages of a compiled junction tree (Shafer-Shenoy propagation).
+
+ * Every edge of the tree has two messages:
+ * up   - from a clique to its parent (computed from the leaves to the root, the collect pass).
+ * down - from the parent to the clique (computed from the root to the leaves, the distribute pass).
+ * The message from clique i to clique j is the potential of i, multiplied by the messages that come into i
+ * from all its other neighbours, with the variables that are not in j summed out.
+
+ * After the two passes every clique can give its belief (potential times all the incoming messages),
+ * and the posterior of a variable is its belief summed down to the variable and normalized.
+ * Beliefs are kept, so more posteriors from the same clique cost only the summing out.
+ * The additions and multiplications are counted like in Algorithm 2.
+
+ * The evidence can be changed one variable at a time. A change touches only the cliques that hold the variable,
+ * and only the messages that go away from those cliques are dropped (null means "not computed").
+ * Messages are computed when a posterior needs them, so after a change only the dropped messages
+ * on the way to the asked clique are computed again.
+ * A message is never kept while a message it was computed from is dropped: if the message from a to b
+ * is dropped, all the messages from b away from a are dropped too. This lets the dropping stop early.
+ */
+public class JunctionTreeState {
+    private final JunctionTree _tree;
+    private final int[] _evidence;        // The observed outcome of every variable (by id), -1 if not observed
+    private final Factor[] _potentials;   // The potentials after the evidence was entered
+    private final Factor[] _upMessages;   // The message from every clique to its parent, null if not computed
+    private final Factor[] _downMessages; // The message from the parent of every clique to the clique, null if not computed
+    private final Factor[] _beliefs;      // The belief of every clique, null if not computed
+
+    private long _numberOfAdditions = 0;
+    private long _numberOfMultiplications = 0;
+
+    /**
+     * Enters the evidence into the clique potentials. Restricting does not add or multiply anything.
+     *
+     * @param tree     The compiled junction tree.
+     * @param evidence The observed outcome of every variable (by id), -1 if not observed.
+     */
+    public JunctionTreeState(JunctionTree tree, int[] evidence) {
+        if (evidence.length != tree.getNetwork().getVariableCount()) {
+            throw new IllegalArgumentException("Evidence must have an entry for every variable, expected "
+                    + tree.getNetwork().getVariableCount() + " but got " + evidence.length);
+        }
+        _tree = tree;
+        _evidence = evidence.clone();
+        int cliqueCount = tree.getCliqueCount();
+        _potentials = new Factor[cliqueCount];
+        _upMessages = new Factor[cliqueCount];
+        _downMessages = new Factor[cliqueCount];
+        _beliefs = new Factor[cliqueCount];
+
+        for (int clique = 0; clique < cliqueCount; clique++) {
+            _potentials[clique] = restrictedPotential(clique);
+        }
+    }
+
+    /**
+     * A state with the evidence, the potentials and the messages of another state, and no beliefs.
+     * It counts from zero, so a posterior on it is counted as on a state that was just calibrated.
+     * The factors are shared (a factor is never changed), and the other state is not changed.
+     *
+     * @param calibrated The state to copy, usually a calibrated one.
+     */
+    public JunctionTreeState(JunctionTreeState calibrated) {
+        _tree = calibrated._tree;
+        _evidence = calibrated._evidence.clone();
+        _potentials = calibrated._potentials.clone();
+        _upMessages = calibrated._upMessages.clone();
+        _downMessages = calibrated._downMessages.clone();
+        _beliefs = new Factor[_tree.getCliqueCount()];
+    }
+
+    public JunctionTree getTree() {return _tree;}
+
+    public long getNumberOfAdditions() {return _numberOfAdditions;}
+
+    public long getNumberOfMultiplications() {return _numberOfMultiplications;}
+
+    // The observed outcome of the variable, -1 if it is not observed
+    public int getEvidence(int variableId) {return _evidence[variableId];}
+
+    // Returns true if the evidence of this state is exactly this evidence
+    public boolean hasEvidence(int[] evidence) {
+        return Arrays.equals(_evidence, evidence);
+    }
+
+    /**
+     * Sets (or retracts) the evidence of one variable.
+     * The potentials of the cliques that hold the variable are restricted again, and the messages that went out
+     * of them (directly or through other cliques) are dropped. Nothing is computed here.
+     *
+     * @param variableId The variable.
+     * @param outcome    The observed outcome index, or -1 to retract the evidence of the variable.
+     */
+    public void setEvidence(int variableId, int outcome) {
+        Variable variable = _tree.getNetwork().getVariable(variableId);
+        if (outcome < -1 || outcome >= variable.getOutcomeCount()) {
+            throw new IllegalArgumentException("Invalid outcome index " + outcome + " for variable " + variable.getName());
+        }
+        if (_evidence[variableId] == outcome) {
+            return;
+        }
+        _evidence[variableId] = outcome;
+        for (int clique = 0; clique < _tree.getCliqueCount(); clique++) {
+            if (_tree.getClique(clique).contains(variable)) {
+                _potentials[clique] = restrictedPotential(clique);
+                _beliefs[clique] = null;
+                dropMessagesFrom(clique, -1);
+            }
+        }
+    }
+
+    /**
+     * Runs the two message passes: collect (leaves to root) and then distribute (root to leaves).
+     * Messages that are already computed are kept.
+     */
+    public void calibrate() {
+        int[] preOrder = _tree.getPreOrder();
+        // Collect: a clique sends up after all its children sent up to it
+        for (int i = preOrder.length - 1; i > 0; i--) {
+            int clique = preOrder[i];
+            message(clique, _tree.getParent(clique));
+        }
+        // Distribute: a clique sends down after its parent got the message from above
+        for (int i = 1; i < preOrder.length; i++) {
+            int clique = preOrder[i];
+            message(_tree.getParent(clique), clique);
+        }
+    }
+
+    /**
+     * The posterior distribution of a variable given the evidence.
+     *
+     * @param variableId The variable.
+     * @return The probability of every outcome of the variable (by outcome index),
+     *         or all zeros if the evidence is impossible.
+     */
+    public double[] getPosterior(int variableId) {
+        int home = _tree.getHomeClique(variableId);
+        if (_beliefs[home] == null) {
+            _beliefs[home] = incomingProduct(home, -1);
+        }
+        Factor marginal = _beliefs[home];
+        for (Variable var : _tree.getClique(home)) {
+            if (var.getId() != variableId) {
+                marginal = sumOut(marginal, var.getId());
+            }
+        }
+
+        // The marginal holds only the variable now, a single cell if the variable is evidence
+        Variable variable = _tree.getNetwork().getVariable(variableId);
+        double[] posterior = new double[variable.getOutcomeCount()];
+        double normalizationFactor = 0.0;
+        for (int i = 0; i < marginal.size(); i++) {
+            normalizationFactor += marginal.valueAt(i);
+        }
+        _numberOfAdditions += marginal.size() - 1;
+        if (normalizationFactor == 0.0) {
+            return posterior;
+        }
+        if (_evidence[variableId] >= 0) {
+            posterior[_evidence[variableId]] = marginal.valueAt(0) / normalizationFactor;
+        } else {
+            for (int i = 0; i < posterior.length; i++) {
+                posterior[i] = marginal.valueAt(i) / normalizationFactor;
+            }
+        }
+        return posterior;
+    }
+
+    // The message from clique 'from' to its neighbour 'to', computed only if it is not kept
+    private Factor message(int from, int to) {
+        boolean up = (to == _tree.getParent(from));
+        Factor message = up ? _upMessages[from] : _downMessages[to];
+        if (message == null) {
+            message = incomingProduct(from, to);
+            for (int id : _tree.variablesNotIn(from, to)) {
+                message = sumOut(message, id);
+            }
+            if (up) {
+                _upMessages[from] = message;
+            } else {
+                _downMessages[to] = message;
+            }
+        }
+        return message;
+    }
+
+    // Drops the messages from the clique to all its neighbours except 'except', and everything they reach
+    private void dropMessagesFrom(int clique, int except) {
+        for (int neighbour : _tree.getNeighbours(clique)) {
+            if (neighbour == except) continue;
+            boolean up = (neighbour == _tree.getParent(clique));
+            Factor message = up ? _upMessages[clique] : _downMessages[neighbour];
+            // A dropped message means everything behind it is dropped already
+            if (message == null) continue;
+            if (up) {
+                _upMessages[clique] = null;
+            } else {
+                _downMessages[neighbour] = null;
+            }
+            _beliefs[neighbour] = null;
+            dropMessagesFrom(neighbour, clique);
+        }
+    }
+
+    // The potential of the clique from the compiled tree, restricted to the current evidence.
+    // Every clique that holds an evidence variable is restricted, not only one of them.
+    // It does not change the result and keeps all the tables small.
+    private Factor restrictedPotential(int clique) {
+        Factor potential = _tree.getPotential(clique);
+        for (Variable var : _tree.getClique(clique)) {
+            if (_evidence[var.getId()] >= 0) {
+                potential = potential.restrict(var.getId(), _evidence[var.getId()]);
+            }
+        }
+        return potential;
+    }
+
+    // The potential of the clique times the messages from all its neighbours except 'except' (-1 for all of them)
+    private Factor incomingProduct(int clique, int except) {
+        Factor product = _potentials[clique];
+        for (int neighbour : _tree.getNeighbours(clique)) {
+            if (neighbour == except) continue;
+            product = product.multiply(message(neighbour, clique));
+            _numberOfMultiplications += product.size();
+        }
+        return product;
+    }
+
+    private Factor sumOut(Factor factor, int variableId) {
+        Factor result = factor.sumOut(variableId);
+        _numberOfAdditions += factor.size() - result.size();
+        return result;
+    }
+}
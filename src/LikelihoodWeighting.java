@@ -0,0 +1,260 @@
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Implements an approximate inference algorithm: likelihood weighting.
+ * For networks where the factors of Algorithm 2 and Algorithm 3 do not fit in memory.
+
+ * Every sample goes over the relevant variables (ancestors of the query and the evidence) in topological order:
+ * an evidence variable gets its observed outcome and the weight of the sample is multiplied by
+ * P(evidence | parents), any other variable is drawn from its CPT given the parents that were already drawn.
+ * P(Q=q|E) is estimated by Σ w * [Q=q] / Σ w, and the standard error by the delta method:
+ * sqrt(Σ w² ([Q=q] - p)²) / Σ w.
+
+ * The samples are drawn in parallel (on the SamplingPool): every stream has its own SplittableRandom (split from one seed),
+ * keeps its own sums, and the sums are added together in stream order after all the streams finish.
+ * With a sample count the result depends only on the seed, not on the number of cores.
+
+ * The counts are the operations on the weights: a multiplication for every evidence variable of every sample,
+ * and an addition for every term added to the two weighted sums.
+ */
+public class LikelihoodWeighting {
+
+    public static final long DEFAULT_SEED = 42L;
+    public static final int DEFAULT_SAMPLES = 100_000;
+    public static final int DEFAULT_STREAMS = 16;
+
+    // How many samples a stream draws between two checks of the clock
+    private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+    /**
+     * The result of a run: the estimate, its standard error and how it was computed.
+     */
+    public static class Estimate {
+        private final double _probability;
+        private final double _standardError;
+        private final long _samples;
+        private final double _effectiveSampleSize;
+        private final long _numberOfAdditions;
+        private final long _numberOfMultiplications;
+
+        Estimate(double probability, double standardError, long samples, double effectiveSampleSize,
+                 long numberOfAdditions, long numberOfMultiplications) {
+            _probability = probability;
+            _standardError = standardError;
+            _samples = samples;
+            _effectiveSampleSize = effectiveSampleSize;
+            _numberOfAdditions = numberOfAdditions;
+            _numberOfMultiplications = numberOfMultiplications;
+        }
+
+        public double getProbability() {return _probability;}
+
+        public double getStandardError() {return _standardError;}
+
+        public long getSamples() {return _samples;}
+
+        // (Σ w)² / Σ w², how many unweighted samples the weighted samples are worth
+        public double getEffectiveSampleSize() {return _effectiveSampleSize;}
+
+        public long getNumberOfAdditions() {return _numberOfAdditions;}
+
+        public long getNumberOfMultiplications() {return _numberOfMultiplications;}
+
+        @Override
+        public String toString() {
+            return String.format("%.5f (standard error %.5f, %d samples, effective sample size %.1f)",
+                    _probability, _standardError, _samples, _effectiveSampleSize);
+        }
+    }
+
+    // The sums of one stream
+    private static class StreamSums {
+        long samples = 0;
+        double weights = 0.0;              // Σ w
+        double matchingWeights = 0.0;      // Σ w * [Q=q]
+        double squaredWeights = 0.0;       // Σ w²
+        double matchingSquaredWeights = 0.0; // Σ w² * [Q=q]
+        long additions = 0;
+        long multiplications = 0;
+    }
+
+    // Runs the query with a new context
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network, String budget) {
+        return calculateProbability(query, network, budget, new QueryContext());
+    }
+
+    /**
+     * Runs the sampler with the default seed and number of streams, for a query line of Ex1.
+     *
+     * @param query   The classified query.
+     * @param network The Bayesian network.
+     * @param budget  A number of samples ("100000"), a time budget ("500ms", "2s"), or null for the default samples.
+     * @param context The context of this query, the operations are counted into it.
+     * @return A string with the estimated probability and the operation counts.
+     */
+    public static String calculateProbability(ClassifiedQuery query, BayesianNetwork network, String budget, QueryContext context) {
+        long samples = DEFAULT_SAMPLES;
+        long timeBudgetMillis = 0;
+        if (budget != null) {
+            String trimmed = budget.trim().toLowerCase(Locale.ROOT);
+            try {
+                if (trimmed.endsWith("ms")) {
+                    samples = 0;
+                    timeBudgetMillis = Long.parseLong(trimmed.substring(0, trimmed.length() - 2).trim());
+                } else if (trimmed.endsWith("s")) {
+                    samples = 0;
+                    timeBudgetMillis = Long.parseLong(trimmed.substring(0, trimmed.length() - 1).trim()) * 1000;
+                } else {
+                    samples = Long.parseLong(trimmed);
+                }
+            } catch (NumberFormatException e) {
+                context.log("Invalid sampling budget: " + budget.trim() + ". Using " + DEFAULT_SAMPLES + " samples.");
+                samples = DEFAULT_SAMPLES;
+                timeBudgetMillis = 0;
+            }
+        }
+        Estimate estimate = estimate(query, network, samples, timeBudgetMillis, DEFAULT_STREAMS, DEFAULT_SEED);
+        context.log("Likelihood weighting estimate: " + estimate);
+        context.addAdditions(estimate.getNumberOfAdditions());
+        context.addMultiplications(estimate.getNumberOfMultiplications());
+        return context.formatResult(estimate.getProbability());
+    }
+
+    /**
+     * Estimates P(Q=q|E) with likelihood weighting.
+     * At least one budget has to be set. If both are set, the sampling stops at the first one reached.
+     *
+     * @param query            The classified query.
+     * @param network          The Bayesian network.
+     * @param samples          The total number of samples, or 0 for no limit on the samples.
+     * @param timeBudgetMillis The wall-clock budget in milliseconds, or 0 for no time limit.
+     * @param streams          The number of independent random streams (parallel tasks).
+     * @param seed             The seed the streams are split from.
+     * @return The estimate and its standard error.
+     */
+    public static Estimate estimate(ClassifiedQuery query, BayesianNetwork network, long samples, long timeBudgetMillis,
+                                    int streams, long seed) {
+        if (samples < 0 || timeBudgetMillis < 0) {
+            throw new IllegalArgumentException("Budgets cannot be negative");
+        }
+        if (samples == 0 && timeBudgetMillis == 0) {
+            throw new IllegalArgumentException("Either a sample count or a time budget has to be set");
+        }
+        if (streams < 1) {
+            throw new IllegalArgumentException("There has to be at least one stream, got " + streams);
+        }
+
+        // Only the ancestors of the query and the evidence are sampled, the other variables sum to 1
+        int variableCount = network.getVariableCount();
+        boolean[] relevant = network.getTopology().relevantVariables(query.getQueryVariable(), query.getEvidenceVariables());
+        int[] order = Arrays.stream(network.getTopologicalOrder()).filter(id -> relevant[id]).toArray();
+
+        // The CPTs as arrays, read once for all the samples
+        double[][] cpts = new double[variableCount][];
+        for (int id : order) {
+            Definition definition = network.getDefinition(id);
+            if (definition == null) {
+                throw new IllegalStateException("Variable " + network.getVariable(id).getName() + " has no CPT to sample from");
+            }
+            cpts[id] = definition.getProbabilities();
+        }
+
+        long deadline = (timeBudgetMillis > 0) ? System.nanoTime() + timeBudgetMillis * 1_000_000L : Long.MAX_VALUE;
+
+        // Split all the streams here, so stream i always gets the same random numbers
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Future<StreamSums>> futures = new ArrayList<>();
+        for (int stream = 0; stream < streams; stream++) {
+            SplittableRandom random = root.split();
+            long streamSamples = (samples == 0) ? Long.MAX_VALUE : samples / streams + (stream < samples % streams ? 1 : 0);
+            futures.add(SamplingPool.get().submit(
+                    () -> sample(query, network, order, cpts, random, streamSamples, deadline)));
+        }
+
+        // Merge the sums in stream order (no shared state between the streams)
+        StreamSums total = new StreamSums();
+        try {
+            for (Future<StreamSums> future : futures) {
+                StreamSums sums = future.get();
+                total.samples += sums.samples;
+                total.weights += sums.weights;
+                total.matchingWeights += sums.matchingWeights;
+                total.squaredWeights += sums.squaredWeights;
+                total.matchingSquaredWeights += sums.matchingSquaredWeights;
+                total.additions += sums.additions;
+                total.multiplications += sums.multiplications;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sampling", e);
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IllegalStateException("Sampling failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        if (total.weights == 0.0) {
+            // No sample agreed with the evidence (or the evidence is impossible)
+            return new Estimate(0.0, Double.NaN, total.samples, 0.0, total.additions, total.multiplications);
+        }
+        double p = total.matchingWeights / total.weights;
+        // Σ w² ([Q=q] - p)² = Σ w² [Q=q] (1 - 2p) + p² Σ w²
+        double squaredDeviations = total.matchingSquaredWeights * (1 - 2 * p) + p * p * total.squaredWeights;
+        double standardError = Math.sqrt(Math.max(squaredDeviations, 0.0)) / total.weights;
+        double effectiveSampleSize = total.weights * total.weights / total.squaredWeights;
+        return new Estimate(p, standardError, total.samples, effectiveSampleSize, total.additions, total.multiplications);
+    }
+
+    // Draws the samples of one stream
+    private static StreamSums sample(ClassifiedQuery query, BayesianNetwork network, int[] order, double[][] cpts,
+                                     SplittableRandom random, long samples, long deadline) {
+        StreamSums sums = new StreamSums();
+        int queryVariable = query.getQueryVariable();
+        int queryOutcome = query.getQueryOutcome();
+        int[] assignment = new int[network.getVariableCount()];
+        int[] evidence = new int[network.getVariableCount()];
+        Arrays.fill(evidence, -1);
+        int[] evidenceVariables = query.getEvidenceVariables();
+        int[] evidenceOutcomes = query.getEvidenceOutcomes();
+        for (int i = 0; i < evidenceVariables.length; i++) {
+            evidence[evidenceVariables[i]] = evidenceOutcomes[i];
+        }
+
+        while (sums.samples < samples) {
+            if (sums.samples % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+            double weight = 1.0;
+            for (int id : order) {
+                double[] cpt = cpts[id];
+                if (evidence[id] >= 0) {
+                    assignment[id] = evidence[id];
+                    weight *= cpt[network.getCptIndex(id, assignment)];
+                    sums.multiplications++;
+                } else {
+                    // The row of the parents starts at the index of outcome 0, the outcomes are next to each other
+                    assignment[id] = 0;
+                    int row = network.getCptIndex(id, assignment);
+                    int outcomeCount = network.getVariable(id).getOutcomeCount();
+                    double u = random.nextDouble();
+                    int outcome = 0;
+                    double cumulative = cpt[row];
+                    while (u >= cumulative && outcome < outcomeCount - 1) {
+                        outcome++;
+                        cumulative += cpt[row + outcome];
+                    }
+                    assignment[id] = outcome;
+                }
+            }
+            sums.samples++;
+            sums.weights += weight;
+            sums.squaredWeights += weight * weight;
+            sums.additions++;
+            if (assignment[queryVariable] == queryOutcome) {
+                sums.matchingWeights += weight;
+                sums.matchingSquaredWeights += weight * weight;
+                sums.additions++;
+            }
+        }
+        return sums;
+    }
+}
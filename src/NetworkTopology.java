@@ -0,0 +1,152 @@
+import java.util.BitSet;
+
+/**
+ * An immutable index of the graph of a network, built once (see BayesianNetwork.getTopology()):
+ * the parents and the children of every variable as int arrays, a topological order,
+ * and the ancestors and the descendants of every variable as bit sets (long[] words, bit i is variable i).
+ * A variable is in its own ancestor and descendant sets.
+
+ * The closures are built in topological order: the ancestors of a variable are the variable and the OR of the
+ * ancestors of its parents, and the descendants the same way from the last variable back.
+ * After that, the variables that can matter for a query (the query, the evidence and their ancestors)
+ * are a few ORs of words instead of a BFS over the parents for every query and evidence variable.
+ */
+public class NetworkTopology {
+    private final int _variableCount;
+    private final int _words;             // The number of longs in every set
+    private final int[][] _parentIds;
+    private final int[][] _childIds;
+    private final int[] _topologicalOrder; // null if the graph has a cycle
+    private final long[][] _ancestors;
+    private final long[][] _descendants;
+
+    public NetworkTopology(BayesianNetwork network) {
+        _variableCount = network.getVariableCount();
+        _words = (_variableCount + 63) >>> 6;
+        _parentIds = new int[_variableCount][];
+        _childIds = new int[_variableCount][];
+        for (int id = 0; id < _variableCount; id++) {
+            _parentIds[id] = network.getParentIds(id).clone();
+            _childIds[id] = network.getChildIds(id).clone();
+        }
+        int[] order;
+        try {
+            order = network.getTopologicalOrder().clone();
+        } catch (IllegalStateException e) {
+            order = null;
+        }
+        _topologicalOrder = order;
+
+        _ancestors = new long[_variableCount][_words];
+        _descendants = new long[_variableCount][_words];
+        if (order != null) {
+            // Every parent comes before its children, so its set is complete when a child reads it
+            for (int id : order) {
+                setBit(_ancestors[id], id);
+                for (int parentId : _parentIds[id]) {
+                    or(_ancestors[id], _ancestors[parentId]);
+                }
+            }
+            for (int i = order.length - 1; i >= 0; i--) {
+                int id = order[i];
+                setBit(_descendants[id], id);
+                for (int childId : _childIds[id]) {
+                    or(_descendants[id], _descendants[childId]);
+                }
+            }
+        } else {
+            // With a cycle there is no order to build on, every variable gets its own search
+            for (int id = 0; id < _variableCount; id++) {
+                closure(id, _parentIds, _ancestors[id]);
+                closure(id, _childIds, _descendants[id]);
+            }
+        }
+    }
+
+    public int getVariableCount() {return _variableCount;}
+
+    // Do not modify the returned array
+    public int[] getParentIds(int id) {return _parentIds[id];}
+
+    // Do not modify the returned array
+    public int[] getChildIds(int id) {return _childIds[id];}
+
+    // Every variable after its parents. Do not modify the returned array.
+    public int[] getTopologicalOrder() {
+        if (_topologicalOrder == null) {
+            throw new IllegalStateException("The graph has a directed cycle, it has no topological order");
+        }
+        return _topologicalOrder;
+    }
+
+    // True if ancestor is an ancestor of id (or id itself)
+    public boolean isAncestor(int ancestor, int id) {
+        return (_ancestors[id][ancestor >>> 6] & (1L << ancestor)) != 0;
+    }
+
+    // True if descendant is a descendant of id (or id itself)
+    public boolean isDescendant(int descendant, int id) {
+        return (_descendants[id][descendant >>> 6] & (1L << descendant)) != 0;
+    }
+
+    // The ancestors of the variable (with the variable itself), as a new BitSet
+    public BitSet getAncestors(int id) {return BitSet.valueOf(_ancestors[id]);}
+
+    // The descendants of the variable (with the variable itself), as a new BitSet
+    public BitSet getDescendants(int id) {return BitSet.valueOf(_descendants[id]);}
+
+    /**
+     * Returns the variables that can affect a query: the query variable, the evidence variables and all their ancestors.
+     *
+     * @param queryVariable     The id of the query variable.
+     * @param evidenceVariables The ids of the evidence variables.
+     * @return An array indexed by variable id, true for a relevant variable.
+     */
+    public boolean[] relevantVariables(int queryVariable, int[] evidenceVariables) {
+        long[] words = _ancestors[queryVariable].clone();
+        for (int evidenceVariable : evidenceVariables) {
+            or(words, _ancestors[evidenceVariable]);
+        }
+        boolean[] relevant = new boolean[_variableCount];
+        for (int w = 0; w < _words; w++) {
+            long word = words[w];
+            while (word != 0) {
+                relevant[(w << 6) + Long.numberOfTrailingZeros(word)] = true;
+                word &= word - 1;
+            }
+        }
+        return relevant;
+    }
+
+    private static void setBit(long[] words, int bit) {
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    private static void or(long[] target, long[] source) {
+        for (int w = 0; w < target.length; w++) {
+            target[w] |= source[w];
+        }
+    }
+
+    // The variables reachable from id through the edges (and id itself), by a depth first search
+    private void closure(int id, int[][] edges, long[] words) {
+        int[] stack = new int[_variableCount];
+        int top = 0;
+        stack[top++] = id;
+        setBit(words, id);
+        while (top > 0) {
+            int current = stack[--top];
+            for (int next : edges[current]) {
+                if ((words[next >>> 6] & (1L << next)) == 0) {
+                    setBit(words, next);
+                    stack[top++] = next;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkTopology{" + _variableCount + " variables, " + (_topologicalOrder == null ? "cyclic" : "acyclic") + "}";
+    }
+}
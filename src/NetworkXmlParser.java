@@ -1,314 +1,488 @@
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-
-/**
- * A class that parses an XML file into a Bayesian network
- */
-public class NetworkXmlParser {
-
-    /**
-     * Parses the XML file at the given path and returns a BayesianNetwork object.
-     *
-     * @param filePath Path to the XML file.
-     * @return The parsed BayesianNetwork object.
-     * @throws ParserConfigurationException If a DocumentBuilder cannot be created.
-     * @throws IOException                  If any IO errors occur.
-     * @throws SAXException                 If any parse errors occur.
-     * @throws IllegalArgumentException     If the XML structure or content is invalid.
-     */
-    public BayesianNetwork parse(String filePath) throws ParserConfigurationException, IOException, SAXException {
-        // 1. Setup DOM Parser
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-
-        // 2. Parse XML file into Document object
-        File xmlFile = new File(filePath);
-        if (!xmlFile.exists()) {
-            throw new IOException("XML file not found: " + filePath);
-        }
-        Document document = builder.parse(xmlFile);
-        document.getDocumentElement().normalize();
-
-        // 3. Get Root Element (<NETWORK>)
-        Element networkElement = document.getDocumentElement();
-        if (!networkElement.getNodeName().equals("NETWORK")) {
-            throw new IllegalArgumentException("Root element must be <NETWORK>");
-        }
-
-        // 4. Initialize lists and map for variables and definitions
-        List<Variable> variables = new ArrayList<>();
-        List<Definition> definitions = new ArrayList<>();
-        Map<String, Variable> variableMap = new HashMap<>(); // Helper map to find Variables by name quickly
-
-        // 5. Parse <VARIABLE> tags
-        NodeList variableNodes = networkElement.getElementsByTagName("VARIABLE");
-        for (int i = 0; i < variableNodes.getLength(); i++) {
-            Node node = variableNodes.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element variableElement = (Element) node;
-                Variable variable = parseVariableNode(variableElement);
-                if (variableMap.containsKey(variable.getName())) {
-                    throw new IllegalArgumentException("Duplicate variable name found: " + variable.getName());
-                }
-                variables.add(variable);
-                variableMap.put(variable.getName(), variable);
-            }
-        }
-        System.out.println("Parsed " + variables.size() + " variables.");
-
-        // 6. Parse <DEFINITION> tags
-        NodeList definitionNodes = networkElement.getElementsByTagName("DEFINITION");
-        for (int i = 0; i < definitionNodes.getLength(); i++) {
-            Node node = definitionNodes.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element definitionElement = (Element) node;
-                // Pass the variableMap to find parent/child Variable objects
-                Definition definition = parseDefinitionNode(definitionElement, variableMap);
-                definitions.add(definition);
-            }
-        }
-        System.out.println("Parsed " + definitions.size() + " definitions.");
-
-        // 7. Create the BayesianNetwork object
-        // Use the filename (without extension for example: . or XML) as the network name
-        String networkName = xmlFile.getName().replaceFirst("[.][^.]+$", "");
-
-        // Build the BayesianNetwork object
-        BayesianNetwork network = new BayesianNetwork(networkName, definitions, variables);
-
-        return network;
-    }
-
-    /**
-     * Parses a <VARIABLE> element and returns a Variable object.
-     */
-    private Variable parseVariableNode(Element variableElement) {
-        // Get the name of the variable
-        String name = getElementTextContent(variableElement, "NAME");
-        if (name == null || name.isEmpty()) {
-            throw new IllegalArgumentException("<VARIABLE> tag must contain a non-empty <NAME> tag");
-        }
-
-        List<String> outcomes = new ArrayList<>();
-        // Get the outcomes of the variable
-        NodeList outcomeNodes = variableElement.getElementsByTagName("OUTCOME");
-        if (outcomeNodes.getLength() == 0) {
-            throw new IllegalArgumentException("Variable '" + name + "' must have at least one <OUTCOME>");
-        }
-        for (int i = 0; i < outcomeNodes.getLength(); i++) {
-            String outcome = outcomeNodes.item(i).getTextContent();
-            if (outcome == null || outcome.trim().isEmpty()) {
-                throw new IllegalArgumentException("Variable '" + name + "' has an empty <OUTCOME> tag");
-            }
-            // Add the outcome to the String list (of outcomes)
-            outcomes.add(outcome.trim());
-        }
-
-        // Use Variable constructor to create a new Variable object
-        return new Variable(name, outcomes);
-    }
-
-    /**
-     * Parses a <DEFINITION> element and returns a Definition object.
-     */
-    private Definition parseDefinitionNode(Element definitionElement, Map<String, Variable> variableMap) {
-        // Get the name of the variable
-        String forName = getElementTextContent(definitionElement, "FOR");
-        if (forName == null || forName.isEmpty()) {
-            throw new IllegalArgumentException("<DEFINITION> tag must contain a non-empty <FOR> tag");
-        }
-        Variable childVar = variableMap.get(forName);
-        // Check if the variable is defined
-        if (childVar == null) {
-            throw new IllegalArgumentException("Variable '" + forName + "' mentioned in <FOR> tag was not defined in a <VARIABLE> tag.");
-        }
-
-        List<String> parentNames = new ArrayList<>();
-        List<Variable> parentVars = new ArrayList<>();
-        NodeList givenNodes = definitionElement.getElementsByTagName("GIVEN");
-        for (int i = 0; i < givenNodes.getLength(); i++) {
-            String parentName = givenNodes.item(i).getTextContent();
-            // Check if the parent name is empty
-            if (parentName == null || parentName.trim().isEmpty()) {
-                throw new IllegalArgumentException("<DEFINITION> for '"+forName+"' has an empty <GIVEN> tag");
-            }
-            parentName = parentName.trim();
-            Variable parentVar = variableMap.get(parentName);
-            // Check if the parent variable is defined
-            if (parentVar == null) {
-                throw new IllegalArgumentException("Variable '" + parentName + "' mentioned in <GIVEN> tag for '" + forName + "' was not defined in a <VARIABLE> tag.");
-            }
-            // Add the parent name and variable to the String lists
-            parentNames.add(parentName);
-            parentVars.add(parentVar);
-        }
-
-        String tableString = getElementTextContent(definitionElement, "TABLE");
-        // Check if the table string is empty
-        if (tableString == null || tableString.isEmpty()) {
-            throw new IllegalArgumentException("<DEFINITION> tag for variable '" + forName + "' must contain a non-empty <TABLE> tag");
-        }
-
-        // *** Parse the probability table string ***
-        List<ProbabilityEntry> probabilityEntries = parseTableString(tableString, childVar, parentVars);
-
-        // Use Definition constructor
-        // Pass the collected parent names (can be empty) and the generated probability entries
-        return new Definition(forName, parentNames, probabilityEntries);
-    }
-
-    /**
-     * Parses the probability string from a <TABLE> tag and returns a list of ProbabilityEntry objects.
-     * This implements the logic to match probabilities to state combinations based on standard ordering.
-     *
-     * @param tableString The string containing space-separated probabilities.
-     * @param childVar    The child Variable object.
-     * @param parentVars  The list of parent Variable objects, in the order they appeared in <GIVEN> tags.
-     * @return A list of ProbabilityEntry objects.
-     */
-    private List<ProbabilityEntry> parseTableString(String tableString, Variable childVar, List<Variable> parentVars) {
-        List<ProbabilityEntry> entries = new ArrayList<>();
-        // Split the table string by whitespace to get individual probability strings
-        String[] probabilityStrings = tableString.trim().split("\\s+");
-        List<Double> probabilities = new ArrayList<>();
-        for (String s : probabilityStrings) {
-            if (s.isEmpty()) continue; // Skip empty strings
-            try {
-                // Parse the probability string to a double
-                probabilities.add(Double.parseDouble(s));
-            } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Invalid number format in <TABLE> for variable " + childVar.getName() + ": '" + s + "'", e);
-            }
-        }
-
-        // Validate the number of probabilities against the expected size (from the <TABLE> tag)
-        int expectedNumberOfProbabilities = 1;
-        // Calculate expected size: product of domain sizes of parents * domain size of child
-        for (Variable parent : parentVars) {
-            expectedNumberOfProbabilities *= parent.getOutcomes().size();
-        }
-        expectedNumberOfProbabilities *= childVar.getOutcomes().size();
-
-        if (probabilities.size() != expectedNumberOfProbabilities) {
-            throw new IllegalArgumentException("Number of probabilities in <TABLE> (" + probabilities.size() +
-                    ") does not match expected number based on parent/child outcomes (" + expectedNumberOfProbabilities +
-                    ") for variable '" + childVar.getName() + "'");
-        }
-
-        // Use the recursive helper to generate entries based on the standard order
-        RecursiveEntryGenerator generator = new RecursiveEntryGenerator(probabilities, childVar, parentVars, entries);
-        generator.generate(0, new HashMap<>()); // Start recursion for the first parent (index 0)
-
-        // Final check to ensure the number of generated entries matches the expected size
-        if (entries.size() != expectedNumberOfProbabilities) {
-            System.err.println("WARNING: Generated entries count (" + entries.size() +
-                    ") mismatch after generation for variable '" + childVar.getName() +
-                    "'. Expected: " + expectedNumberOfProbabilities);
-        }
-
-        return entries;
-    }
-
-    /**
-     * Helper class to recursively generate ProbabilityEntry objects by iterating
-     * through parent and child state combinations in the correct order.
-     * Assumes standard CPT ordering: child iterates fastest, then last parent, etc.
-     */
-    private static class RecursiveEntryGenerator {
-        private final List<Double> _probabilities;
-        private final Variable _childVar;
-        private final List<Variable> _parentVars; // Parents in the order they appear in <GIVEN>
-        private final List<ProbabilityEntry> _targetEntryList;
-        private int _probabilityIndex;
-
-        RecursiveEntryGenerator(List<Double> probabilities, Variable childVar, List<Variable> parentVars, List<ProbabilityEntry> targetEntryList) {
-            _probabilities = Objects.requireNonNull(probabilities);
-            _childVar = Objects.requireNonNull(childVar);
-            _parentVars = Objects.requireNonNull(parentVars); // Order matters!
-            _targetEntryList = Objects.requireNonNull(targetEntryList);
-            _probabilityIndex = 0;
-        }
-
-        /**
-         * Recursively generates entries.
-         * @param parentIndex The index of the current parent being processed.
-         * @param currentParentStates Map holding the state assignments for parents processed so far.
-         * @explain: The logic in this function is the core of inserting values into the CPT table of a variable.
-         * The process stores the values of the parents of each variable in the MAP.
-         * Insert the first parent that appears in the XML with its first value, and insert the parent after it in the
-         * list in this way until we reach all the parents. After that, we insert all the values of the child variable.
-         * Then we remove the last parent from the MAP, insert it with a change in its value,
-         * and return to insert all the values of the child.
-         * This way, each time we will go back and change the value of the last parent and execute the CPT table responsibly.
-         */
-        void generate(int parentIndex, Map<String, String> currentParentStates) {
-            // Base Case: All parents have been assigned a state
-            if (parentIndex == _parentVars.size()) {
-                // Now, iterate through all outcomes of the child variable
-                for (String childOutcome : _childVar.getOutcomes()) {
-                    if (_probabilityIndex >= _probabilities.size()) {
-                        throw new IndexOutOfBoundsException("Probability index exceeded bounds while processing child outcomes for " + _childVar.getName() +
-                                ". Check CPT table size and ordering logic.");
-                    }
-                    double probability = _probabilities.get(_probabilityIndex++);
-                    // Create the entry for this specific combination
-                    // Use Map.copyOf to ensure each entry gets its own immutable map instance
-                    Map<String, String> parentStatesCopy = new HashMap<>(currentParentStates);
-                    ProbabilityEntry entry = new ProbabilityEntry(parentStatesCopy, probability, childOutcome);
-                    _targetEntryList.add(entry);
-                }
-                return; // Finished with this combination of parent states
-            }
-
-            // Recursive Step: Iterate through outcomes of the current parent
-            Variable currentParent = _parentVars.get(parentIndex);
-            for (String parentOutcome : currentParent.getOutcomes()) {
-                // Assign the current outcome to the current parent
-                currentParentStates.put(currentParent.getName(), parentOutcome);
-                // Recurse for the next parent
-                generate(parentIndex + 1, currentParentStates);
-                // Backtrack: Remove the assignment for the current parent so the loop can continue
-                // This is necessary because we modify the map in place before the recursive call.
-                currentParentStates.remove(currentParent.getName());
-            }
-        }
-    }
-
-
-    /**
-     * Helper method to get the trimmed text content of the first child element with a specific tag name.
-     * Returns null if the tag is not found or has no text content.
-
-     * Example:
-     * <VARIABLE>
-     *     <NAME>E</NAME>
-     * <VARIABLE>
-     * Calling getElementTextContent(variableElement, "NAME") will return "E".
-     * If the <NAME> tag is missing, the method will return null.
-     */
-    private String getElementTextContent(Element parentElement, String childTagName) {
-        NodeList nodeList = parentElement.getElementsByTagName(childTagName);
-        if (nodeList.getLength() > 0) {
-            Node node = nodeList.item(0);
-            if (node != null) {
-                String text = node.getTextContent();
-                return (text != null) ? text.trim() : null;
-            }
-        }
-        return null;
-    }
-}
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class that parses an XML file into a Bayesian network.
+ * The file is read with a streaming (StAX) reader in one forward pass, there is no DOM of the whole document:
+ * every <VARIABLE> and <DEFINITION> is built when its end tag is reached, so besides the network itself
+ * the parser holds only the element it reads (at most one <TABLE> at a time).
+
+ * The variables are usually written before the definitions. A definition that uses a variable that was not
+ * read yet is kept (with its numbers already parsed) and built at the end of the document.
+ */
+public class NetworkXmlParser {
+
+    // 10^0 .. 10^22, the powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    // The numbers of a <TABLE>, in the order they were written
+    private static class NumberList {
+        double[] values = new double[16];
+        int count = 0;
+
+        void add(double value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+    }
+
+    // A <DEFINITION> as it was read: the names and the numbers of the table
+    private static class RawDefinition {
+        final String forName;
+        final List<String> parentNames;
+        final double[] probabilities;
+
+        RawDefinition(String forName, List<String> parentNames, double[] probabilities) {
+            this.forName = forName;
+            this.parentNames = parentNames;
+            this.probabilities = probabilities;
+        }
+    }
+
+    /**
+     * Parses the XML file at the given path and returns a BayesianNetwork object.
+     *
+     * @param filePath Path to the XML file.
+     * @return The parsed BayesianNetwork object.
+     * @throws IOException              If any IO errors occur.
+     * @throws XMLStreamException       If any parse errors occur.
+     * @throws IllegalArgumentException If the XML structure or content is invalid.
+     */
+    public BayesianNetwork parse(String filePath) throws IOException, XMLStreamException {
+        File xmlFile = new File(filePath);
+        if (!xmlFile.exists()) {
+            throw new IOException("XML file not found: " + filePath);
+        }
+
+        // 1. Setup the streaming reader (no DTDs or external entities, adjacent text is given as one piece)
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        List<Variable> variables = new ArrayList<>();
+        List<Definition> definitions = new ArrayList<>();
+        Map<String, Variable> variableMap = new HashMap<>(); // Helper map to find Variables by name quickly
+        List<RawDefinition> deferredDefinitions = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xmlFile.toPath()), 1 << 16)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                // 2. The root element has to be <NETWORK>. The prolog may have a <!DOCTYPE>, comments,
+                //    processing instructions and spaces before it (the DTD itself is not read)
+                int first = reader.getEventType(); // START_DOCUMENT
+                while (first != XMLStreamConstants.START_ELEMENT) {
+                    boolean prolog = first == XMLStreamConstants.START_DOCUMENT || first == XMLStreamConstants.DTD
+                            || first == XMLStreamConstants.COMMENT || first == XMLStreamConstants.SPACE
+                            || first == XMLStreamConstants.PROCESSING_INSTRUCTION
+                            || (first == XMLStreamConstants.CHARACTERS && reader.isWhiteSpace());
+                    if (!prolog || !reader.hasNext()) {
+                        throw new IllegalArgumentException("Root element must be <NETWORK>");
+                    }
+                    first = reader.next();
+                }
+                if (!reader.getLocalName().equals("NETWORK")) {
+                    throw new IllegalArgumentException("Root element must be <NETWORK>");
+                }
+
+                // 3. One pass over the children of <NETWORK>
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (reader.getLocalName()) {
+                        case "VARIABLE":
+                            Variable variable = parseVariable(reader, variables.size());
+                            if (variableMap.containsKey(variable.getName())) {
+                                throw new IllegalArgumentException("Duplicate variable name found: " + variable.getName());
+                            }
+                            variables.add(variable);
+                            variableMap.put(variable.getName(), variable);
+                            break;
+                        case "DEFINITION":
+                            RawDefinition raw = parseDefinition(reader);
+                            if (allDefined(raw, variableMap)) {
+                                definitions.add(buildDefinition(raw, variableMap));
+                            } else {
+                                deferredDefinitions.add(raw);
+                            }
+                            break;
+                        default:
+                            break; // Other elements (e.g. <NAME> of the network) are not used
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // 4. The definitions that came before their variables
+        for (RawDefinition raw : deferredDefinitions) {
+            definitions.add(buildDefinition(raw, variableMap));
+        }
+        System.out.println("Parsed " + variables.size() + " variables.");
+        System.out.println("Parsed " + definitions.size() + " definitions.");
+
+        // 5. Create the BayesianNetwork object
+        // Use the filename (without extension for example: . or XML) as the network name
+        String networkName = xmlFile.getName().replaceFirst("[.][^.]+$", "");
+
+        // Build the BayesianNetwork object
+        return new BayesianNetwork(networkName, definitions, variables);
+    }
+
+    /**
+     * Reads a <VARIABLE> element (the reader is on its start tag) and returns a Variable object.
+     * The reader ends on the end tag of the element.
+     */
+    private Variable parseVariable(XMLStreamReader reader, int id) throws XMLStreamException {
+        String name = null;
+        List<String> outcomes = new ArrayList<>();
+        while (nextChild(reader, "VARIABLE")) {
+            switch (reader.getLocalName()) {
+                case "NAME":
+                    String text = reader.getElementText().trim();
+                    if (name == null) {
+                        name = text; // Only the first <NAME> counts
+                    }
+                    break;
+                case "OUTCOME":
+                    outcomes.add(reader.getElementText().trim());
+                    break;
+                default:
+                    skipElement(reader);
+                    break;
+            }
+        }
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("<VARIABLE> tag must contain a non-empty <NAME> tag");
+        }
+        if (outcomes.isEmpty()) {
+            throw new IllegalArgumentException("Variable '" + name + "' must have at least one <OUTCOME>");
+        }
+        for (String outcome : outcomes) {
+            if (outcome.isEmpty()) {
+                throw new IllegalArgumentException("Variable '" + name + "' has an empty <OUTCOME> tag");
+            }
+        }
+
+        // Use Variable constructor to create a new Variable object
+        return new Variable(id, name, outcomes);
+    }
+
+    /**
+     * Reads a <DEFINITION> element (the reader is on its start tag). The numbers of the table are parsed here,
+     * the entries are built later, when all the variables of the definition are known.
+     * The reader ends on the end tag of the element.
+     */
+    private RawDefinition parseDefinition(XMLStreamReader reader) throws XMLStreamException {
+        String forName = null;
+        List<String> parentNames = new ArrayList<>();
+        double[] probabilities = null;
+        while (nextChild(reader, "DEFINITION")) {
+            switch (reader.getLocalName()) {
+                case "FOR":
+                    String text = reader.getElementText().trim();
+                    if (forName == null) {
+                        forName = text; // Only the first <FOR> counts
+                    }
+                    break;
+                case "GIVEN":
+                    parentNames.add(reader.getElementText().trim());
+                    break;
+                case "TABLE":
+                    double[] table = readTableNumbers(reader, forName);
+                    if (probabilities == null) {
+                        probabilities = table; // Only the first <TABLE> counts
+                    }
+                    break;
+                default:
+                    skipElement(reader);
+                    break;
+            }
+        }
+        if (forName == null || forName.isEmpty()) {
+            throw new IllegalArgumentException("<DEFINITION> tag must contain a non-empty <FOR> tag");
+        }
+        for (String parentName : parentNames) {
+            if (parentName.isEmpty()) {
+                throw new IllegalArgumentException("<DEFINITION> for '" + forName + "' has an empty <GIVEN> tag");
+            }
+        }
+        if (probabilities == null || probabilities.length == 0) {
+            throw new IllegalArgumentException("<DEFINITION> tag for variable '" + forName + "' must contain a non-empty <TABLE> tag");
+        }
+        return new RawDefinition(forName, parentNames, probabilities);
+    }
+
+    // Returns true if the variable of the definition and all its parents were already read
+    private boolean allDefined(RawDefinition raw, Map<String, Variable> variableMap) {
+        if (!variableMap.containsKey(raw.forName)) {
+            return false;
+        }
+        for (String parentName : raw.parentNames) {
+            if (!variableMap.containsKey(parentName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the Definition object of a definition that was read.
+     */
+    private Definition buildDefinition(RawDefinition raw, Map<String, Variable> variableMap) {
+        Variable childVar = variableMap.get(raw.forName);
+        // Check if the variable is defined
+        if (childVar == null) {
+            throw new IllegalArgumentException("Variable '" + raw.forName + "' mentioned in <FOR> tag was not defined in a <VARIABLE> tag.");
+        }
+        List<Variable> parentVars = new ArrayList<>();
+        for (String parentName : raw.parentNames) {
+            Variable parentVar = variableMap.get(parentName);
+            // Check if the parent variable is defined
+            if (parentVar == null) {
+                throw new IllegalArgumentException("Variable '" + parentName + "' mentioned in <GIVEN> tag for '" + raw.forName + "' was not defined in a <VARIABLE> tag.");
+            }
+            parentVars.add(parentVar);
+        }
+
+        checkTableSize(raw.probabilities, childVar, parentVars);
+
+        // The numbers are already in the standard CPT order (the child changes fastest, then the last parent, etc.),
+        // so the array itself is the table of the definition
+        return new Definition(childVar, parentVars, raw.probabilities);
+    }
+
+    /**
+     * Reads the space-separated numbers of a <TABLE> element (the reader is on its start tag) straight from
+     * the character data of the reader, without a String for the text or for every number.
+     * A number that a comment cuts in two is put together in a small buffer. The reader ends on the end tag.
+     *
+     * @param reader  The reader, on the start tag of <TABLE>.
+     * @param forName The name of the variable of the definition, if it was read already (for the error messages).
+     * @return The numbers, in the order they were written.
+     */
+    private double[] readTableNumbers(XMLStreamReader reader, String forName) throws XMLStreamException {
+        NumberList numbers = new NumberList();
+        char[] carry = new char[32]; // The start of a number that goes on in the next piece of text
+        int carryLength = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("<TABLE> can contain only numbers", reader.getLocation());
+            }
+            char[] text;
+            int position;
+            int end;
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                // The array belongs to the reader and is valid until the next event
+                text = reader.getTextCharacters();
+                position = reader.getTextStart();
+                end = position + reader.getTextLength();
+            } else if (event == XMLStreamConstants.ENTITY_REFERENCE) {
+                text = reader.getText().toCharArray();
+                position = 0;
+                end = text.length;
+            } else {
+                continue; // Comments and processing instructions
+            }
+            while (position < end) {
+                if (Character.isWhitespace(text[position])) {
+                    if (carryLength > 0) {
+                        numbers.add(parseNumber(carry, 0, carryLength, forName));
+                        carryLength = 0;
+                    }
+                    position++;
+                    continue;
+                }
+                int start = position;
+                while (position < end && !Character.isWhitespace(text[position])) {
+                    position++;
+                }
+                if (position < end && carryLength == 0) {
+                    numbers.add(parseNumber(text, start, position, forName));
+                    continue;
+                }
+                // The number touches the end of this piece of text, or started in the previous one
+                if (carryLength + position - start > carry.length) {
+                    carry = Arrays.copyOf(carry, Math.max(carry.length * 2, carryLength + position - start));
+                }
+                System.arraycopy(text, start, carry, carryLength, position - start);
+                carryLength += position - start;
+                if (position < end) {
+                    numbers.add(parseNumber(carry, 0, carryLength, forName));
+                    carryLength = 0;
+                }
+            }
+        }
+        if (carryLength > 0) {
+            numbers.add(parseNumber(carry, 0, carryLength, forName));
+        }
+        return Arrays.copyOf(numbers.values, numbers.count);
+    }
+
+    /**
+     * Parses the number in chars[start, end), with the same result as Double.parseDouble.
+     * A plain decimal number ("0.95", "1e-3") with at most 15 significant digits and a power of ten up to 22 is
+     * an exact integer times or divided by an exact power of ten, so one correctly rounded operation gives
+     * the nearest double. Any other number is given to Double.parseDouble.
+     */
+    static double parseNumber(char[] chars, int start, int end, String forName) {
+        int position = start;
+        boolean negative = false;
+        if (position < end && (chars[position] == '-' || chars[position] == '+')) {
+            negative = chars[position] == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean point = false;
+        for (; position < end; position++) {
+            char c = chars[position];
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (mantissa != 0 || c != '0') {
+                    if (++significantDigits > 15) {
+                        return parseSlowly(chars, start, end, forName);
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (point) {
+                    exponent--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digits) {
+            return parseSlowly(chars, start, end, forName);
+        }
+        if (position < end && (chars[position] == 'e' || chars[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (chars[position] == '-' || chars[position] == '+')) {
+                negativeExponent = chars[position] == '-';
+                position++;
+            }
+            int written = 0;
+            int exponentStart = position;
+            for (; position < end && chars[position] >= '0' && chars[position] <= '9'; position++) {
+                if (written > 1000) {
+                    return parseSlowly(chars, start, end, forName);
+                }
+                written = written * 10 + (chars[position] - '0');
+            }
+            if (position == exponentStart) {
+                return parseSlowly(chars, start, end, forName);
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        if (position != end) {
+            return parseSlowly(chars, start, end, forName); // e.g. a suffix like "d", or not a number at all
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return parseSlowly(chars, start, end, forName);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseSlowly(char[] chars, int start, int end, String forName) {
+        String number = new String(chars, start, end - start);
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number format in <TABLE> for variable " + forName + ": '" + number + "'", e);
+        }
+    }
+
+    /**
+     * Checks the number of probabilities in the <TABLE> tag against the expected size:
+     * the product of the number of outcomes of the parents and of the child.
+     *
+     * @param probabilities The numbers of the <TABLE> tag.
+     * @param childVar      The child Variable object.
+     * @param parentVars    The list of parent Variable objects, in the order they appeared in <GIVEN> tags.
+     */
+    private void checkTableSize(double[] probabilities, Variable childVar, List<Variable> parentVars) {
+        int expectedNumberOfProbabilities = 1;
+        for (Variable parent : parentVars) {
+            expectedNumberOfProbabilities *= parent.getOutcomes().size();
+        }
+        expectedNumberOfProbabilities *= childVar.getOutcomes().size();
+
+        if (probabilities.length != expectedNumberOfProbabilities) {
+            throw new IllegalArgumentException("Number of probabilities in <TABLE> (" + probabilities.length +
+                    ") does not match expected number based on parent/child outcomes (" + expectedNumberOfProbabilities +
+                    ") for variable '" + childVar.getName() + "'");
+        }
+    }
+
+    /**
+     * Moves the reader to the start tag of the next child element of the current element.
+     * Returns false (with the reader on the end tag of the parent) when there are no more children.
+
+     * Example:
+     * <VARIABLE>
+     *     <NAME>E</NAME>
+     * </VARIABLE>
+     * With the reader on <VARIABLE>, nextChild(reader, "VARIABLE") moves to <NAME> and returns true.
+     * After <NAME> was read, the next call moves to </VARIABLE> and returns false.
+     */
+    private boolean nextChild(XMLStreamReader reader, String parentTagName) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(parentTagName)) {
+                return false;
+            }
+        }
+        throw new IllegalArgumentException("The <" + parentTagName + "> tag is not closed");
+    }
+
+    // Skips the current element (the reader is on its start tag) with everything inside it
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
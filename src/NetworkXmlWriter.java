@@ -0,0 +1,95 @@
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes a BayesianNetwork to an XML file in the format that NetworkXmlParser reads:
+ * <NETWORK> with a <VARIABLE> (<NAME>, <OUTCOME>...) for every variable, and a <DEFINITION>
+ * (<FOR>, <GIVEN>..., <TABLE>) for every CPT. The numbers of a table are written in the standard CPT order
+ * with Double.toString, so the parser reads back exactly the same numbers.
+ */
+public class NetworkXmlWriter {
+
+    /**
+     * Writes the network to an XML file.
+     *
+     * @param network  The Bayesian network.
+     * @param filePath The path of the XML file (created or replaced).
+     * @throws IOException        If the file could not be written.
+     * @throws XMLStreamException If the XML could not be written.
+     */
+    public static void write(BayesianNetwork network, String filePath) throws IOException, XMLStreamException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+            try {
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeCharacters("\n");
+                writer.writeStartElement("NETWORK");
+                writer.writeCharacters("\n");
+                writer.writeComment(" " + commentText(network.getName()) + " ");
+                writer.writeCharacters("\n");
+
+                for (Variable variable : network.getVariables()) {
+                    writer.writeStartElement("VARIABLE");
+                    writer.writeCharacters("\n");
+                    writeElement(writer, "NAME", variable.getName());
+                    for (String outcome : variable.getOutcomes()) {
+                        writeElement(writer, "OUTCOME", outcome);
+                    }
+                    writer.writeEndElement();
+                    writer.writeCharacters("\n");
+                }
+
+                for (Definition definition : network.getDefinitions()) {
+                    writer.writeStartElement("DEFINITION");
+                    writer.writeCharacters("\n");
+                    writeElement(writer, "FOR", definition.getName());
+                    for (String parent : definition.getParents()) {
+                        writeElement(writer, "GIVEN", parent);
+                    }
+                    StringBuilder table = new StringBuilder();
+                    for (int i = 0; i < definition.getTableSize(); i++) {
+                        if (i > 0) {
+                            table.append(' ');
+                        }
+                        table.append(definition.getProbability(i));
+                    }
+                    writeElement(writer, "TABLE", table.toString());
+                    writer.writeEndElement();
+                    writer.writeCharacters("\n");
+                }
+
+                writer.writeEndElement();
+                writer.writeCharacters("\n");
+                writer.writeEndDocument();
+            } finally {
+                writer.close();
+            }
+        }
+        System.out.println("Wrote network " + network.getName() + " to " + filePath);
+    }
+
+    // A comment cannot hold "--" (the name comes from a file name, so it can), the dashes are split by spaces.
+    // A "-" at the end is fine, the comment puts a space after the text.
+    private static String commentText(String text) {
+        while (text.contains("--")) {
+            text = text.replace("--", "- -");
+        }
+        return text;
+    }
+
+    // One indented line: <tag>text</tag>
+    private static void writeElement(XMLStreamWriter writer, String tag, String text) throws XMLStreamException {
+        writer.writeCharacters("\t");
+        writer.writeStartElement(tag);
+        writer.writeCharacters(text);
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+}
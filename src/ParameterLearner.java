@@ -0,0 +1,178 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Learns the CPTs of a network from data (maximum likelihood with Dirichlet smoothing).
+ * The structure (the variables, their outcomes and the parents of every definition) comes from a network,
+ * its probabilities are not used. The data is a CSV file in the format of DatasetScorer: a header with the
+ * variable names, and one full assignment per line.
+
+ * The file is read in chunks, and the records of a chunk are counted in parallel. Every worker thread counts into
+ * its own long[] (all the CPTs one after the other, in the standard order), so the workers never share a counter.
+ * The arrays are added together at the end, and every row of parent outcomes becomes
+ * P(x | parents) = (count(x, parents) + alpha) / (count(parents) + alpha * |outcomes|).
+ * alpha = 1 is Laplace smoothing, alpha = 0 is the plain maximum likelihood estimate.
+ */
+public class ParameterLearner {
+
+    public static final double DEFAULT_ALPHA = 1.0;
+
+    /**
+     * Learns the CPTs of the structure from a CSV file.
+     *
+     * @param structure The network with the variables and the parents (its CPTs are ignored).
+     * @param csvPath   The path of the data.
+     * @param alpha     The Dirichlet pseudo-count added to every cell (0 for no smoothing).
+     * @param threads   The number of worker threads.
+     * @param chunkSize The number of records read and counted at a time.
+     * @return A new network with the same structure and the learned CPTs.
+     * @throws IOException              If the file could not be read.
+     * @throws IllegalArgumentException If the header or a record is invalid (the message has the line number).
+     */
+    public static BayesianNetwork learn(BayesianNetwork structure, String csvPath, double alpha, int threads, int chunkSize)
+            throws IOException {
+        if (alpha < 0 || Double.isNaN(alpha)) {
+            throw new IllegalArgumentException("The pseudo-count cannot be negative, got " + alpha);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads has to be positive, got " + threads);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be positive, got " + chunkSize);
+        }
+
+        // The position of the CPT of every variable in the count arrays
+        int variableCount = structure.getVariableCount();
+        int[] cptStarts = new int[variableCount];
+        int totalSize = 0;
+        for (int id = 0; id < variableCount; id++) {
+            if (structure.getDefinition(id) == null) {
+                throw new IllegalArgumentException("Variable " + structure.getVariable(id).getName() + " has no definition (no parents are known)");
+            }
+            cptStarts[id] = totalSize;
+            totalSize += structure.getDefinition(id).getTableSize();
+        }
+        int countSize = totalSize;
+
+        long start = System.nanoTime();
+        List<long[]> workerCounts = new ArrayList<>(); // The arrays of all the workers, for the merge
+        ThreadLocal<long[]> counts = ThreadLocal.withInitial(() -> {
+            long[] array = new long[countSize];
+            synchronized (workerCounts) {
+                workerCounts.add(array);
+            }
+            return array;
+        });
+        ThreadLocal<int[]> assignments = ThreadLocal.withInitial(() -> new int[variableCount]);
+        long records = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(csvPath), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("The data file " + csvPath + " is empty");
+            }
+            int[] columnVariables = DatasetScorer.parseHeader(header, structure);
+
+            String[] lines = new String[chunkSize];
+            long[] lineNumbers = new long[chunkSize];
+            long lineNumber = 1;
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                while (true) {
+                    // Read the next chunk
+                    int count = 0;
+                    String line;
+                    while (count < chunkSize && (line = reader.readLine()) != null) {
+                        lineNumber++;
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        lines[count] = line;
+                        lineNumbers[count] = lineNumber;
+                        count++;
+                    }
+                    if (count == 0) {
+                        break;
+                    }
+
+                    // Count it in parallel, every worker into its own array
+                    int chunkCount = count;
+                    pool.submit(() -> IntStream.range(0, chunkCount).parallel().forEach(i -> {
+                        int[] assignment = assignments.get();
+                        DatasetScorer.parseRecord(lines[i], lineNumbers[i], columnVariables, structure, assignment);
+                        long[] workerArray = counts.get();
+                        for (int id = 0; id < variableCount; id++) {
+                            workerArray[cptStarts[id] + structure.getCptIndex(id, assignment)]++;
+                        }
+                    })).get();
+                    records += chunkCount;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while learning from " + csvPath, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // The pool can rethrow a copy of the exception of the worker, with the original as its cause
+                while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Learning failed: " + cause.getMessage(), cause);
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        // Merge the counts of the workers
+        long[] total = new long[countSize];
+        for (long[] workerArray : workerCounts) {
+            for (int i = 0; i < countSize; i++) {
+                total[i] += workerArray[i];
+            }
+        }
+
+        // Normalize every row (the outcomes of the child for one configuration of the parents are next to each other)
+        List<Definition> definitions = new ArrayList<>();
+        int emptyRows = 0;
+        for (int id = 0; id < variableCount; id++) {
+            Definition definition = structure.getDefinition(id);
+            int outcomeCount = structure.getVariable(id).getOutcomeCount();
+            double[] table = new double[definition.getTableSize()];
+            for (int row = 0; row < table.length; row += outcomeCount) {
+                long rowCount = 0;
+                for (int outcome = 0; outcome < outcomeCount; outcome++) {
+                    rowCount += total[cptStarts[id] + row + outcome];
+                }
+                double denominator = rowCount + alpha * outcomeCount;
+                for (int outcome = 0; outcome < outcomeCount; outcome++) {
+                    // A row without data and without smoothing has no estimate, it gets the uniform distribution
+                    table[row + outcome] = (denominator == 0) ? 1.0 / outcomeCount
+                            : (total[cptStarts[id] + row + outcome] + alpha) / denominator;
+                }
+                if (rowCount == 0) {
+                    emptyRows++;
+                }
+            }
+            definitions.add(new Definition(definition.getVariable(), definition.getParentVariables(), table));
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println("Learned " + definitions.size() + " CPTs from " + records + " records in " +
+                String.format("%.3f", seconds) + " s (" + String.format("%.1f", records / seconds) + " records/s), alpha " + alpha);
+        if (emptyRows > 0) {
+            System.out.println("Warning: " + emptyRows + " parent configurations have no records" +
+                    (alpha == 0 ? " (they got the uniform distribution)" : " (they got the prior only)"));
+        }
+        return new BayesianNetwork(structure.getName(), definitions, structure.getVariables());
+    }
+}
@@ -0,0 +1,596 @@
+import java.util.*;
+
+/**
+ * A conditional query that was compiled once for a fixed shape: the query variable, the evidence variables and the
+ * algorithm (2 or 3, with its heuristic). Only the evidence values change between executions.
+ * Example:
+ *   PreparedQuery prepared = PreparedQuery.prepare(network, "B", List.of("J", "M"), 2, null);
+ *   double p = prepared.execute("T", "T", "T");      // P(B=T|J=T,M=T)
+ *   double[] posterior = prepared.execute(new int[]{1, 0}, new QueryContext()); // P(B|J=F,M=T)
+
+ * Everything that variable elimination decides does not depend on the evidence values: the relevant variables,
+ * the domains of the restricted CPTs, the elimination order, the pairs that are joined, and so the size of every
+ * factor and the operation counts. prepare() makes all these decisions once, by the same rules as
+ * Algorithm 2 or Algorithm 3, and records them as a plan:
+ *  - a load for every restricted CPT: the cells it takes from the CPT, the evidence only moves the first cell,
+ *  - a step for every join, sum out, or fused join and sum out: the strides of the inputs over the output cells,
+ *  - a buffer for every factor, allocated once.
+ * execute() only copies the CPT cells, runs the steps over the buffers and normalizes. It does no parsing,
+ * builds no factors and allocates nothing. The factors are laid out like the Factor class and the sums are done
+ * in the same order, so the probability is exactly the one of the algorithm, and execute() adds the same counts.
+
+ * The factor cache is not used, a prepared query owns its buffers. Bayes-Ball pruning is used if it is on when
+ * the query is prepared. A prepared query is not thread safe (the buffers are reused), every thread prepares its own.
+ */
+public class PreparedQuery {
+
+    // A restricted CPT: cell i is table[offset + cells[i]], the offset is the sum of evidence outcome * stride
+    private static final class Load {
+        final double[] table;          // The CPT in the layout of the Factor class
+        final int[] cells;
+        final int[] evidenceIndexes;   // Positions in the evidence array of the evidence variables in the family
+        final int[] evidenceStrides;
+        final int output;
+
+        Load(double[] table, int[] cells, int[] evidenceIndexes, int[] evidenceStrides, int output) {
+            this.table = table;
+            this.cells = cells;
+            this.evidenceIndexes = evidenceIndexes;
+            this.evidenceStrides = evidenceStrides;
+            this.output = output;
+        }
+    }
+
+    // A join, a sum out, or both: every output cell is the sum over the eliminated outcomes of the product of the inputs.
+    // A join has one eliminated outcome with stride 0, a sum out has one input.
+    private static final class Step {
+        final int[] inputs;
+        final int output;
+        final int[] cardinalities;     // The cells of every output variable (1 for an evidence variable)
+        final int[][] strides;         // strides[input][j]: the step of the input for output variable j
+        final int eliminatedCount;
+        final int[] eliminatedStrides; // The step of every input for the eliminated variable
+
+        Step(int[] inputs, int output, int[] cardinalities, int[][] strides, int eliminatedCount, int[] eliminatedStrides) {
+            this.inputs = inputs;
+            this.output = output;
+            this.cardinalities = cardinalities;
+            this.strides = strides;
+            this.eliminatedCount = eliminatedCount;
+            this.eliminatedStrides = eliminatedStrides;
+        }
+    }
+
+    private final BayesianNetwork _network;
+    private final int _queryVariable;
+    private final int[] _evidenceVariables;
+    private final int _algorithm;
+    private final EliminationOrder.Heuristic _heuristic;
+
+    private final List<Load> _loads = new ArrayList<>();
+    private final List<Step> _steps = new ArrayList<>();
+    private final List<double[]> _bufferList = new ArrayList<>();
+    private double[][] _buffers;
+    private int _finalSlot = -1;        // -1 if no factor was left (the probability is 0)
+    private int _queryStride;           // The step of the query variable in the final factor
+    private boolean _normalize = true;  // False for the direct CPT lookup
+    private long _additions = 0;
+    private long _multiplications = 0;
+
+    private int[] _counter = new int[0];
+    private final double[] _posterior;
+    private final int[] _evidenceOutcomes; // For execute with names
+
+    private PreparedQuery(BayesianNetwork network, int queryVariable, int[] evidenceVariables, int algorithm,
+                          EliminationOrder.Heuristic heuristic) {
+        _network = network;
+        _queryVariable = queryVariable;
+        _evidenceVariables = evidenceVariables;
+        _algorithm = algorithm;
+        _heuristic = heuristic;
+        _posterior = new double[network.getVariable(queryVariable).getOutcomeCount()];
+        _evidenceOutcomes = new int[evidenceVariables.length];
+    }
+
+    /**
+     * Compiles a query shape into a plan.
+     *
+     * @param network           The Bayesian network.
+     * @param queryVariable     The name of the query variable.
+     * @param evidenceVariables The names of the evidence variables, in the order their values are given to execute().
+     * @param algorithm         2 (variable elimination) or 3 (heuristic variable elimination).
+     * @param heuristic         The elimination ordering heuristic, or null for the default order of the algorithm.
+     * @return The prepared query.
+     * @throws IllegalArgumentException If a variable does not exist, is repeated, or the algorithm is not 2 or 3.
+     */
+    public static PreparedQuery prepare(BayesianNetwork network, String queryVariable, List<String> evidenceVariables,
+                                        int algorithm, EliminationOrder.Heuristic heuristic) {
+        int queryId = requireVariableId(network, queryVariable);
+        int[] evidenceIds = new int[evidenceVariables.size()];
+        for (int i = 0; i < evidenceIds.length; i++) {
+            evidenceIds[i] = requireVariableId(network, evidenceVariables.get(i));
+        }
+        return prepare(network, queryId, evidenceIds, algorithm, heuristic);
+    }
+
+    public static PreparedQuery prepare(BayesianNetwork network, String queryVariable, List<String> evidenceVariables, int algorithm) {
+        return prepare(network, queryVariable, evidenceVariables, algorithm, null);
+    }
+
+    /**
+     * Compiles a query shape into a plan, with variable ids.
+     *
+     * @see #prepare(BayesianNetwork, String, List, int, EliminationOrder.Heuristic)
+     */
+    public static PreparedQuery prepare(BayesianNetwork network, int queryVariable, int[] evidenceVariables,
+                                        int algorithm, EliminationOrder.Heuristic heuristic) {
+        return prepare(network, queryVariable, evidenceVariables, algorithm, heuristic, new QueryContext());
+    }
+
+    /**
+     * Compiles a query shape into a plan, with variable ids, and prints the steps of the planning through the context
+     * (its counters are not used, the plan keeps its own).
+     *
+     * @see #prepare(BayesianNetwork, String, List, int, EliminationOrder.Heuristic)
+     */
+    public static PreparedQuery prepare(BayesianNetwork network, int queryVariable, int[] evidenceVariables,
+                                        int algorithm, EliminationOrder.Heuristic heuristic, QueryContext context) {
+        if (algorithm != 2 && algorithm != 3) {
+            throw new IllegalArgumentException("Only Algorithms 2 and 3 can be prepared, got " + algorithm);
+        }
+        boolean[] seen = new boolean[network.getVariableCount()];
+        seen[queryVariable] = true;
+        for (int evidenceVariable : evidenceVariables) {
+            if (seen[evidenceVariable]) {
+                throw new IllegalArgumentException("The variable " + network.getVariable(evidenceVariable).getName() +
+                        " is the query variable or appears twice in the evidence");
+            }
+            seen[evidenceVariable] = true;
+        }
+        PreparedQuery prepared = new PreparedQuery(network, queryVariable, evidenceVariables.clone(), algorithm, heuristic);
+        prepared.plan(context);
+        return prepared;
+    }
+
+    private static int requireVariableId(BayesianNetwork network, String name) {
+        int id = network.getVariableId(name);
+        if (id < 0 || network.getDefinition(id) == null) {
+            throw new IllegalArgumentException("Unknown variable: " + name);
+        }
+        return id;
+    }
+
+    public int getQueryVariable() {return _queryVariable;}
+
+    // Do not modify the returned array
+    public int[] getEvidenceVariables() {return _evidenceVariables;}
+
+    public int getAlgorithm() {return _algorithm;}
+
+    public EliminationOrder.Heuristic getHeuristic() {return _heuristic;}
+
+    // The operations every execution counts (the same as the algorithm)
+    public long getNumberOfAdditions() {return _additions;}
+
+    public long getNumberOfMultiplications() {return _multiplications;}
+
+    // The number of factors (buffers) of the plan, and their total number of cells
+    public int getBufferCount() {return _buffers.length;}
+
+    public long getBufferCells() {
+        long cells = 0;
+        for (double[] buffer : _buffers) {
+            cells += buffer.length;
+        }
+        return cells;
+    }
+
+    /**
+     * Makes the decisions of the algorithm on a representative query (every evidence variable at its first outcome),
+     * with real factors, and records every operation on them as a load or a step.
+     * The rules are the ones of Algorithm 2 and Algorithm 3, and none of them reads a value of a factor.
+     */
+    private void plan(QueryContext context) {
+        BayesianNetwork network = _network;
+        ClassifiedQuery query = new ClassifiedQuery(_queryVariable, 0, _evidenceVariables,
+                new int[_evidenceVariables.length], network.getVariableCount());
+        Map<Factor, Integer> slots = new IdentityHashMap<>();
+
+        // The evidence is exactly the parents: the posterior is a row of the CPT of the query variable
+        if (Algorithm1.isEvidenceExactlyParents(query, network)) {
+            Factor row = load(query, _queryVariable, slots);
+            _finalSlot = slots.get(row);
+            _queryStride = strides(row)[0];
+            _normalize = false;
+            _buffers = _bufferList.toArray(new double[0][]);
+            return;
+        }
+
+        boolean[] relevantVariable = network.getTopology().relevantVariables(_queryVariable, _evidenceVariables);
+        if (BayesBall.isEnabled()) {
+            relevantVariable = BayesBall.prune(query, network, relevantVariable, context);
+        }
+
+        // The restricted CPTs, without the ones with less than 2 cells
+        List<Factor> factors = new ArrayList<>();
+        for (int id = 0; id < network.getVariableCount(); id++) {
+            if (relevantVariable[id] && network.getDefinition(id) != null) {
+                Factor factor = load(query, id, slots);
+                if (factor.size() >= 2) {
+                    factors.add(factor);
+                }
+            }
+        }
+
+        // The hidden variables in the order of the algorithm
+        List<Integer> hiddenVariables;
+        if (_heuristic != null) {
+            hiddenVariables = EliminationOrder.forQuery(query, network, relevantVariable, _heuristic);
+        } else if (_algorithm == 2) {
+            hiddenVariables = new ArrayList<>();
+            for (int hiddenVariable : query.getHiddenVariables()) {
+                if (relevantVariable[hiddenVariable]) {
+                    hiddenVariables.add(hiddenVariable);
+                }
+            }
+            hiddenVariables.sort(Comparator.comparing(id -> network.getVariable(id).getName()));
+        } else {
+            // Algorithm 3 lists the candidates in the order of a map keyed by name (its tie break depends on it)
+            Map<String, Integer> hiddenByName = new HashMap<>();
+            for (int hiddenVariable : query.getHiddenVariables()) {
+                hiddenByName.put(network.getVariable(hiddenVariable).getName(), hiddenVariable);
+            }
+            hiddenVariables = new ArrayList<>();
+            for (int hiddenVariable : hiddenByName.values()) {
+                if (relevantVariable[hiddenVariable]) {
+                    hiddenVariables.add(hiddenVariable);
+                }
+            }
+        }
+        boolean greedy = (_algorithm == 3 && _heuristic == null);
+
+        Comparator<Factor> bySize = Comparator
+                .<Factor, Integer>comparing(f -> f.size())
+                .thenComparing(f -> f.getDomain().stream().mapToInt(v -> v.getName().chars().sum()).sum());
+        while (!hiddenVariables.isEmpty()) {
+            int hiddenVariable = greedy ? Algorithm3.FindBestHiddenVariable(hiddenVariables, factors, query, network, context)
+                    : hiddenVariables.get(0);
+            if (hiddenVariable < 0) break;
+            hiddenVariables.remove(Integer.valueOf(hiddenVariable));
+
+            List<Factor> factorsToJoin = new ArrayList<>();
+            List<Factor> factorsToKeep = new ArrayList<>();
+            for (Factor f : factors) {
+                boolean containsHidden = f.getDomain().stream().anyMatch(v -> v.getId() == hiddenVariable);
+                if (containsHidden) factorsToJoin.add(f);
+                else factorsToKeep.add(f);
+            }
+            if (factorsToJoin.isEmpty()) continue;
+
+            Factor summedOutFactor;
+            if (factorsToJoin.size() == 1) {
+                Factor factor = factorsToJoin.get(0);
+                summedOutFactor = factor.sumOut(hiddenVariable);
+                addStep(List.of(factor), summedOutFactor, hiddenVariable, slots);
+                _additions += factor.size() - summedOutFactor.size();
+            } else {
+                List<Factor> currentFactorsToJoin = new ArrayList<>(factorsToJoin);
+                while (currentFactorsToJoin.size() > 2) {
+                    currentFactorsToJoin.sort(bySize);
+                    Factor factor1 = currentFactorsToJoin.get(0);
+                    Factor factor2 = currentFactorsToJoin.get(1);
+                    Factor joinedFactor = join(factor1, factor2, slots);
+                    currentFactorsToJoin.remove(factor1);
+                    currentFactorsToJoin.remove(factor2);
+                    currentFactorsToJoin.add(joinedFactor);
+                }
+                currentFactorsToJoin.sort(bySize);
+                List<Factor> pair = List.of(currentFactorsToJoin.get(0), currentFactorsToJoin.get(1));
+                summedOutFactor = Factor.multiplyAndSumOut(pair, hiddenVariable);
+                addStep(pair, summedOutFactor, hiddenVariable, slots);
+                int productSize = summedOutFactor.size() * network.getVariable(hiddenVariable).getOutcomeCount();
+                _multiplications += productSize;
+                _additions += productSize - summedOutFactor.size();
+            }
+
+            factors = factorsToKeep;
+            if (summedOutFactor.size() > 1) {
+                factors.add(summedOutFactor);
+            }
+        }
+
+        if (!factors.isEmpty()) {
+            List<Factor> remainingFactors = new ArrayList<>(factors);
+            while (remainingFactors.size() > 1) {
+                remainingFactors.sort(bySize);
+                Factor f1 = remainingFactors.get(0);
+                Factor f2 = remainingFactors.get(1);
+                Factor joined = join(f1, f2, slots);
+                remainingFactors.remove(f1);
+                remainingFactors.remove(f2);
+                remainingFactors.add(joined);
+            }
+            Factor finalFactor = remainingFactors.get(0);
+            _finalSlot = slots.get(finalFactor);
+            _additions += finalFactor.size() - 1; // The sum of the normalization
+
+            int[] strides = strides(finalFactor);
+            int[] fixedOutcomes = finalFactor.getFixedOutcomes();
+            _queryStride = 0;
+            for (int i = 0; i < finalFactor.getDomain().size(); i++) {
+                int id = finalFactor.getDomain().get(i).getId();
+                if (id == _queryVariable) {
+                    _queryStride = strides[i];
+                } else if (fixedOutcomes[i] < 0) {
+                    throw new IllegalStateException("Final factor contains unexpected variable: " + network.getVariable(id).getName());
+                }
+            }
+        }
+        _buffers = _bufferList.toArray(new double[0][]);
+        int maxDomain = 0;
+        for (Step step : _steps) {
+            maxDomain = Math.max(maxDomain, step.cardinalities.length);
+        }
+        _counter = new int[maxDomain];
+    }
+
+    // Records the restricted CPT of a variable as a load, returns the restricted factor of the representative query
+    private Factor load(ClassifiedQuery query, int variableId, Map<Factor, Integer> slots) {
+        Factor full = new Factor(_network.getDefinition(variableId), _network);
+        double[] table = new double[full.size()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = full.valueAt(i);
+        }
+        int[] fullStrides = strides(full);
+
+        // The family in the order of the factor domain: the variable and then its parents
+        Factor restricted = full;
+        List<Variable> domain = full.getDomain();
+        int[] evidenceIndexes = new int[domain.size()];
+        int[] evidenceStrides = new int[domain.size()];
+        int evidenceCount = 0;
+        for (int i = 0; i < domain.size(); i++) {
+            int id = domain.get(i).getId();
+            if (query.isEvidence(id)) {
+                restricted = restricted.restrict(id, query.getEvidenceOutcome(id));
+                int position = 0;
+                while (_evidenceVariables[position] != id) {
+                    position++;
+                }
+                evidenceIndexes[evidenceCount] = position;
+                evidenceStrides[evidenceCount++] = fullStrides[i];
+            }
+        }
+
+        // The cells of the free variables, the last one changes fastest (like restrict keeps them)
+        int[] fixedOutcomes = restricted.getFixedOutcomes();
+        int[] cells = new int[restricted.size()];
+        int[] counter = new int[domain.size()];
+        int offset = 0;
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = offset;
+            for (int i = domain.size() - 1; i >= 0; i--) {
+                if (fixedOutcomes[i] >= 0) continue;
+                counter[i]++;
+                offset += fullStrides[i];
+                if (counter[i] < domain.get(i).getOutcomeCount()) break;
+                counter[i] = 0;
+                offset -= fullStrides[i] * domain.get(i).getOutcomeCount();
+            }
+        }
+
+        int slot = newSlot(restricted, slots);
+        _loads.add(new Load(table, cells, Arrays.copyOf(evidenceIndexes, evidenceCount),
+                Arrays.copyOf(evidenceStrides, evidenceCount), slot));
+        return restricted;
+    }
+
+    // Records a join of two factors, returns the product
+    private Factor join(Factor f1, Factor f2, Map<Factor, Integer> slots) {
+        Factor joined = f1.multiply(f2);
+        addStep(List.of(f1, f2), joined, -1, slots);
+        _multiplications += joined.size();
+        return joined;
+    }
+
+    // Records a step from the inputs to the output, with the eliminated variable (or -1 for a join)
+    private void addStep(List<Factor> inputs, Factor output, int eliminatedVariable, Map<Factor, Integer> slots) {
+        List<Variable> domain = output.getDomain();
+        int[] outputFixed = output.getFixedOutcomes();
+        int[] cardinalities = new int[domain.size()];
+        for (int j = 0; j < domain.size(); j++) {
+            cardinalities[j] = (outputFixed[j] >= 0) ? 1 : domain.get(j).getOutcomeCount();
+        }
+
+        int[] inputSlots = new int[inputs.size()];
+        int[][] strides = new int[inputs.size()][domain.size()];
+        int[] eliminatedStrides = new int[inputs.size()];
+        int eliminatedCount = 1;
+        for (int f = 0; f < inputs.size(); f++) {
+            Factor input = inputs.get(f);
+            inputSlots[f] = slots.get(input);
+            int[] inputStrides = strides(input);
+            int[] inputFixed = input.getFixedOutcomes();
+            for (int i = 0; i < input.getDomain().size(); i++) {
+                Variable var = input.getDomain().get(i);
+                if (var.getId() == eliminatedVariable) {
+                    eliminatedStrides[f] = inputStrides[i];
+                    eliminatedCount = var.getOutcomeCount();
+                    continue;
+                }
+                int j = domain.indexOf(var);
+                if (outputFixed[j] >= 0 && inputFixed[i] < 0) {
+                    // The offset would depend on the evidence value. Every evidence variable is restricted in every
+                    // CPT that has it, so this does not happen.
+                    throw new IllegalStateException("The evidence variable " + var.getName() + " is free in an input factor");
+                }
+                if (inputFixed[i] < 0) {
+                    strides[f][j] = inputStrides[i];
+                }
+            }
+        }
+        int slot = newSlot(output, slots);
+        _steps.add(new Step(inputSlots, slot, cardinalities, strides, eliminatedCount, eliminatedStrides));
+    }
+
+    private int newSlot(Factor factor, Map<Factor, Integer> slots) {
+        int slot = _bufferList.size();
+        _bufferList.add(new double[factor.size()]);
+        slots.put(factor, slot);
+        return slot;
+    }
+
+    // The strides of the cells of a factor, like the Factor class lays them out (the last variable changes fastest)
+    private static int[] strides(Factor factor) {
+        int[] fixedOutcomes = factor.getFixedOutcomes();
+        int[] strides = new int[fixedOutcomes.length];
+        int stride = 1;
+        for (int i = fixedOutcomes.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= (fixedOutcomes[i] >= 0) ? 1 : factor.getDomain().get(i).getOutcomeCount();
+        }
+        return strides;
+    }
+
+    /**
+     * Computes the posterior of the query variable for the evidence values, and adds the operations to the context.
+     *
+     * @param evidenceOutcomes The outcome index of every evidence variable, in the order of prepare().
+     * @param context          The context of this execution, for the counters.
+     * @return The probability of every outcome of the query variable. The array is reused by the next execution.
+     * @throws IllegalArgumentException If the number of values is wrong or an outcome index is out of range.
+     */
+    public double[] execute(int[] evidenceOutcomes, QueryContext context) {
+        if (evidenceOutcomes.length != _evidenceVariables.length) {
+            throw new IllegalArgumentException("Expected " + _evidenceVariables.length + " evidence values, got " + evidenceOutcomes.length);
+        }
+        for (int i = 0; i < evidenceOutcomes.length; i++) {
+            Variable variable = _network.getVariable(_evidenceVariables[i]);
+            if (evidenceOutcomes[i] < 0 || evidenceOutcomes[i] >= variable.getOutcomeCount()) {
+                throw new IllegalArgumentException("Invalid outcome index " + evidenceOutcomes[i] + " for variable " + variable.getName());
+            }
+        }
+
+        for (Load load : _loads) {
+            int offset = 0;
+            for (int i = 0; i < load.evidenceIndexes.length; i++) {
+                offset += evidenceOutcomes[load.evidenceIndexes[i]] * load.evidenceStrides[i];
+            }
+            double[] output = _buffers[load.output];
+            for (int cell = 0; cell < output.length; cell++) {
+                output[cell] = load.table[offset + load.cells[cell]];
+            }
+        }
+        for (Step step : _steps) {
+            run(step);
+        }
+
+        Arrays.fill(_posterior, 0.0);
+        if (_finalSlot >= 0) {
+            double[] finalTable = _buffers[_finalSlot];
+            double total = 0.0;
+            for (double value : finalTable) {
+                total += value;
+            }
+            // Like the algorithms, a zero total leaves the values as they are
+            boolean divide = _normalize && Math.abs(total) >= 1e-9;
+            for (int outcome = 0; outcome < _posterior.length; outcome++) {
+                double value = finalTable[outcome * _queryStride];
+                _posterior[outcome] = divide ? value / total : value;
+            }
+        }
+        context.addAdditions(_additions);
+        context.addMultiplications(_multiplications);
+        return _posterior;
+    }
+
+    /**
+     * P(query variable = queryOutcome | evidence values), the operations are added to the context.
+     */
+    public double execute(int queryOutcome, int[] evidenceOutcomes, QueryContext context) {
+        return execute(evidenceOutcomes, context)[queryOutcome];
+    }
+
+    /**
+     * P(query variable = queryOutcome | evidence values), with the outcome names.
+     *
+     * @param queryOutcome   The outcome of the query variable.
+     * @param evidenceValues The outcome of every evidence variable, in the order of prepare().
+     * @throws IllegalArgumentException If an outcome does not exist or the number of values is wrong.
+     */
+    public double execute(String queryOutcome, String... evidenceValues) {
+        if (evidenceValues.length != _evidenceVariables.length) {
+            throw new IllegalArgumentException("Expected " + _evidenceVariables.length + " evidence values, got " + evidenceValues.length);
+        }
+        for (int i = 0; i < evidenceValues.length; i++) {
+            _evidenceOutcomes[i] = outcomeIndex(_evidenceVariables[i], evidenceValues[i]);
+        }
+        return execute(outcomeIndex(_queryVariable, queryOutcome), _evidenceOutcomes, new QueryContext());
+    }
+
+    private int outcomeIndex(int variableId, String outcome) {
+        Variable variable = _network.getVariable(variableId);
+        int index = variable.getOutcomeIndex(outcome);
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid outcome " + outcome + " for variable " + variable.getName());
+        }
+        return index;
+    }
+
+    // Runs one step over the buffers with a mixed-radix counter of the output cells (the last variable changes fastest)
+    private void run(Step step) {
+        double[] output = _buffers[step.output];
+        double[] first = _buffers[step.inputs[0]];
+        double[] second = (step.inputs.length > 1) ? _buffers[step.inputs[1]] : null;
+        int[] firstStrides = step.strides[0];
+        int[] secondStrides = (second != null) ? step.strides[1] : null;
+        int firstEliminated = step.eliminatedStrides[0];
+        int secondEliminated = (second != null) ? step.eliminatedStrides[1] : 0;
+        int[] cardinalities = step.cardinalities;
+        int size = cardinalities.length;
+        int[] counter = _counter;
+        Arrays.fill(counter, 0, size, 0);
+
+        int firstIndex = 0;
+        int secondIndex = 0;
+        for (int row = 0; row < output.length; row++) {
+            // The same order of operations as the kernels of the Factor class, so the values are the same
+            double sum = 0.0;
+            for (int outcome = 0; outcome < step.eliminatedCount; outcome++) {
+                double product = first[firstIndex + outcome * firstEliminated];
+                if (second != null) {
+                    product *= second[secondIndex + outcome * secondEliminated];
+                }
+                sum += product;
+            }
+            output[row] = sum;
+
+            for (int j = size - 1; j >= 0; j--) {
+                counter[j]++;
+                firstIndex += firstStrides[j];
+                if (second != null) secondIndex += secondStrides[j];
+                if (counter[j] < cardinalities[j]) break;
+                counter[j] = 0;
+                firstIndex -= firstStrides[j] * cardinalities[j];
+                if (second != null) secondIndex -= secondStrides[j] * cardinalities[j];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PreparedQuery{P(");
+        sb.append(_network.getVariable(_queryVariable).getName()).append("|");
+        for (int i = 0; i < _evidenceVariables.length; i++) {
+            if (i > 0) sb.append(",");
+            sb.append(_network.getVariable(_evidenceVariables[i]).getName());
+        }
+        sb.append("), algorithm ").append(_algorithm);
+        if (_heuristic != null) {
+            sb.append(" (").append(_heuristic.getName()).append(")");
+        }
+        sb.append(", ").append(_loads.size()).append(" loads, ").append(_steps.size()).append(" steps, ")
+                .append(getBufferCells()).append(" cells}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The execution context of one query: the addition and multiplication counters, the timing, and scratch buffers.
+ * Every engine gets the context of the query it answers and counts into it, instead of into static fields,
+ * so any number of queries can run at the same time on the same BayesianNetwork and keep exact counts.
+
+ * A context belongs to one query at a time (it is not thread safe). A worker can reuse its context for the
+ * next query with reset(), which clears the counters and the timing and keeps the scratch buffers.
+
+ * The engines print the steps of the query through log(). A quiet context (the batch mode) drops them,
+ * so the workers do not wait on the lock of System.out, and the rest of the program still prints.
+ */
+public class QueryContext {
+    private long _numberOfAdditions = 0;
+    private long _numberOfMultiplications = 0;
+    private long _startNanos;
+    private long _endNanos = -1;
+
+    private final boolean _quiet;
+
+    private int[] _assignment = new int[0]; // Scratch assignment (by variable id)
+
+    public QueryContext() {
+        this(false);
+    }
+
+    /**
+     * @param quiet True if the steps of the query are not printed.
+     */
+    public QueryContext(boolean quiet) {
+        _quiet = quiet;
+        _startNanos = System.nanoTime();
+    }
+
+    // Clears the counters and starts the timing again, for the next query
+    public void reset() {
+        _numberOfAdditions = 0;
+        _numberOfMultiplications = 0;
+        _startNanos = System.nanoTime();
+        _endNanos = -1;
+    }
+
+    public long getNumberOfAdditions() {return _numberOfAdditions;}
+
+    public long getNumberOfMultiplications() {return _numberOfMultiplications;}
+
+    public void addAdditions(long count) {_numberOfAdditions += count;}
+
+    public void addMultiplications(long count) {_numberOfMultiplications += count;}
+
+    public boolean isQuiet() {return _quiet;}
+
+    // Prints a step of the query, unless the context is quiet
+    public void log(Object message) {
+        if (!_quiet) {
+            System.out.println(message);
+        }
+    }
+
+    // Stops the timing of the query
+    public void finish() {
+        if (_endNanos < 0) {
+            _endNanos = System.nanoTime();
+        }
+    }
+
+    // The time of the query until finish() (or until now, if the query did not finish)
+    public long getElapsedNanos() {
+        return ((_endNanos < 0) ? System.nanoTime() : _endNanos) - _startNanos;
+    }
+
+    /**
+     * Returns the scratch assignment of this context with -1 (not assigned) in every entry.
+     * The same array is returned every time, so a caller has to be done with it before asking for it again.
+     *
+     * @param variableCount The number of variables in the network.
+     */
+    public int[] getAssignment(int variableCount) {
+        if (_assignment.length != variableCount) {
+            _assignment = new int[variableCount];
+        }
+        Arrays.fill(_assignment, -1);
+        return _assignment;
+    }
+
+    // The result line of a query: the probability and the counts
+    public String formatResult(double probability) {
+        return String.format(Locale.US, "%.5f", probability) + "," + _numberOfAdditions + "," + _numberOfMultiplications;
+    }
+}
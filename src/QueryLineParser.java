@@ -0,0 +1,427 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hand-written parser of the query lines of one network, in one pass over the characters:
+ *   P(X1=x1,X2=x2,...,Xn=xn)                 - a joint probability query
+ *   P(Q=q|E1=e1,...,Ek=ek),options           - a conditional query, the options are the algorithm and its arguments
+ * Spaces around the names, the outcomes and the separators are allowed.
+
+ * The names are resolved straight to variable ids through an open-addressing table of the variable names,
+ * hashed like String.hashCode() but over the characters of the line, and the outcomes are compared
+ * with the outcomes of the variable in place. No substring, array or regex is created for a line:
+ * the result goes into a ParsedLine that the caller keeps and reuses (scratch() gives one per thread).
+ * A mistake is reported with a ParseException that holds the position of the character where it was found.
+ * An evidence variable that is not in the network is not a mistake: it is skipped, and its place is recorded
+ * in the ParsedLine, so the caller can report it and still answer the query.
+
+ * The parser works on any CharSequence, so a line can also be parsed straight from a view of a byte buffer.
+ * It is immutable after construction and can be shared by threads, every thread needs its own ParsedLine.
+ */
+public class QueryLineParser {
+
+    /**
+     * A mistake in a query line, at a position in the line (0 is the first character).
+     */
+    public static class ParseException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final int _position;
+
+        public ParseException(String message, CharSequence line, int position) {
+            super(message + " at position " + (position + 1) + ": " + line);
+            _position = position;
+        }
+
+        public int getPosition() {return _position;}
+    }
+
+    /**
+     * The result of parsing one line, reused from line to line.
+     * For a joint query the assignments are all the pairs, for a conditional query they are the evidence.
+     * A variable that appears twice keeps its first place and its last outcome.
+     */
+    public static class ParsedLine {
+        private boolean _conditional;
+        private int _queryVariable = -1;
+        private int _queryOutcome = -1;
+        private final int[] _variables;
+        private final int[] _outcomes;
+        private int _count;
+        private final int[] _slotByVariable; // The place of every variable in the assignments, -1 if it is not there
+        private int _invalidOutcomePosition = -1;
+        private int _optionsStart = -1;
+        private int _lastVariable;           // The pair that was parsed last (-1 if its variable was skipped)
+        private int _lastOutcome;
+        private int[] _skipped = new int[4]; // The start and end of every skipped evidence name
+        private int _skippedCount;
+
+        ParsedLine(int variableCount) {
+            _variables = new int[variableCount];
+            _outcomes = new int[variableCount];
+            _slotByVariable = new int[variableCount];
+            Arrays.fill(_slotByVariable, -1);
+        }
+
+        public boolean isConditional() {return _conditional;}
+
+        // The query variable and outcome of a conditional query (-1 for a joint query)
+        public int getQueryVariable() {return _queryVariable;}
+
+        public int getQueryOutcome() {return _queryOutcome;}
+
+        public int getAssignmentCount() {return _count;}
+
+        public int getVariable(int i) {return _variables[i];}
+
+        // The outcome index of the i-th assignment, -1 if it is not an outcome of the variable
+        public int getOutcome(int i) {return _outcomes[i];}
+
+        // The position of the first outcome that the variable does not have, -1 if all of them are valid
+        public int getInvalidOutcomePosition() {return _invalidOutcomePosition;}
+
+        // The position of the options after "),", -1 if there are none
+        public int getOptionsStart() {return _optionsStart;}
+
+        // The number of evidence variables that are not in the network (they are not in the assignments)
+        public int getSkippedCount() {return _skippedCount;}
+
+        // The position of the name of the i-th skipped evidence variable, and the position after it
+        public int getSkippedStart(int i) {return _skipped[2 * i];}
+
+        public int getSkippedEnd(int i) {return _skipped[2 * i + 1];}
+
+        /**
+         * Fills an assignment (by variable id) with the outcomes of the assignments, -1 for the other variables.
+         */
+        public void fillAssignment(int[] assignment) {
+            Arrays.fill(assignment, -1);
+            for (int i = 0; i < _count; i++) {
+                assignment[_variables[i]] = _outcomes[i];
+            }
+        }
+
+        // The conditional query as a ClassifiedQuery (this allocates its arrays)
+        public ClassifiedQuery toClassifiedQuery() {
+            return new ClassifiedQuery(_queryVariable, _queryOutcome, Arrays.copyOf(_variables, _count),
+                    Arrays.copyOf(_outcomes, _count), _slotByVariable.length);
+        }
+
+        private void clear() {
+            for (int i = 0; i < _count; i++) {
+                _slotByVariable[_variables[i]] = -1;
+            }
+            _count = 0;
+            _conditional = false;
+            _queryVariable = -1;
+            _queryOutcome = -1;
+            _invalidOutcomePosition = -1;
+            _optionsStart = -1;
+            _skippedCount = 0;
+        }
+
+        private void skip(int nameStart, int nameEnd) {
+            if (2 * _skippedCount + 2 > _skipped.length) {
+                _skipped = Arrays.copyOf(_skipped, _skipped.length * 2);
+            }
+            _skipped[2 * _skippedCount] = nameStart;
+            _skipped[2 * _skippedCount + 1] = nameEnd;
+            _skippedCount++;
+        }
+
+        private void add(int variable, int outcome) {
+            int slot = _slotByVariable[variable];
+            if (slot < 0) {
+                slot = _count++;
+                _slotByVariable[variable] = slot;
+                _variables[slot] = variable;
+            }
+            _outcomes[slot] = outcome;
+        }
+    }
+
+    private final BayesianNetwork _network;
+    private final String[] _names;        // By id
+    private final String[][] _outcomes;   // By id
+    private final int[] _table;           // Open addressing: variable id + 1, 0 for an empty cell
+    private final int _mask;
+    private final ThreadLocal<ParsedLine> _scratch;
+
+    // Use BayesianNetwork.getQueryParser(), it builds the parser once
+    QueryLineParser(BayesianNetwork network) {
+        _network = network;
+        int variableCount = network.getVariableCount();
+        _names = new String[variableCount];
+        _outcomes = new String[variableCount][];
+        int capacity = 4;
+        while (capacity < 2 * variableCount) {
+            capacity <<= 1;
+        }
+        _table = new int[capacity];
+        _mask = capacity - 1;
+        for (int id = 0; id < variableCount; id++) {
+            Variable variable = network.getVariable(id);
+            _names[id] = variable.getName();
+            _outcomes[id] = variable.getOutcomes().toArray(new String[0]);
+            // Only the variables with a CPT can be asked about
+            if (network.getDefinition(id) == null) continue;
+            int cell = spread(variable.getName().hashCode()) & _mask;
+            while (_table[cell] != 0) {
+                cell = (cell + 1) & _mask;
+            }
+            _table[cell] = id + 1;
+        }
+        _scratch = ThreadLocal.withInitial(() -> new ParsedLine(variableCount));
+    }
+
+    public BayesianNetwork getNetwork() {return _network;}
+
+    // A ParsedLine of the calling thread, for the callers that do not keep their own
+    public ParsedLine scratch() {return _scratch.get();}
+
+    // A new ParsedLine for this network
+    public ParsedLine newParsedLine() {return new ParsedLine(_names.length);}
+
+    /**
+     * Parses a whole line.
+     *
+     * @throws ParseException If the line is not a query of this network.
+     */
+    public ParsedLine parse(CharSequence line, ParsedLine result) {
+        return parse(line, 0, line.length(), result);
+    }
+
+    /**
+     * Parses the characters [start, end) of a line.
+     *
+     * @param line   The characters.
+     * @param start  The first character of the query.
+     * @param end    The end of the query (exclusive).
+     * @param result The ParsedLine to fill, its old content is cleared.
+     * @return The result.
+     * @throws ParseException If the line is not a query of this network. The positions are relative to start.
+     */
+    public ParsedLine parse(CharSequence line, int start, int end, ParsedLine result) {
+        result.clear();
+        int position = skipSpaces(line, start, end);
+        if (position + 1 >= end || line.charAt(position) != 'P' || line.charAt(position + 1) != '(') {
+            throw error("Expected P(", line, start, end, position);
+        }
+        position += 2;
+
+        // The first assignment, then '|' for a conditional query or ',' / ')' for a joint query
+        position = parseAssignment(line, start, end, position, false, result);
+        position = skipSpaces(line, position, end);
+        if (position < end && line.charAt(position) == '|') {
+            // The first pair is the query, the evidence comes after the '|'
+            result._conditional = true;
+            result._queryVariable = result._lastVariable;
+            result._queryOutcome = result._lastOutcome;
+            position = skipSpaces(line, position + 1, end);
+            if (position < end && line.charAt(position) == ')') {
+                position++; // No evidence
+            } else {
+                position = parseAssignments(line, start, end, position, true, result);
+            }
+            position = skipSpaces(line, position, end);
+            if (position < end) {
+                if (line.charAt(position) != ',') {
+                    throw error("Expected , after the query", line, start, end, position);
+                }
+                result._optionsStart = position + 1 - start;
+            }
+            return result;
+        }
+
+        result.add(result._lastVariable, result._lastOutcome);
+        if (position < end && line.charAt(position) == ',') {
+            position = parseAssignments(line, start, end, position + 1, false, result);
+        } else if (position < end && line.charAt(position) == ')') {
+            position++;
+        } else {
+            throw error("Expected , or ) or |", line, start, end, position);
+        }
+        position = skipSpaces(line, position, end);
+        if (position < end) {
+            throw error("Unexpected text after the joint query", line, start, end, position);
+        }
+        return result;
+    }
+
+    // Parses "A=a, B=b, ... )" from the position, returns the position after the ')'.
+    // In the evidence, the unknown variables are skipped.
+    private int parseAssignments(CharSequence line, int start, int end, int position, boolean evidence, ParsedLine result) {
+        while (true) {
+            position = parseAssignment(line, start, end, position, evidence, result);
+            if (result._lastVariable >= 0) {
+                result.add(result._lastVariable, result._lastOutcome);
+            }
+            position = skipSpaces(line, position, end);
+            if (position >= end) {
+                throw error("Expected )", line, start, end, position);
+            }
+            char c = line.charAt(position);
+            if (c == ')') {
+                return position + 1;
+            }
+            if (c != ',') {
+                throw error("Expected , or )", line, start, end, position);
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Parses one "Name=outcome" from the position into the last pair of the result (the caller decides where it goes).
+     * An unknown variable is an error, unless skipUnknown is set: then it is recorded and the last pair is -1.
+     * Returns the position after the outcome.
+     */
+    private int parseAssignment(CharSequence line, int start, int end, int position, boolean skipUnknown, ParsedLine result) {
+        // The name: up to '=', without the spaces around it
+        int nameStart = skipSpaces(line, position, end);
+        int nameEnd = nameStart;
+        int hash = 0;
+        while (nameEnd < end && !isSeparator(line.charAt(nameEnd)) && line.charAt(nameEnd) != '=') {
+            nameEnd++;
+        }
+        int equals = nameEnd;
+        while (nameEnd > nameStart && Character.isWhitespace(line.charAt(nameEnd - 1))) {
+            nameEnd--;
+        }
+        if (nameEnd == nameStart) {
+            throw error("Expected a variable name", line, start, end, nameStart);
+        }
+        if (equals >= end || line.charAt(equals) != '=') {
+            throw error("Expected = after the variable name", line, start, end, equals);
+        }
+        for (int i = nameStart; i < nameEnd; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int variable = lookup(line, nameStart, nameEnd, hash);
+        if (variable < 0 && !skipUnknown) {
+            throw error("Unknown variable " + line.subSequence(nameStart, nameEnd), line, start, end, nameStart);
+        }
+
+        // The outcome: up to a separator, without the spaces around it
+        int outcomeStart = skipSpaces(line, equals + 1, end);
+        int outcomeEnd = outcomeStart;
+        while (outcomeEnd < end && !isSeparator(line.charAt(outcomeEnd)) && line.charAt(outcomeEnd) != '=') {
+            outcomeEnd++;
+        }
+        int next = outcomeEnd;
+        while (outcomeEnd > outcomeStart && Character.isWhitespace(line.charAt(outcomeEnd - 1))) {
+            outcomeEnd--;
+        }
+        if (outcomeEnd == outcomeStart) {
+            throw error("Expected an outcome of " + line.subSequence(nameStart, nameEnd), line, start, end, outcomeStart);
+        }
+        if (next < end && line.charAt(next) == '=') {
+            throw error("Unexpected =", line, start, end, next);
+        }
+        if (variable < 0) {
+            result.skip(nameStart - start, nameEnd - start);
+            result._lastVariable = -1;
+            result._lastOutcome = -1;
+            return next;
+        }
+        int outcome = -1;
+        String[] outcomes = _outcomes[variable];
+        for (int i = 0; i < outcomes.length; i++) {
+            if (matches(line, outcomeStart, outcomeEnd, outcomes[i])) {
+                outcome = i;
+                break;
+            }
+        }
+        if (outcome < 0 && result._invalidOutcomePosition < 0) {
+            result._invalidOutcomePosition = outcomeStart - start;
+        }
+        result._lastVariable = variable;
+        result._lastOutcome = outcome;
+        return next;
+    }
+
+    // The id of the variable with the name in [nameStart, nameEnd), -1 if there is none
+    private int lookup(CharSequence line, int nameStart, int nameEnd, int hash) {
+        int cell = spread(hash) & _mask;
+        while (_table[cell] != 0) {
+            int id = _table[cell] - 1;
+            if (matches(line, nameStart, nameEnd, _names[id])) {
+                return id;
+            }
+            cell = (cell + 1) & _mask;
+        }
+        return -1;
+    }
+
+    // The high bits of the hash take part in the cell, like in HashMap
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(CharSequence line, int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (line.charAt(from + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == '|' || c == ')';
+    }
+
+    private static int skipSpaces(CharSequence line, int position, int end) {
+        while (position < end && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static ParseException error(String message, CharSequence line, int start, int end, int position) {
+        return new ParseException(message, line.subSequence(start, end), Math.min(position, end) - start);
+    }
+
+    /**
+     * Parses the query lines again and again, and returns the throughput in queries per second.
+     * The lines that do not parse are skipped (they are counted once, before the measurement).
+     *
+     * @param lines  The query lines (without the first line of the input).
+     * @param rounds The number of times every line is parsed.
+     * @return The number of parsed queries per second.
+     */
+    public double measureThroughput(List<String> lines, int rounds) {
+        ParsedLine result = newParsedLine();
+        boolean[] valid = new boolean[lines.size()];
+        int validCount = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            try {
+                parse(lines.get(i), result);
+                valid[i] = true;
+                validCount++;
+            } catch (ParseException e) {
+                System.out.println("Not measured: " + e.getMessage());
+            }
+        }
+        if (validCount == 0) {
+            return 0.0;
+        }
+        long start = System.nanoTime();
+        long checksum = 0; // Keeps the results alive
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < valid.length; i++) {
+                if (valid[i]) {
+                    checksum += parse(lines.get(i), result).getAssignmentCount();
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return (double) validCount * rounds / seconds;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a text file (UTF-8) one at a time through a memory-mapped window of the file,
+ * for input files that are too big to read whole.
+ * When the reading reaches the end of the window (WINDOW_SIZE bytes), the next window is mapped from there,
+ * so only the window and one line are in memory at a time, whatever the size of the file.
+ * A line ends with "\n", "\r\n" or "\r", like in Files.readAllLines (an empty last line is not returned).
+ */
+public class QueryLineReader implements Closeable {
+
+    public static final int WINDOW_SIZE = 16 << 20; // 16 MB
+
+    private final FileChannel _channel;
+    private final long _fileSize;
+    private final int _windowSize;
+    private MappedByteBuffer _window;
+    private long _windowStart = 0;  // The position of the window in the file
+    private byte[] _line = new byte[256];
+    private long _lineNumber = 0;
+
+    public QueryLineReader(Path path) throws IOException {
+        this(path, WINDOW_SIZE);
+    }
+
+    /**
+     * @param path       The text file.
+     * @param windowSize The number of bytes mapped at a time (a longer line makes the window grow).
+     */
+    public QueryLineReader(Path path, int windowSize) throws IOException {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("The window size has to be positive, got " + windowSize);
+        }
+        _channel = FileChannel.open(path, StandardOpenOption.READ);
+        _fileSize = _channel.size();
+        _windowSize = windowSize;
+        map(0, windowSize);
+    }
+
+    // Maps the window at the position of the file (the last window is shorter)
+    private void map(long position, long size) throws IOException {
+        _windowStart = position;
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size, _fileSize - position));
+    }
+
+    // The number of lines read so far (the line that nextLine() returned last)
+    public long getLineNumber() {return _lineNumber;}
+
+    /**
+     * Returns the next line without its line break, or null at the end of the file.
+     */
+    public String nextLine() throws IOException {
+        long fileEnd = _fileSize;
+        if (_windowStart + _window.position() >= fileEnd) {
+            return null;
+        }
+        int length = 0;
+        while (true) {
+            if (!_window.hasRemaining()) {
+                long next = _windowStart + _window.position();
+                if (next >= fileEnd) {
+                    break; // The last line has no line break
+                }
+                map(next, _windowSize);
+            }
+            byte b = _window.get();
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\r') {
+                // "\r\n" is one line break
+                if (!_window.hasRemaining() && _windowStart + _window.position() < fileEnd) {
+                    map(_windowStart + _window.position(), _windowSize);
+                }
+                if (_window.hasRemaining() && _window.get(_window.position()) == '\n') {
+                    _window.get();
+                }
+                break;
+            }
+            if (length == _line.length) {
+                _line = Arrays.copyOf(_line, length * 2);
+            }
+            _line[length++] = b;
+        }
+        _lineNumber++;
+        return new String(_line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the results of conditional queries, for input files that repeat the same queries.
+ * The key is the network, the query variable and outcome, the evidence sorted by variable id, the algorithm
+ * and the elimination heuristic, so P(B=T|J=T,M=T) and P(B=T|M=T,J=T) with the same algorithm share one entry.
+ * (The order of the evidence does not change the result or the counts of Algorithms 1, 2 and 3.)
+
+ * A cached result keeps the result line and the operation counts of the computation, and a hit adds the same counts
+ * to the context of the query, so the answer is exactly the one of a fresh computation.
+ * When the cache is full, the least recently used entry is evicted (a LinkedHashMap in access order).
+ * All the methods are synchronized, so the cache can be shared by the workers of the batch mode.
+ */
+public class QueryResultCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // The canonical form of a query
+    public static final class Key {
+        private final BayesianNetwork _network;
+        private final int _queryVariable;
+        private final int _queryOutcome;
+        private final int[] _evidence; // (variable, outcome) pairs, sorted by variable id
+        private final String _algorithm;
+        private final EliminationOrder.Heuristic _heuristic;
+        private final int _hash;
+
+        Key(BayesianNetwork network, ClassifiedQuery query, String algorithm, EliminationOrder.Heuristic heuristic) {
+            _network = network;
+            _queryVariable = query.getQueryVariable();
+            _queryOutcome = query.getQueryOutcome();
+            int[] evidenceVariables = query.getEvidenceVariables().clone();
+            Arrays.sort(evidenceVariables);
+            _evidence = new int[evidenceVariables.length * 2];
+            for (int i = 0; i < evidenceVariables.length; i++) {
+                _evidence[2 * i] = evidenceVariables[i];
+                _evidence[2 * i + 1] = query.getEvidenceOutcome(evidenceVariables[i]);
+            }
+            _algorithm = algorithm;
+            _heuristic = heuristic;
+            _hash = ((System.identityHashCode(network) * 31 + _queryVariable) * 31 + _queryOutcome) * 31
+                    + Arrays.hashCode(_evidence) * 31 + algorithm.hashCode() * 7
+                    + (heuristic == null ? 0 : heuristic.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return _network == that._network && _queryVariable == that._queryVariable &&
+                    _queryOutcome == that._queryOutcome && Arrays.equals(_evidence, that._evidence) &&
+                    _algorithm.equals(that._algorithm) && _heuristic == that._heuristic;
+        }
+
+        @Override
+        public int hashCode() {return _hash;}
+    }
+
+    // A result line and the counts of the computation that made it
+    private static final class CachedResult {
+        final String result;
+        final long additions;
+        final long multiplications;
+
+        CachedResult(String result, long additions, long multiplications) {
+            this.result = result;
+            this.additions = additions;
+            this.multiplications = multiplications;
+        }
+    }
+
+    private final int _capacity;
+    private final LinkedHashMap<Key, CachedResult> _entries;
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * @param capacity The maximum number of cached results (0 turns the cache off).
+     */
+    public QueryResultCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative, got " + capacity);
+        }
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > _capacity) {
+                    _evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // The key of a query
+    public static Key key(BayesianNetwork network, ClassifiedQuery query, String algorithm, EliminationOrder.Heuristic heuristic) {
+        return new Key(network, query, algorithm, heuristic);
+    }
+
+    /**
+     * Returns the cached result line of the query, or null if it is not cached.
+     * On a hit the counts of the cached computation are added to the context.
+     */
+    public synchronized String get(Key key, QueryContext context) {
+        CachedResult cached = _entries.get(key);
+        if (cached == null) {
+            _misses++;
+            return null;
+        }
+        _hits++;
+        context.addAdditions(cached.additions);
+        context.addMultiplications(cached.multiplications);
+        return cached.result;
+    }
+
+    // Caches the result line of a query with the counts of its computation
+    public synchronized void put(Key key, String result, long additions, long multiplications) {
+        if (_capacity == 0 || result == null) {
+            return;
+        }
+        _entries.put(key, new CachedResult(result, additions, multiplications));
+    }
+
+    public int getCapacity() {return _capacity;}
+
+    public synchronized int size() {return _entries.size();}
+
+    public synchronized long getHits() {return _hits;}
+
+    public synchronized long getMisses() {return _misses;}
+
+    public synchronized long getEvictions() {return _evictions;}
+
+    @Override
+    public synchronized String toString() {
+        long lookups = _hits + _misses;
+        return "Query cache: " + _hits + " hits, " + _misses + " misses, " + _evictions + " evictions, " +
+                _entries.size() + "/" + _capacity + " entries" +
+                (lookups == 0 ? "" : String.format(" (hit rate %.1f%%)", 100.0 * _hits / lookups));
+    }
+}
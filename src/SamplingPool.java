@@ -0,0 +1,27 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads the samplers (Algorithms 5 and 6) run their streams and chains on, one per core.
+
+ * The samplers do not use the common ForkJoinPool: a ForkJoin worker that waits on a ForkJoin task runs other
+ * tasks while it waits, and in the batch mode those are other query lines, which then count into the wrong query.
+ * A thread that waits on a task of this pool only waits. The tasks of this pool never submit tasks of their own,
+ * so the batch workers waiting on them cannot deadlock.
+ */
+public class SamplingPool {
+
+    private static final AtomicInteger _threadNumber = new AtomicInteger();
+
+    private static final ExecutorService _pool = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), task -> {
+                Thread thread = new Thread(task, "sampler-" + _threadNumber.incrementAndGet());
+                thread.setDaemon(true); // The program ends without shutting the pool down
+                return thread;
+            });
+
+    private SamplingPool() {}
+
+    public static ExecutorService get() {return _pool;}
+}
@@ -1,35 +1,63 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Objects;
-
-/**
- * Represents a variable in a Bayesian network.
- * Each variable has a name and a list of possible outcomes.
- */
-public class Variable {
-    private final String _name;
-    private final List<String> _outcomes;
-
-    public Variable(String name, List<String> outcomes) {
-        _name = Objects.requireNonNull(name, "Name cannot be null");
-
-        Objects.requireNonNull(outcomes, "Outcomes list cannot be null");
-        List<String> outcomesCopy = new ArrayList<>(outcomes);
-        this._outcomes = Collections.unmodifiableList(outcomesCopy);
-    }
-
-    public String getName() {return _name;}
-
-    //public void setName(String name) {this.name = name;}
-
-    public List<String> getOutcomes() {return _outcomes;}
-
-    @Override
-    public String toString() {
-        return "Variable{" +
-                "name='" + _name + '\'' +
-                ", outcomes=" + _outcomes +
-                '}';
-    }
-}
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Represents a variable in a Bayesian network.
+ * Each variable has a name and a list of possible outcomes.
+ * The id is the position of the variable in the network, and every outcome is known by its index in the list,
+ * so the inference algorithms can work with int arrays instead of names.
+ */
+public class Variable {
+    private final int _id;
+    private final String _name;
+    private final List<String> _outcomes;
+    private final Map<String, Integer> _outcomeIndexes; // {outcome , index in _outcomes}
+
+    public Variable(int id, String name, List<String> outcomes) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Variable id cannot be negative");
+        }
+        _id = id;
+        _name = Objects.requireNonNull(name, "Name cannot be null");
+
+        Objects.requireNonNull(outcomes, "Outcomes list cannot be null");
+        List<String> outcomesCopy = new ArrayList<>(outcomes);
+        this._outcomes = Collections.unmodifiableList(outcomesCopy);
+
+        Map<String, Integer> outcomeIndexes = new HashMap<>();
+        for (int i = 0; i < outcomesCopy.size(); i++) {
+            if (outcomeIndexes.put(outcomesCopy.get(i), i) != null) {
+                throw new IllegalArgumentException("Duplicate outcome '" + outcomesCopy.get(i) + "' for variable " + name);
+            }
+        }
+        _outcomeIndexes = Collections.unmodifiableMap(outcomeIndexes);
+    }
+
+    public int getId() {return _id;}
+
+    public String getName() {return _name;}
+
+    //public void setName(String name) {this.name = name;}
+
+    public List<String> getOutcomes() {return _outcomes;}
+
+    public int getOutcomeCount() {return _outcomes.size();}
+
+    // Returns the index of the outcome, or -1 if it is not an outcome of this variable
+    public int getOutcomeIndex(String outcome) {
+        Integer index = _outcomeIndexes.get(outcome);
+        return (index == null) ? -1 : index;
+    }
+
+    @Override
+    public String toString() {
+        return "Variable{" +
+                "name='" + _name + '\'' +
+                ", outcomes=" + _outcomes +
+                '}';
+    }
+}
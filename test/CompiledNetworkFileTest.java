@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes the networks of src to compiled files, loads them back, and checks that nothing changed:
+ * the name, the variables and their outcomes, the parents of every definition, every probability (bit for bit),
+ * and the answers of a few queries. Then checks that a damaged file is reported with an IOException,
+ * and that a loaded network is garbage collected after its joint queries (nothing outside the network keeps it).
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out CompiledNetworkFileTest
+ */
+public class CompiledNetworkFileTest {
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("bnc-test");
+        try {
+            roundTrip("src/alarm_net.xml", directory.resolve("alarm.bnc"),
+                    "P(B=T|J=T,M=T),2", "P(E=T|J=T),3", "P(A=F|B=T,E=F),1", "P(B=T,E=F,A=T,J=T,M=F)", "P(M=T,J=F,A=F,E=T,B=F)");
+            networkIsReleased(directory.resolve("alarm.bnc"));
+            roundTrip("src/big_net.xml", directory.resolve("big.bnc"),
+                    "P(B0=v3|C3=T,B2=F,C2=v3),2", "P(A2=T|C2=v1),3");
+            damagedFiles(directory.resolve("alarm.bnc"), directory.resolve("damaged.bnc"));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All compiled network file checks passed");
+    }
+
+    private static void roundTrip(String xmlPath, Path compiledPath, String... queries) throws Exception {
+        BayesianNetwork original = new NetworkXmlParser().parse(xmlPath);
+        CompiledNetworkFile.write(original, compiledPath.toString());
+        BayesianNetwork loaded = CompiledNetworkFile.load(compiledPath.toString());
+
+        check(original.getName().equals(loaded.getName()), xmlPath + ": network name " + loaded.getName());
+        check(original.getVariableCount() == loaded.getVariableCount(), xmlPath + ": " + loaded.getVariableCount() + " variables");
+        for (int id = 0; id < original.getVariableCount(); id++) {
+            Variable expected = original.getVariable(id);
+            Variable actual = loaded.getVariable(id);
+            check(expected.getName().equals(actual.getName()) && expected.getOutcomes().equals(actual.getOutcomes()),
+                    xmlPath + ": variable " + expected.getName());
+        }
+
+        List<Definition> expectedDefinitions = original.getDefinitions();
+        List<Definition> actualDefinitions = loaded.getDefinitions();
+        check(expectedDefinitions.size() == actualDefinitions.size(), xmlPath + ": " + actualDefinitions.size() + " definitions");
+        for (int d = 0; d < Math.min(expectedDefinitions.size(), actualDefinitions.size()); d++) {
+            Definition expected = expectedDefinitions.get(d);
+            Definition actual = actualDefinitions.get(d);
+            boolean same = expected.getName().equals(actual.getName()) && expected.getParents().equals(actual.getParents())
+                    && expected.getTableSize() == actual.getTableSize();
+            for (int i = 0; same && i < expected.getTableSize(); i++) {
+                same = Double.doubleToRawLongBits(expected.getProbability(i)) == Double.doubleToRawLongBits(actual.getProbability(i));
+            }
+            check(same, xmlPath + ": definition of " + expected.getName());
+        }
+
+        for (String query : queries) {
+            String expected = Ex1.answerQueryLine(query, original, new QueryContext(true));
+            String actual = Ex1.answerQueryLine(query, loaded, new QueryContext(true));
+            check(expected.equals(actual), xmlPath + ": " + query + " gives " + actual + ", expected " + expected);
+        }
+    }
+
+    // Loads a network, answers a joint query with it and drops it, the garbage collector has to be able to take it
+    private static void networkIsReleased(Path compiledPath) throws Exception {
+        BayesianNetwork network = CompiledNetworkFile.load(compiledPath.toString());
+        String result = Ex1.answerQueryLine("P(B=T,E=F,A=T,J=T,M=F)", network, new QueryContext(true));
+        WeakReference<BayesianNetwork> reference = new WeakReference<>(network);
+        network = null;
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        check(reference.get() == null, "a network that answered a joint query (" + result + ") is garbage collected");
+    }
+
+    // Damages the header of a good file in several ways, every one has to give an IOException
+    private static void damagedFiles(Path goodPath, Path damagedPath) throws IOException {
+        byte[] good = Files.readAllBytes(goodPath);
+        int definitionsStart = definitionsStart(good);
+        int parentCount = ByteBuffer.wrap(good).order(ByteOrder.LITTLE_ENDIAN).getInt(definitionsStart + 4);
+        int tableSize = definitionsStart + 8 + 4 * parentCount;
+        int[][] damages = {
+                {0, 0x12345678},           // The magic
+                {8, -1},                   // The number of variables
+                {12, 1 << 20},             // The number of definitions
+                {definitionsStart, 99},    // The variable id of the first definition
+                {definitionsStart + 4, -2},// Its number of parents
+                {tableSize, -3},           // Its table size
+                {tableSize, 1 << 24},
+                {tableSize, 1},            // A size that does not fit the outcomes of the variable
+                {tableSize + 4, -8},       // The position of its table
+                {tableSize + 4, 3},
+        };
+        for (int[] damage : damages) {
+            byte[] bytes = good.clone();
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(damage[0], damage[1]);
+            Files.write(damagedPath, bytes);
+            String result;
+            try {
+                CompiledNetworkFile.load(damagedPath.toString());
+                result = "loaded";
+            } catch (IOException e) {
+                result = "IOException";
+            } catch (RuntimeException e) {
+                result = e.getClass().getSimpleName();
+            }
+            check(result.equals("IOException"), "value " + damage[1] + " at byte " + damage[0] + ": " + result);
+        }
+        byte[] truncated = java.util.Arrays.copyOf(good, good.length - 9);
+        Files.write(damagedPath, truncated);
+        try {
+            CompiledNetworkFile.load(damagedPath.toString());
+            check(false, "truncated file: loaded");
+        } catch (IOException e) {
+            check(true, "truncated file: IOException");
+        }
+    }
+
+    // The position of the first definition: after the header, the network name and the variables
+    private static int definitionsStart(byte[] file) {
+        ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        int variableCount = buffer.getInt(8);
+        buffer.position(16);
+        skipString(buffer);
+        for (int v = 0; v < variableCount; v++) {
+            skipString(buffer);
+            int outcomeCount = buffer.getInt();
+            for (int i = 0; i < outcomeCount; i++) {
+                skipString(buffer);
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
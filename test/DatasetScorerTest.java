@@ -0,0 +1,140 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Checks DatasetScorer on generated records of alarm_net:
+ * 1. The score of every record is Σ log P(xi | parents(xi)), computed here from the CPTs,
+ *    with the columns in another order than the variables and with blank lines between the records.
+ * 2. A chunk size smaller than the number of records, and 1 or 4 threads, give the same scores and total, bit for bit.
+ * 3. A bad header or record is rejected with the number of its line (blank lines count), also in a later chunk.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out DatasetScorerTest
+ */
+public class DatasetScorerTest {
+
+    private static final int RECORDS = 1000;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork network = new NetworkXmlParser().parse("src/alarm_net.xml");
+        Path directory = Files.createTempDirectory("score-test");
+        try {
+            String[] columns = {"M", "A", "B", "J", "E"};
+            List<int[]> assignments = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            lines.add(String.join(",", columns));
+            SplittableRandom random = new SplittableRandom(1);
+            for (int r = 0; r < RECORDS; r++) {
+                int[] assignment = new int[network.getVariableCount()];
+                StringJoiner record = new StringJoiner(",");
+                for (String column : columns) {
+                    Variable variable = network.getVariable(network.getVariableId(column));
+                    assignment[variable.getId()] = random.nextInt(variable.getOutcomeCount());
+                    record.add(variable.getOutcomes().get(assignment[variable.getId()]));
+                }
+                assignments.add(assignment);
+                lines.add(record.toString());
+                if (r % 100 == 0) {
+                    lines.add("");
+                }
+            }
+            Path csv = directory.resolve("records.csv");
+            Files.write(csv, lines, StandardCharsets.UTF_8);
+
+            double expectedTotal = 0;
+            double[] expectedScores = new double[RECORDS];
+            for (int r = 0; r < RECORDS; r++) {
+                for (int id = 0; id < network.getVariableCount(); id++) {
+                    expectedScores[r] += Math.log(network.getDefinition(id).getProbability(network.getCptIndex(id, assignments.get(r))));
+                }
+                expectedTotal += expectedScores[r];
+            }
+
+            Path sequentialScores = directory.resolve("scores1.txt");
+            DatasetScorer.Summary sequential = DatasetScorer.score(csv.toString(), network, sequentialScores.toString(), 1, 7);
+            List<String> scores = Files.readAllLines(sequentialScores);
+            check(sequential.getRecords() == RECORDS && scores.size() == RECORDS,
+                    sequential.getRecords() + " records, " + scores.size() + " scores");
+            boolean same = scores.size() == RECORDS;
+            for (int r = 0; same && r < RECORDS; r++) {
+                same = Math.abs(Double.parseDouble(scores.get(r)) - expectedScores[r]) <= 1e-12;
+            }
+            check(same, "every score is the sum of the log CPT entries of its record");
+            check(Math.abs(sequential.getTotalLogLikelihood() - expectedTotal) <= 1e-9,
+                    "total " + sequential.getTotalLogLikelihood() + ", expected " + expectedTotal);
+            check(sequential.getImpossibleRecords() == 0, sequential.getImpossibleRecords() + " impossible records");
+
+            int[][] settings = {{4, 7}, {4, 64}, {2, DatasetScorer.DEFAULT_CHUNK_SIZE}, {1, RECORDS}};
+            for (int[] setting : settings) {
+                Path parallelScores = directory.resolve("scores" + setting[0] + "_" + setting[1] + ".txt");
+                DatasetScorer.Summary parallel = DatasetScorer.score(csv.toString(), network, parallelScores.toString(), setting[0], setting[1]);
+                check(Double.doubleToRawLongBits(parallel.getTotalLogLikelihood()) == Double.doubleToRawLongBits(sequential.getTotalLogLikelihood())
+                                && Files.readAllLines(parallelScores).equals(scores),
+                        setting[0] + " threads, chunks of " + setting[1] + ": total " + parallel.getTotalLogLikelihood());
+            }
+
+            // The header is line 1, the records start on line 2 and blank lines count
+            String header = String.join(",", columns);
+            String[][] errors = {
+                    {"M,A,B,J,X", "Line 1: unknown variable 'X' in the header"},
+                    {"M,A,B,J,E,A", "Line 1: variable 'A' appears twice in the header"},
+                    {"M,A,B,J", "Line 1: the header has no column for variable 'E'"},
+                    {header + "\nT,T,T,T,T\nT,T,Q,T,T", "Line 3: 'Q' is not an outcome of B"},
+                    {header + "\nT,T,T,T,T\n\n\nT,T,T,T", "Line 5: 4 values, expected 5"},
+                    {header + "\n\nT,T,T,T,T,T", "Line 3: more than 5 values"},
+                    {"", "The dataset " + directory.resolve("error.csv") + " is empty"},
+            };
+            for (String[] error : errors) {
+                Path file = directory.resolve("error.csv");
+                Files.writeString(file, error[0], StandardCharsets.UTF_8);
+                check(error[1].equals(scoreError(file, network, 2, 1)), error[1]);
+            }
+
+            // A bad record in a later chunk, scored by another worker, still has its own line number
+            List<String> badLines = new ArrayList<>(lines);
+            badLines.set(700, badLines.get(700).replaceFirst("^[TF]", "maybe"));
+            Path bad = directory.resolve("bad.csv");
+            Files.write(bad, badLines, StandardCharsets.UTF_8);
+            for (int[] setting : new int[][]{{1, 7}, {4, 7}, {4, 8192}}) {
+                String error = scoreError(bad, network, setting[0], setting[1]);
+                check("Line 701: 'maybe' is not an outcome of M".equals(error),
+                        setting[0] + " threads, chunks of " + setting[1] + ": " + error);
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All dataset scorer checks passed");
+    }
+
+    // The message of the IllegalArgumentException of scoring the file, or "scored"
+    private static String scoreError(Path file, BayesianNetwork network, int threads, int chunkSize) throws Exception {
+        try {
+            DatasetScorer.score(file.toString(), network, null, threads, chunkSize);
+            return "scored";
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.*;
+
+/**
+ * Checks the elimination ordering heuristics on a small network where the order was worked out by hand:
+ *   A, B, C, D are hidden, E (evidence) has the parents A, B, C, D has the parent A, and Q (query) has the parent D.
+ * The restricted CPT of E is a factor over A, B and C, so the interaction graph has the edges A-B, A-C, B-C
+ * (from E), A-D (from D) and D-Q (from Q). Min-fill scores A: 2 (D-B and D-C are missing), B: 0, C: 0, D: 1,
+ * so B goes first (the name breaks the tie with C), then C (0), then A (0, D is its only neighbour), then D.
+ * With all the variables binary, weighted-min-fill is 4 times min-fill and gives the same order.
+
+ * The counts of P(Q=T|E=T),2 with the order B, C, A, D (as Algorithm 2 joins and sums them out):
+ *   B: P(B) x f(A,B,C) = 8 multiplications, sum out B = 4 additions
+ *   C: P(C) x g(A,C)   = 4 multiplications, sum out C = 2 additions
+ *   A: P(A) x g(A)     = 2, then x P(D|A) = 4 multiplications, sum out A = 2 additions
+ *   D: g(D) x P(Q|D)   = 4 multiplications, sum out D = 2 additions
+ *   normalization      = 1 addition
+ * 11 additions and 22 multiplications. Eliminating A first (a graph without the edges of E's CPT ranks A, B, C
+ * with fill 0 and takes A by name) makes a factor over A, B, C, D and costs 17 additions and 36 multiplications.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out EliminationOrderTest
+ */
+public class EliminationOrderTest {
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork network = handNetwork();
+        int q = network.getVariableId("Q");
+        int e = network.getVariableId("E");
+        ClassifiedQuery query = new ClassifiedQuery(q, 0, new int[]{e}, new int[]{0}, network.getVariableCount());
+        boolean[] relevant = network.getTopology().relevantVariables(q, new int[]{e});
+
+        List<String> expectedOrder = List.of("B", "C", "A", "D");
+        for (EliminationOrder.Heuristic heuristic : new EliminationOrder.Heuristic[]{
+                EliminationOrder.Heuristic.MIN_FILL, EliminationOrder.Heuristic.WEIGHTED_MIN_FILL}) {
+            List<String> order = names(network, EliminationOrder.forQuery(query, network, relevant, heuristic));
+            check(expectedOrder.equals(order), heuristic.getName() + " order " + order);
+        }
+        // Min-degree: A has 3 neighbours, B, C and D have 2, so B (by name), then C (1), then A (1), then D
+        List<String> minDegree = names(network, EliminationOrder.forQuery(query, network, relevant, EliminationOrder.Heuristic.MIN_DEGREE));
+        check(expectedOrder.equals(minDegree), "min-degree order " + minDegree);
+
+        String exact = Ex1.answerQueryLine("P(Q=T|E=T),1", network, new QueryContext(true));
+        for (String line : new String[]{"P(Q=T|E=T),2,min-fill", "P(Q=T|E=T),2,weighted-min-fill",
+                "P(Q=T|E=T),3,min-fill", "P(Q=T|E=T),3,weighted-min-fill"}) {
+            String result = Ex1.answerQueryLine(line, network, new QueryContext(true));
+            String[] parts = result.split(",");
+            check(parts[0].equals(exact.split(",")[0]), line + " probability " + parts[0] + ", Algorithm 1 gives " + exact);
+            check(parts[1].equals("11") && parts[2].equals("22"), line + " counts " + parts[1] + "," + parts[2] + ", expected 11,22");
+        }
+        // The default order of Algorithm 2 is by name (A first): the worse order of the comment above
+        String byName = Ex1.answerQueryLine("P(Q=T|E=T),2", network, new QueryContext(true));
+        check(byName.endsWith(",17,36"), "P(Q=T|E=T),2 by name " + byName + ", expected 17,36");
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All elimination order checks passed");
+    }
+
+    // The network of the class comment, every variable has the outcomes T and F
+    private static BayesianNetwork handNetwork() {
+        String[] names = {"A", "B", "C", "D", "E", "Q"};
+        List<Variable> variables = new ArrayList<>();
+        for (int id = 0; id < names.length; id++) {
+            variables.add(new Variable(id, names[id], List.of("T", "F")));
+        }
+        Variable a = variables.get(0), b = variables.get(1), c = variables.get(2);
+        Variable d = variables.get(3), e = variables.get(4), q = variables.get(5);
+        List<Definition> definitions = new ArrayList<>();
+        definitions.add(new Definition(a, List.of(), table(0.3)));
+        definitions.add(new Definition(b, List.of(), table(0.6)));
+        definitions.add(new Definition(c, List.of(), table(0.45)));
+        definitions.add(new Definition(d, List.of(a), table(0.7, 0.2)));
+        definitions.add(new Definition(e, List.of(a, b, c), table(0.95, 0.8, 0.7, 0.4, 0.6, 0.3, 0.25, 0.05)));
+        definitions.add(new Definition(q, List.of(d), table(0.9, 0.15)));
+        return new BayesianNetwork("hand", definitions, variables);
+    }
+
+    // A binary CPT: P(T) of every parent configuration, in the standard order (the child changes fastest)
+    private static double[] table(double... probabilitiesOfTrue) {
+        double[] table = new double[2 * probabilitiesOfTrue.length];
+        for (int row = 0; row < probabilitiesOfTrue.length; row++) {
+            table[2 * row] = probabilitiesOfTrue[row];
+            table[2 * row + 1] = 1 - probabilitiesOfTrue[row];
+        }
+        return table;
+    }
+
+    private static List<String> names(BayesianNetwork network, List<Integer> ids) {
+        List<String> names = new ArrayList<>();
+        for (int id : ids) {
+            names.add(network.getVariable(id).getName());
+        }
+        return names;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
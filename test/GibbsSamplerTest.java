@@ -0,0 +1,119 @@
+import java.util.*;
+
+/**
+ * Checks the Gibbs sampler (Algorithm 6) with fixed seeds and a fixed number of chains:
+ * 1. The estimates of queries on alarm_net have to be within 0.02 of Algorithm 1, with R-hat below 1.1,
+ *    and the same seed has to give the same posterior, R-hat and counts.
+ *    (R-hat can be a little below 1 when the chains agree, the pooled variance is an estimate too.)
+ * 2. Small networks with deterministic CPTs (Y = X and Z = X, X is a fair coin) for the edge cases:
+ *    - P(X=T|Y=T): every chain stays on X=T, the within-chain variance is 0 and the chains agree, R-hat is 1.
+ *    - P(Y=T|W=T) (W is an unrelated coin): X and Y can never change, every chain stays on its first sample.
+ *      With the seed of the test the chains start on different values, so R-hat is infinite.
+ *    - P(X=T|Y=T,Z=F): the evidence is impossible, every outcome of X has weight 0 in every sweep,
+ *      so every step of every chain is stuck.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out GibbsSamplerTest
+ */
+public class GibbsSamplerTest {
+
+    private static final int CHAINS = 4;
+    private static final double TOLERANCE = 0.02;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork alarm = new NetworkXmlParser().parse("src/alarm_net.xml");
+        for (String query : new String[]{"P(B=T|J=T,M=T)", "P(E=T|J=T)", "P(A=T|J=T,M=F)", "P(J=T|B=T)"}) {
+            ClassifiedQuery classified = QueryAnalysis.classifiedVariable(query + ",6", alarm);
+            double exact = Double.parseDouble(Ex1.answerQueryLine(query + ",1", alarm, new QueryContext(true)).split(",")[0]);
+
+            GibbsSampler.Estimate estimate = estimate(classified, alarm, 20_000, 2_000);
+            check(Math.abs(estimate.getProbability() - exact) <= TOLERANCE, query + ": " + estimate + ", Algorithm 1 " + exact);
+            check(estimate.getRHat() > 0.99 && estimate.getRHat() < 1.1, query + ": R-hat " + estimate.getRHat());
+            check(estimate.getKeptSamples() == CHAINS * 18_000L && estimate.getStuckSteps() == 0,
+                    query + ": " + estimate.getKeptSamples() + " kept samples, " + estimate.getStuckSteps() + " stuck steps");
+
+            GibbsSampler.Estimate again = estimate(classified, alarm, 20_000, 2_000);
+            check(sameEstimate(estimate, again), query + ": the same seed gives " + again);
+        }
+
+        BayesianNetwork copies = copiesNetwork();
+        GibbsSampler.Estimate agreeing = estimate(query(copies, "X", "Y=T"), copies, 100, 10);
+        check(agreeing.getProbability() == 1.0 && agreeing.getRHat() == 1.0,
+                "P(X=T|Y=T): every chain stays on X=T, " + agreeing);
+
+        GibbsSampler.Estimate disagreeing = estimate(query(copies, "Y", "W=T"), copies, 100, 10);
+        double p = disagreeing.getProbability();
+        check(p > 0 && p < 1 && disagreeing.getRHat() == Double.POSITIVE_INFINITY,
+                "P(Y=T|W=T): the chains stay on different values, " + disagreeing);
+        check(disagreeing.getStuckSteps() == 0, "P(Y=T|W=T): " + disagreeing.getStuckSteps() + " stuck steps");
+
+        int sweeps = 50;
+        GibbsSampler.Estimate impossible = estimate(query(copies, "X", "Y=T", "Z=F"), copies, sweeps, 5);
+        check(impossible.getStuckSteps() == (long) CHAINS * sweeps,
+                "P(X=T|Y=T,Z=F): " + impossible.getStuckSteps() + " stuck steps, expected " + CHAINS * sweeps);
+
+        // The same impossible evidence through a query line: the line is still answered
+        String line = Ex1.answerQueryLine("P(X=T|Y=T,Z=F),6,50,5", copies, new QueryContext(true));
+        check(line.split(",").length == 3, "P(X=T|Y=T,Z=F),6,50,5 gives " + line);
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All Gibbs sampler checks passed");
+    }
+
+    // Runs the chains with the seed of the test, one sample kept per sweep, the Markov blankets are not printed
+    private static GibbsSampler.Estimate estimate(ClassifiedQuery query, BayesianNetwork network, int sweeps, int burnIn) {
+        return GibbsSampler.estimate(query, network, CHAINS, sweeps, burnIn, 1, 42, new QueryContext(true));
+    }
+
+    // X and W are fair coins, Y and Z are copies of X
+    private static BayesianNetwork copiesNetwork() {
+        String[] names = {"X", "Y", "Z", "W"};
+        List<Variable> variables = new ArrayList<>();
+        for (int id = 0; id < names.length; id++) {
+            variables.add(new Variable(id, names[id], List.of("T", "F")));
+        }
+        Variable x = variables.get(0);
+        double[] copy = {1, 0, 0, 1};
+        List<Definition> definitions = new ArrayList<>();
+        definitions.add(new Definition(x, List.of(), new double[]{0.5, 0.5}));
+        definitions.add(new Definition(variables.get(1), List.of(x), copy.clone()));
+        definitions.add(new Definition(variables.get(2), List.of(x), copy.clone()));
+        definitions.add(new Definition(variables.get(3), List.of(), new double[]{0.5, 0.5}));
+        return new BayesianNetwork("copies", definitions, variables);
+    }
+
+    // P(variable=T|evidence), the evidence items are "name=outcome"
+    private static ClassifiedQuery query(BayesianNetwork network, String variable, String... evidence) {
+        int[] evidenceVariables = new int[evidence.length];
+        int[] evidenceOutcomes = new int[evidence.length];
+        for (int i = 0; i < evidence.length; i++) {
+            Variable observed = network.getVariable(network.getVariableId(evidence[i].split("=")[0]));
+            evidenceVariables[i] = observed.getId();
+            evidenceOutcomes[i] = observed.getOutcomeIndex(evidence[i].split("=")[1]);
+        }
+        return new ClassifiedQuery(network.getVariableId(variable), 0, evidenceVariables, evidenceOutcomes,
+                network.getVariableCount());
+    }
+
+    // The same posterior and R-hat, bit for bit, and the same counts
+    private static boolean sameEstimate(GibbsSampler.Estimate a, GibbsSampler.Estimate b) {
+        return Arrays.equals(a.getPosterior(), b.getPosterior())
+                && Double.doubleToRawLongBits(a.getRHat()) == Double.doubleToRawLongBits(b.getRHat())
+                && a.getKeptSamples() == b.getKeptSamples() && a.getStuckSteps() == b.getStuckSteps()
+                && a.getNumberOfAdditions() == b.getNumberOfAdditions()
+                && a.getNumberOfMultiplications() == b.getNumberOfMultiplications();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.*;
+
+/**
+ * Checks the junction tree engine against itself and against Algorithm 1:
+ * 1. An InferenceSession on alarm_net sets and retracts evidence one item at a time. After every step, the posterior
+ *    of every variable has to be the one of a tree that was just calibrated for the same evidence,
+ *    and P(variable=outcome|evidence) has to match Algorithm 1. An update has to cost less than a new calibration.
+ * 2. Algorithm 4 caches the calibrated trees by evidence: a line has to give the same result and counts
+ *    the first time, again, with its evidence in another order, and after lines with other evidence,
+ *    and the counts have to be those of a fresh calibration and marginal.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out InferenceSessionTest
+ */
+public class InferenceSessionTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork network = new NetworkXmlParser().parse("src/alarm_net.xml");
+        JunctionTree tree = JunctionTree.compile(network);
+        InferenceSession session = new InferenceSession(tree);
+
+        // Every step is {variable, outcome}, a null outcome retracts the evidence of the variable
+        String[][] steps = {
+                {"J", "T"}, {"M", "T"}, {"E", "F"}, {"M", null}, {"J", "F"}, {"A", "T"}, {"E", null}, {"B", "T"},
+                {"A", null}, {"J", null}, {"B", null},
+        };
+        for (String[] step : steps) {
+            if (step[1] == null) {
+                session.retractEvidence(step[0]);
+            } else {
+                session.setEvidence(step[0], step[1]);
+            }
+            Map<String, String> evidence = session.getEvidence();
+            String name = "evidence " + evidence;
+
+            // The first posterior after the update computes again the messages it needs
+            long additionsBefore = session.getNumberOfAdditions();
+            long multiplicationsBefore = session.getNumberOfMultiplications();
+            session.getPosterior("B");
+            long update = session.getNumberOfAdditions() - additionsBefore
+                    + session.getNumberOfMultiplications() - multiplicationsBefore;
+
+            JunctionTreeState fresh = new JunctionTreeState(tree, evidenceArray(network, evidence));
+            fresh.calibrate();
+            long calibration = fresh.getNumberOfAdditions() + fresh.getNumberOfMultiplications();
+            check(update < calibration, name + ": the update cost " + update + " operations, a calibration " + calibration);
+
+            for (int id = 0; id < network.getVariableCount(); id++) {
+                Variable variable = network.getVariable(id);
+                Map<String, Double> incremental = session.getPosterior(variable.getName());
+                double[] expected = fresh.getPosterior(id);
+                boolean same = true;
+                for (int i = 0; i < expected.length; i++) {
+                    same &= Math.abs(incremental.get(variable.getOutcomes().get(i)) - expected[i]) <= TOLERANCE;
+                }
+                check(same, name + ": posterior of " + variable.getName() + " " + incremental.values()
+                        + ", fresh calibration " + Arrays.toString(expected));
+
+                if (!evidence.isEmpty() && !evidence.containsKey(variable.getName())) {
+                    String line = queryLine(variable.getName(), variable.getOutcomes().get(0), evidence);
+                    String exact = Ex1.answerQueryLine(line + ",1", network, new QueryContext(true));
+                    double probability = Double.parseDouble(exact.split(",")[0]);
+                    double incrementalProbability = session.getPosterior(variable.getName(), variable.getOutcomes().get(0));
+                    check(Math.abs(incrementalProbability - probability) <= 0.5e-5,
+                            line + ": session " + incrementalProbability + ", Algorithm 1 " + exact);
+                }
+            }
+        }
+
+        // Algorithm 4: the cache of calibrations does not change the lines
+        String[][] sameQueries = {
+                {"P(B=T|J=T,M=T),4", "P(B=T|M=T,J=T),4"},
+                {"P(E=T|J=T,A=F),4", "P(E=T|A=F,J=T),4"},
+                {"P(M=F|B=T,E=F,J=T),4", "P(M=F|J=T,E=F,B=T),4"},
+        };
+        List<String> firstResults = new ArrayList<>();
+        for (String[] queries : sameQueries) {
+            String first = Ex1.answerQueryLine(queries[0], network, new QueryContext(true));
+            firstResults.add(first);
+            String again = Ex1.answerQueryLine(queries[0], network, new QueryContext(true));
+            String reordered = Ex1.answerQueryLine(queries[1], network, new QueryContext(true));
+            check(first.equals(again) && first.equals(reordered), queries[0] + " " + first + ", again " + again
+                    + ", " + queries[1] + " " + reordered);
+
+            String expected = freshResult(queries[0], tree);
+            check(first.equals(expected), queries[0] + " " + first + ", a fresh calibration gives " + expected);
+        }
+        for (int i = 0; i < sameQueries.length; i++) {
+            String later = Ex1.answerQueryLine(sameQueries[i][0], network, new QueryContext(true));
+            check(later.equals(firstResults.get(i)), sameQueries[i][0] + " after the other lines " + later);
+        }
+        // Other variables with a cached evidence: the hit still pays for the calibration and for its own marginal
+        for (String line : new String[]{"P(A=T|J=T,M=T),4", "P(E=F|J=T,M=T),4", "P(J=T|A=F,E=T),4"}) {
+            String result = Ex1.answerQueryLine(line, network, new QueryContext(true));
+            String expected = freshResult(line, tree);
+            check(result.equals(expected), line + " " + result + ", a fresh calibration gives " + expected);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All inference session checks passed");
+    }
+
+    // The result line of an Algorithm 4 query computed on a tree that was just calibrated for it
+    private static String freshResult(String line, JunctionTree tree) {
+        BayesianNetwork network = tree.getNetwork();
+        ClassifiedQuery query = QueryAnalysis.classifiedVariable(line, network);
+        int[] evidence = new int[network.getVariableCount()];
+        Arrays.fill(evidence, -1);
+        for (int i = 0; i < query.getEvidenceVariables().length; i++) {
+            evidence[query.getEvidenceVariables()[i]] = query.getEvidenceOutcomes()[i];
+        }
+        JunctionTreeState fresh = new JunctionTreeState(tree, evidence);
+        fresh.calibrate();
+        double probability = fresh.getPosterior(query.getQueryVariable())[query.getQueryOutcome()];
+        return String.format(Locale.US, "%.5f,%d,%d", probability, fresh.getNumberOfAdditions(), fresh.getNumberOfMultiplications());
+    }
+
+    // The observed outcome of every variable (by id), -1 if it is not observed
+    private static int[] evidenceArray(BayesianNetwork network, Map<String, String> evidence) {
+        int[] array = new int[network.getVariableCount()];
+        Arrays.fill(array, -1);
+        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+            Variable variable = network.getVariable(network.getVariableId(entry.getKey()));
+            array[variable.getId()] = variable.getOutcomeIndex(entry.getValue());
+        }
+        return array;
+    }
+
+    private static String queryLine(String variable, String outcome, Map<String, String> evidence) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (Map.Entry<String, String> entry : evidence.entrySet()) {
+            joiner.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return "P(" + variable + "=" + outcome + "|" + joiner + ")";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
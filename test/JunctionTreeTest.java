@@ -0,0 +1,112 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Checks the marginals of the junction tree (Algorithm 4) against variable elimination (Algorithm 2)
+ * and, on alarm_net, against the joint distribution (Algorithm 1).
+ * The evidence sets are those of the conditional queries of test/data. For every evidence set,
+ * P(X=x|evidence) is asked for every variable X that is not evidence and every outcome x,
+ * and the posterior of every variable from a calibrated tree has to sum to 1.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out JunctionTreeTest
+ */
+public class JunctionTreeTest {
+
+    // The results are printed with 5 decimals, a rounding step is the most two correct results can differ by
+    private static final double TOLERANCE = 1e-5 + 1e-12;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        compare("alarm_net.xml", Paths.get("test", "data", "alarm_queries.txt"), "1", "2");
+        compare("big_net.xml", Paths.get("test", "data", "big_queries.txt"), "2");
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All junction tree checks passed");
+    }
+
+    private static void compare(String networkFile, Path queriesFile, String... algorithms) throws Exception {
+        BayesianNetwork network = new NetworkXmlParser().parse(Paths.get("src", networkFile).toString());
+        JunctionTree tree = JunctionTree.compile(network);
+
+        // The evidence of every conditional query, by variable name (so every order is one evidence set)
+        Set<TreeMap<String, String>> evidenceSets = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(queriesFile)) {
+            if (line.contains("|")) {
+                String evidence = line.substring(line.indexOf('|') + 1, line.lastIndexOf(')'));
+                TreeMap<String, String> items = new TreeMap<>();
+                for (String item : evidence.split(",")) {
+                    String[] parts = item.split("=");
+                    // The query files also have unknown evidence variables, which the queries skip
+                    if (parts.length == 2 && network.getVariableId(parts[0].trim()) >= 0) {
+                        items.put(parts[0].trim(), parts[1].trim());
+                    }
+                }
+                if (!items.isEmpty()) {
+                    evidenceSets.add(items);
+                }
+            }
+        }
+
+        for (TreeMap<String, String> evidence : evidenceSets) {
+            int[] observed = new int[network.getVariableCount()];
+            Arrays.fill(observed, -1);
+            StringJoiner evidenceText = new StringJoiner(",");
+            for (Map.Entry<String, String> item : evidence.entrySet()) {
+                Variable variable = network.getVariable(network.getVariableId(item.getKey()));
+                observed[variable.getId()] = variable.getOutcomeIndex(item.getValue());
+                evidenceText.add(item.getKey() + "=" + item.getValue());
+            }
+            JunctionTreeState state = new JunctionTreeState(tree, observed);
+            state.calibrate();
+
+            int queries = 0;
+            List<String> differences = new ArrayList<>();
+            for (int id = 0; id < network.getVariableCount(); id++) {
+                Variable variable = network.getVariable(id);
+                double[] posterior = state.getPosterior(id);
+                double sum = 0;
+                for (double p : posterior) {
+                    sum += p;
+                }
+                if (Math.abs(sum - 1) > 1e-9) {
+                    differences.add("the posterior of " + variable.getName() + " sums to " + sum);
+                }
+                if (observed[id] >= 0) {
+                    continue;
+                }
+                for (int outcome = 0; outcome < variable.getOutcomeCount(); outcome++) {
+                    String query = "P(" + variable.getName() + "=" + variable.getOutcomes().get(outcome) + "|" + evidenceText + ")";
+                    String junctionTree = Ex1.answerQueryLine(query + ",4", network, new QueryContext(true));
+                    double probability = Double.parseDouble(junctionTree.split(",")[0]);
+                    if (Math.abs(probability - posterior[outcome]) > TOLERANCE) {
+                        differences.add(query + ",4 " + junctionTree + ", the calibrated tree " + posterior[outcome]);
+                    }
+                    for (String algorithm : algorithms) {
+                        String expected = Ex1.answerQueryLine(query + "," + algorithm, network, new QueryContext(true));
+                        if (Math.abs(Double.parseDouble(expected.split(",")[0]) - probability) > TOLERANCE) {
+                            differences.add(query + ",4 " + junctionTree + ", Algorithm " + algorithm + " " + expected);
+                        }
+                    }
+                    queries++;
+                }
+            }
+            check(differences.isEmpty(), networkFile + " " + evidenceText + ": " + queries + " marginals"
+                    + (differences.isEmpty() ? "" : ", " + differences));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
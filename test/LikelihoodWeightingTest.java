@@ -0,0 +1,96 @@
+import java.util.*;
+
+/**
+ * Checks the likelihood-weighting sampler (Algorithm 5) with fixed seeds:
+ * the estimates of queries on alarm_net and big_net have to be within 5 standard errors and within 0.01
+ * of the exact answer (Algorithm 1 on alarm_net, Algorithm 2 on big_net, which is too big for Algorithm 1),
+ * the same seed has to give the same estimate and counts,
+ * and another seed has to give another estimate. Also checks the budgets that are rejected.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out LikelihoodWeightingTest
+ */
+public class LikelihoodWeightingTest {
+
+    private static final long SAMPLES = 200_000;
+    private static final int STREAMS = 16;
+    private static final double TOLERANCE = 0.01;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork alarm = new NetworkXmlParser().parse("src/alarm_net.xml");
+        BayesianNetwork big = new NetworkXmlParser().parse("src/big_net.xml");
+
+        Object[][] queries = {
+                {alarm, "P(B=T|J=T,M=T)"},
+                {alarm, "P(E=T|J=T)"},
+                {alarm, "P(A=T|J=T,M=F)"},
+                {alarm, "P(J=T|B=T)"},
+                {big, "P(B0=v3|C3=T,B2=F,C2=v3)"},
+                {big, "P(A2=T|C2=v1)"},
+                {big, "P(D1=T|A1=T,B3=F)"},
+        };
+        for (Object[] entry : queries) {
+            BayesianNetwork network = (BayesianNetwork) entry[0];
+            String query = (String) entry[1];
+            ClassifiedQuery classified = QueryAnalysis.classifiedVariable(query + ",5", network);
+            String exactAlgorithm = (network == alarm) ? "1" : "2";
+            double exact = Double.parseDouble(
+                    Ex1.answerQueryLine(query + "," + exactAlgorithm, network, new QueryContext(true)).split(",")[0]);
+
+            LikelihoodWeighting.Estimate estimate = LikelihoodWeighting.estimate(classified, network, SAMPLES, 0, STREAMS, 42);
+            check(estimate.getSamples() == SAMPLES, query + ": " + estimate.getSamples() + " samples");
+            double error = Math.abs(estimate.getProbability() - exact);
+            check(estimate.getStandardError() > 0 && error <= 5 * estimate.getStandardError() && error <= TOLERANCE,
+                    query + ": " + estimate + ", Algorithm " + exactAlgorithm + " " + exact);
+
+            LikelihoodWeighting.Estimate again = LikelihoodWeighting.estimate(classified, network, SAMPLES, 0, STREAMS, 42);
+            check(sameEstimate(estimate, again), query + ": the same seed gives " + again);
+
+            LikelihoodWeighting.Estimate otherSeed = LikelihoodWeighting.estimate(classified, network, SAMPLES, 0, STREAMS, 7);
+            check(estimate.getProbability() != otherSeed.getProbability(), query + ": another seed gives " + otherSeed);
+        }
+
+        // The query lines use the default seed, so a line gives the same result every time
+        String line = "P(B=T|J=T,M=T),5,20000";
+        String first = Ex1.answerQueryLine(line, alarm, new QueryContext(true));
+        check(first.equals(Ex1.answerQueryLine(line, alarm, new QueryContext(true))), line + " twice gives " + first);
+
+        ClassifiedQuery classified = QueryAnalysis.classifiedVariable("P(B=T|J=T,M=T),5", alarm);
+        long[][] invalidBudgets = {{-1, 0, STREAMS}, {0, -1, STREAMS}, {0, 0, STREAMS}, {1000, 0, 0}};
+        for (long[] budget : invalidBudgets) {
+            String result;
+            try {
+                LikelihoodWeighting.estimate(classified, alarm, budget[0], budget[1], (int) budget[2], 42);
+                result = "accepted";
+            } catch (IllegalArgumentException e) {
+                result = e.getMessage();
+            }
+            check(!result.equals("accepted"), "samples " + budget[0] + ", time " + budget[1] + ", streams " + budget[2] + ": " + result);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All likelihood weighting checks passed");
+    }
+
+    // The same estimate, bit for bit, and the same counts
+    private static boolean sameEstimate(LikelihoodWeighting.Estimate a, LikelihoodWeighting.Estimate b) {
+        return Double.doubleToRawLongBits(a.getProbability()) == Double.doubleToRawLongBits(b.getProbability())
+                && Double.doubleToRawLongBits(a.getStandardError()) == Double.doubleToRawLongBits(b.getStandardError())
+                && a.getSamples() == b.getSamples()
+                && a.getNumberOfAdditions() == b.getNumberOfAdditions()
+                && a.getNumberOfMultiplications() == b.getNumberOfMultiplications();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
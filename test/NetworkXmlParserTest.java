@@ -0,0 +1,123 @@
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Checks that NetworkXmlParser reads the same network from the variants of a file that the XML format allows:
+ * a prolog with a <!DOCTYPE>, comments and processing instructions before <NETWORK>, and a <TABLE> whose
+ * numbers are cut by comments or written in CDATA, and the files NetworkXmlWriter writes for networks whose names
+ * have dashes. Also checks that a file without <NETWORK> is rejected.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out NetworkXmlParserTest
+ */
+public class NetworkXmlParserTest {
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("xml-test");
+        try {
+            String alarm = Files.readString(Paths.get("src", "alarm_net.xml"));
+            BayesianNetwork expected = new NetworkXmlParser().parse("src/alarm_net.xml");
+
+            String[] prologs = {
+                    "<?xml version=\"1.0\"?>\n<!-- the alarm network -->\n<!DOCTYPE NETWORK [\n"
+                            + "  <!ELEMENT NETWORK (VARIABLE|DEFINITION)*>\n]>\n",
+                    "<!-- a comment first -->\n<!DOCTYPE NETWORK SYSTEM \"network.dtd\">\n<?stylesheet none?>\n",
+                    "\n\n   <!---->\n",
+            };
+            for (int i = 0; i < prologs.length; i++) {
+                Path file = directory.resolve("prolog" + i + ".xml");
+                Files.writeString(file, prologs[i] + alarm, StandardCharsets.UTF_8);
+                BayesianNetwork parsed = new NetworkXmlParser().parse(file.toString());
+                check(sameNetwork(expected, parsed), "prolog " + i + " gives the same network");
+                String result = Ex1.answerQueryLine("P(B=T|J=T,M=T),2", parsed, new QueryContext(true));
+                check("0.28417,7,16".equals(result), "prolog " + i + ": P(B=T|J=T,M=T),2 = " + result);
+            }
+
+            // The numbers of the first table of alarm_net are "0.002 0.998"
+            String cut = alarm.replaceFirst("0\\.002", "0.0<!-- cut -->02").replaceFirst("0\\.998", "<![CDATA[0.99]]>8");
+            check(!cut.equals(alarm), "the table was changed for the test");
+            Path cutFile = directory.resolve("cut.xml");
+            Files.writeString(cutFile, cut, StandardCharsets.UTF_8);
+            check(sameNetwork(expected, new NetworkXmlParser().parse(cutFile.toString())), "numbers cut by a comment and CDATA");
+
+            // NetworkXmlWriter puts the name of the network in a comment, and a comment cannot hold "--"
+            for (String name : new String[]{"alarm--net", "alarm---net-", "-"}) {
+                Path file = directory.resolve("written.xml");
+                NetworkXmlWriter.write(new BayesianNetwork(name, expected.getDefinitions(), expected.getVariables()), file.toString());
+                String result;
+                try {
+                    result = sameNetwork(expected, new NetworkXmlParser().parse(file.toString())) ? "the same network" : "another network";
+                } catch (IllegalArgumentException | XMLStreamException e) {
+                    result = e.getMessage();
+                }
+                check(result.equals("the same network"), "written with the name '" + name + "': " + result);
+            }
+
+            Path wrongRoot = directory.resolve("wrong.xml");
+            Files.writeString(wrongRoot, "<!DOCTYPE BIF>\n<BIF>" + alarm + "</BIF>", StandardCharsets.UTF_8);
+            String error;
+            try {
+                new NetworkXmlParser().parse(wrongRoot.toString());
+                error = "parsed";
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+            check("Root element must be <NETWORK>".equals(error), "another root element: " + error);
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All XML parser checks passed");
+    }
+
+    // The same variables, outcomes, parents and probabilities (bit for bit)
+    static boolean sameNetwork(BayesianNetwork expected, BayesianNetwork actual) {
+        if (expected.getVariableCount() != actual.getVariableCount()
+                || expected.getDefinitions().size() != actual.getDefinitions().size()) {
+            return false;
+        }
+        for (int id = 0; id < expected.getVariableCount(); id++) {
+            Variable e = expected.getVariable(id);
+            Variable a = actual.getVariable(id);
+            if (!e.getName().equals(a.getName()) || !e.getOutcomes().equals(a.getOutcomes())) {
+                return false;
+            }
+        }
+        for (int d = 0; d < expected.getDefinitions().size(); d++) {
+            Definition e = expected.getDefinitions().get(d);
+            Definition a = actual.getDefinitions().get(d);
+            if (!e.getName().equals(a.getName()) || !e.getParents().equals(a.getParents())
+                    || e.getTableSize() != a.getTableSize()) {
+                return false;
+            }
+            for (int i = 0; i < e.getTableSize(); i++) {
+                if (Double.doubleToRawLongBits(e.getProbability(i)) != Double.doubleToRawLongBits(a.getProbability(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
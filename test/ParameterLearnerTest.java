@@ -0,0 +1,199 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Checks ParameterLearner:
+ * 1. A tiny network X -> Y, (X, Y) -> Z learned from 6 records, where the CPTs were worked out by hand,
+ *    with alpha = 0 (the frequencies) and alpha = 1 (Laplace). The parent configuration X=F, Y=T has no records.
+ * 2. The structure of alarm_net learned from records drawn from alarm_net: a chunk size smaller than the number
+ *    of records and 1 or 4 threads give the same CPTs, bit for bit, and the learned network written with
+ *    NetworkXmlWriter is parsed back with the same numbers.
+ * 3. A bad header or record is rejected with the number of its line, and so are a negative alpha,
+ *    no threads and an empty chunk.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out ParameterLearnerTest
+ */
+public class ParameterLearnerTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("learn-test");
+        try {
+            tinyNetwork(directory);
+            alarmNetwork(directory);
+            errors(directory);
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All parameter learner checks passed");
+    }
+
+    private static void tinyNetwork(Path directory) throws Exception {
+        List<Variable> variables = new ArrayList<>();
+        for (String name : new String[]{"X", "Y", "Z"}) {
+            variables.add(new Variable(variables.size(), name, List.of("T", "F")));
+        }
+        Variable x = variables.get(0), y = variables.get(1), z = variables.get(2);
+        List<Definition> definitions = new ArrayList<>();
+        definitions.add(new Definition(x, List.of(), new double[]{0.5, 0.5}));
+        definitions.add(new Definition(y, List.of(x), new double[]{0.5, 0.5, 0.5, 0.5}));
+        definitions.add(new Definition(z, List.of(x, y), new double[]{0.5, 0.5, 0.5, 0.5, 0.5, 0.5, 0.5, 0.5}));
+        BayesianNetwork structure = new BayesianNetwork("tiny", definitions, variables);
+
+        // X=T: Y=T 3 times (Z=T twice), Y=F once (Z=F). X=F: Y=F twice (Z=T once). No record has X=F, Y=T.
+        Path csv = directory.resolve("tiny.csv");
+        Files.writeString(csv, "Z,Y,X\nT,T,T\nT,T,T\nF,T,T\nF,F,T\n\nT,F,F\nF,F,F\n", StandardCharsets.UTF_8);
+
+        // The rows of every CPT in the standard order: X; Y|X=T, Y|X=F; Z|TT, Z|TF, Z|FT, Z|FF
+        double[][] frequencies = {
+                {4 / 6.0, 2 / 6.0},
+                {3 / 4.0, 1 / 4.0, 0, 1},
+                {2 / 3.0, 1 / 3.0, 0, 1, 0.5, 0.5, 0.5, 0.5},
+        };
+        double[][] laplace = {
+                {5 / 8.0, 3 / 8.0},
+                {4 / 6.0, 2 / 6.0, 1 / 4.0, 3 / 4.0},
+                {3 / 5.0, 2 / 5.0, 1 / 3.0, 2 / 3.0, 0.5, 0.5, 0.5, 0.5},
+        };
+        check(sameTables(ParameterLearner.learn(structure, csv.toString(), 0, 1, 2), frequencies), "tiny, alpha 0: the frequencies");
+        check(sameTables(ParameterLearner.learn(structure, csv.toString(), 1, 1, 2), laplace), "tiny, alpha 1: Laplace");
+        check(sameTables(ParameterLearner.learn(structure, csv.toString(), 1, 3, 100), laplace), "tiny, alpha 1, 3 threads, one chunk");
+    }
+
+    private static void alarmNetwork(Path directory) throws Exception {
+        BayesianNetwork alarm = new NetworkXmlParser().parse("src/alarm_net.xml");
+        int records = 20_000;
+        Path csv = directory.resolve("alarm.csv");
+        Files.write(csv, forwardSamples(alarm, records, new SplittableRandom(3)), StandardCharsets.UTF_8);
+
+        BayesianNetwork sequential = ParameterLearner.learn(alarm, csv.toString(), ParameterLearner.DEFAULT_ALPHA, 1, 333);
+        for (int[] setting : new int[][]{{4, 333}, {4, 1}, {2, DatasetScorer.DEFAULT_CHUNK_SIZE}, {1, records}}) {
+            BayesianNetwork parallel = ParameterLearner.learn(alarm, csv.toString(), ParameterLearner.DEFAULT_ALPHA, setting[0], setting[1]);
+            check(NetworkXmlParserTest.sameNetwork(sequential, parallel),
+                    "alarm: " + setting[0] + " threads, chunks of " + setting[1] + " give the same CPTs");
+        }
+
+        // The frequent rows are close to the network the records were drawn from
+        double error = 0;
+        for (String query : new String[]{"P(J=T|A=F),1", "P(M=T|A=F),1", "P(A=T|B=F,E=F),1"}) {
+            double learned = Double.parseDouble(Ex1.answerQueryLine(query, sequential, new QueryContext(true)).split(",")[0]);
+            double original = Double.parseDouble(Ex1.answerQueryLine(query, alarm, new QueryContext(true)).split(",")[0]);
+            error = Math.max(error, Math.abs(learned - original));
+        }
+        check(error < 0.01, "alarm: the learned CPTs are within " + error + " of alarm_net on the frequent rows");
+
+        Path written = directory.resolve("alarm_learned.xml");
+        NetworkXmlWriter.write(sequential, written.toString());
+        BayesianNetwork parsed = new NetworkXmlParser().parse(written.toString());
+        check(NetworkXmlParserTest.sameNetwork(sequential, parsed), "alarm: the written network is parsed back with the same numbers");
+        String query = "P(B=T|J=T,M=T),2";
+        String expected = Ex1.answerQueryLine(query, sequential, new QueryContext(true));
+        String actual = Ex1.answerQueryLine(query, parsed, new QueryContext(true));
+        check(expected.equals(actual), "alarm: " + query + " gives " + actual + " on the parsed network, " + expected + " on the learned one");
+    }
+
+    private static void errors(Path directory) throws Exception {
+        BayesianNetwork alarm = new NetworkXmlParser().parse("src/alarm_net.xml");
+        Path file = directory.resolve("error.csv");
+        String[][] errors = {
+                {"B,E,A,J,Q", "Line 1: unknown variable 'Q' in the header"},
+                {"B,E,A,J", "Line 1: the header has no column for variable 'M'"},
+                {"B,E,A,J,M\nT,F,F,T,F\n\nT,F,yes,T,F", "Line 4: 'yes' is not an outcome of A"},
+                {"B,E,A,J,M\nT,F,F,T", "Line 2: 4 values, expected 5"},
+        };
+        for (String[] error : errors) {
+            Files.writeString(file, error[0], StandardCharsets.UTF_8);
+            check(error[1].equals(learnError(alarm, file, 1, 2, 1)), error[1]);
+        }
+        Files.writeString(file, "B,E,A,J,M\nT,F,F,T,F\n", StandardCharsets.UTF_8);
+        double[][] settings = {{-1, 1, 10}, {Double.NaN, 1, 10}, {1, 0, 10}, {1, 1, 0}};
+        for (double[] setting : settings) {
+            String error = learnError(alarm, file, setting[0], (int) setting[1], (int) setting[2]);
+            check(!error.equals("learned"), "alpha " + setting[0] + ", " + (int) setting[1] + " threads, chunks of "
+                    + (int) setting[2] + ": " + error);
+        }
+    }
+
+    // The message of the IllegalArgumentException of learning from the file, or "learned"
+    private static String learnError(BayesianNetwork structure, Path file, double alpha, int threads, int chunkSize) throws Exception {
+        try {
+            ParameterLearner.learn(structure, file.toString(), alpha, threads, chunkSize);
+            return "learned";
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    // Records drawn from the network (forward sampling in topological order), with a header in variable order
+    private static List<String> forwardSamples(BayesianNetwork network, int count, SplittableRandom random) {
+        List<String> lines = new ArrayList<>();
+        StringJoiner header = new StringJoiner(",");
+        for (Variable variable : network.getVariables()) {
+            header.add(variable.getName());
+        }
+        lines.add(header.toString());
+        int[] assignment = new int[network.getVariableCount()];
+        for (int r = 0; r < count; r++) {
+            for (int id : network.getTopologicalOrder()) {
+                assignment[id] = 0;
+                int row = network.getCptIndex(id, assignment);
+                double u = random.nextDouble();
+                int outcome = 0;
+                double cumulative = network.getDefinition(id).getProbability(row);
+                while (u >= cumulative && outcome < network.getVariable(id).getOutcomeCount() - 1) {
+                    outcome++;
+                    cumulative += network.getDefinition(id).getProbability(row + outcome);
+                }
+                assignment[id] = outcome;
+            }
+            StringJoiner record = new StringJoiner(",");
+            for (Variable variable : network.getVariables()) {
+                record.add(variable.getOutcomes().get(assignment[variable.getId()]));
+            }
+            lines.add(record.toString());
+        }
+        return lines;
+    }
+
+    // The CPT of every variable (by id) has the expected numbers
+    private static boolean sameTables(BayesianNetwork network, double[][] tables) {
+        for (int id = 0; id < tables.length; id++) {
+            Definition definition = network.getDefinition(id);
+            if (definition.getTableSize() != tables[id].length) {
+                return false;
+            }
+            for (int i = 0; i < tables[id].length; i++) {
+                if (Math.abs(definition.getProbability(i) - tables[id][i]) > TOLERANCE) {
+                    System.out.println("     " + definition.getName() + "[" + i + "] = " + definition.getProbability(i)
+                            + ", expected " + tables[id][i]);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
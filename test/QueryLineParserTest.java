@@ -0,0 +1,134 @@
+/**
+ * Table-driven checks of QueryLineParser on alarm_net. Every row is a line and what the parser has to make of it:
+ *   a valid line   - the pairs as NAME=outcome ("?" for an outcome the variable does not have),
+ *                    "|" between the query and the evidence of a conditional query, then the position of
+ *                    the options, the skipped evidence names and the position of the first invalid outcome;
+ *   a mistake      - "error", the message without the line, and the position (0 is the first character).
+ * The same rows are parsed again inside a longer text (with start and end), where the positions have to be the same.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out QueryLineParserTest
+ */
+public class QueryLineParserTest {
+
+    private static final String[][] ROWS = {
+            // Conditional queries
+            {"P(B=T|J=T,M=T),1", "B=T | J=T M=T options@15"},
+            {"P(B=T|J=T,M=T)", "B=T | J=T M=T"},
+            {" P( B = T | J = T , M = T ) , 2, min-fill", "B=T | J=T M=T options@29"},
+            {"P(B=T|),3", "B=T | options@8"},
+            {"P(B=T|J=T,J=F),2", "B=T | J=F options@15"},
+            {"P(B=maybe|J=T),1", "B=? | J=T options@15 invalid@4"},
+            {"P(B=T|J=yes,M=no),1", "B=T | J=? M=? options@18 invalid@8"},
+            // Unknown evidence variables are skipped, their names are recorded
+            {"P(B=T|J=T,X=T),2", "B=T | J=T options@15 skipped X"},
+            {"P(B=T|Y=F, ZZ = T,M=T),2", "B=T | M=T options@23 skipped Y,ZZ"},
+            {"P(B=T|X=T),4", "B=T | options@11 skipped X"},
+            // Joint queries
+            {"P(B=T,E=F,A=T,J=T,M=F)", "B=T E=F A=T J=T M=F"},
+            {"P( B=T , E=F )", "B=T E=F"},
+            {"P(B=T)", "B=T"},
+            {"P(B=T,B=F)", "B=F"},
+            {"P(B=T,E=no)", "B=T E=? invalid@8"},
+            // Mistakes
+            {"", "error Expected P( @0"},
+            {"Q(B=T)", "error Expected P( @0"},
+            {"P", "error Expected P( @0"},
+            {"P(", "error Expected a variable name @2"},
+            {"P(=T|J=T),1", "error Expected a variable name @2"},
+            {"P(B|J=T),1", "error Expected = after the variable name @3"},
+            {"P(B=|J=T),1", "error Expected an outcome of B @4"},
+            {"P(B=T=F|J=T),1", "error Unexpected = @5"},
+            {"P(X=T|J=T),1", "error Unknown variable X @2"},
+            {"P(B=T|J=T,M=T", "error Expected ) @13"},
+            {"P(B=T|J=T M=T),1", "error Unexpected = @11"},      // The outcome of J runs up to the =
+            {"P(B=T|J=T)x,1", "error Expected , after the query @10"},
+            {"P(B=T;J=T),1", "error Unexpected = @7"},          // The outcome of B is "T;J"
+            {"P(B=T,X=T)", "error Unknown variable X @6"},
+            {"P(B=T", "error Expected , or ) or | @5"},
+            {"P(B=T,E=F)x", "error Unexpected text after the joint query @10"},
+            {"P(B=T,E=F),1", "error Unexpected text after the joint query @10"},
+            {"P(B=T|J=T,),1", "error Expected a variable name @10"},
+    };
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        BayesianNetwork network = new NetworkXmlParser().parse("src/alarm_net.xml");
+        QueryLineParser parser = network.getQueryParser();
+        QueryLineParser.ParsedLine result = parser.newParsedLine();
+        for (String[] row : ROWS) {
+            String actual = describe(parser, row[0], 0, row[0].length(), result);
+            check(row[1].equals(actual), "'" + row[0] + "': " + actual + (row[1].equals(actual) ? "" : ", expected " + row[1]));
+
+            // The same line between other text, the ParsedLine is reused and the positions are relative to start
+            String text = "xx|" + row[0] + "|yy";
+            String inText = describe(parser, text, 3, 3 + row[0].length(), result);
+            check(row[1].equals(inText), "'" + row[0] + "' inside '" + text + "': " + inText);
+        }
+
+        // The whole message of a mistake ends with the position counted from 1 and the line
+        try {
+            parser.parse("P(Q=T|B=T),1", result);
+            check(false, "P(Q=T|B=T),1 was parsed");
+        } catch (QueryLineParser.ParseException e) {
+            check(e.getMessage().equals("Unknown variable Q at position 3: P(Q=T|B=T),1"), "the message " + e.getMessage());
+        }
+
+        // Ex1 answers a line with skipped evidence like the line without it
+        String withUnknown = Ex1.answerQueryLine("P(B=T|J=T,X=T,M=T),2", network, new QueryContext(true));
+        String without = Ex1.answerQueryLine("P(B=T|J=T,M=T),2", network, new QueryContext(true));
+        check(withUnknown.equals(without), "P(B=T|J=T,X=T,M=T),2 gives " + withUnknown + ", without X " + without);
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All query line parser checks passed");
+    }
+
+    // What the parser made of the characters [start, end) of the line, in the format of the rows
+    private static String describe(QueryLineParser parser, String line, int start, int end, QueryLineParser.ParsedLine result) {
+        try {
+            parser.parse(line, start, end, result);
+        } catch (QueryLineParser.ParseException e) {
+            String message = e.getMessage();
+            return "error " + message.substring(0, message.indexOf(" at position ")) + " @" + e.getPosition();
+        }
+        BayesianNetwork network = parser.getNetwork();
+        StringBuilder description = new StringBuilder();
+        if (result.isConditional()) {
+            description.append(pair(network, result.getQueryVariable(), result.getQueryOutcome())).append(" |");
+        }
+        for (int i = 0; i < result.getAssignmentCount(); i++) {
+            if (description.length() > 0) {
+                description.append(' ');
+            }
+            description.append(pair(network, result.getVariable(i), result.getOutcome(i)));
+        }
+        if (result.getOptionsStart() >= 0) {
+            description.append(" options@").append(result.getOptionsStart());
+        }
+        for (int i = 0; i < result.getSkippedCount(); i++) {
+            description.append(i == 0 ? " skipped " : ",")
+                    .append(line, start + result.getSkippedStart(i), start + result.getSkippedEnd(i));
+        }
+        if (result.getInvalidOutcomePosition() >= 0) {
+            description.append(" invalid@").append(result.getInvalidOutcomePosition());
+        }
+        return description.toString();
+    }
+
+    private static String pair(BayesianNetwork network, int variable, int outcome) {
+        Variable v = network.getVariable(variable);
+        return v.getName() + "=" + (outcome < 0 ? "?" : v.getOutcomes().get(outcome));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Runs Ex1 on the query files of test/data and compares output.txt with the expected results.
+
+ * 1. alarm_queries.txt and big_queries.txt (every evidence order, Algorithms 1, 2 and 3, and a joint query):
+ *    the expected files were written by the original implementation, before the caches, the batch mode,
+ *    the prepared queries and the streaming were added. Every mode has to give the same lines, counts included.
+ *    With --prune (Bayes-Ball) the CPTs that cannot change the answer are dropped: the probabilities have to be
+ *    the same, and the counts of a line can only go down. On big_net some of them have to go down.
+ * 2. Algorithms 4, 5 and 6: the counts of a line may depend only on that line, so the sequential run,
+ *    the batch mode and the streaming mode have to give the same lines.
+
+ * Ex1 keeps static state (the caches) and reads input.txt from the working directory,
+ * so every run is a new JVM in a new temporary directory.
+ * Run from the root of the repository:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java && java -cp out RegressionTest
+ */
+public class RegressionTest {
+
+    private static final Path SOURCES = Paths.get("src");
+    private static final Path DATA = Paths.get("test", "data");
+
+    // The modes that have to give the output of the original implementation
+    private static final String[][] MODES = {
+            {},
+            {"--threads", "1"},
+            {"--threads", "4"},
+            {"--stream"},
+            {"--stream", "--threads", "3"},
+            {"--prepared"},
+            {"--prepared", "--threads", "4"},
+            {"--cache", "0"},
+            {"--factor-cache", "0"},
+            {"--cache", "0", "--factor-cache", "0", "--threads", "2"},
+            {"--prune"},
+            {"--prune", "--threads", "4"},
+    };
+
+    // Queries of the algorithms that do not match the original counts, every line is run on its own
+    private static final String[] OTHER_ALGORITHMS = {
+            "alarm_net.xml",
+            "P(B=T|J=T,M=T),4",
+            "P(E=T|J=T),4",
+            "P(B=T|J=T,M=T),5,3000",
+            "P(A=T|J=T,M=F),5,2000",
+            "P(M=T|E=T),4",
+            "P(B=T|J=T,M=T),6,500",
+            "P(J=T|B=T),6,400,40,2",
+            "P(B=T|J=T,M=T),4",
+            "P(B=T|J=T,M=T),5,3000",
+            "P(E=T|J=T,M=T),4",
+    };
+
+    private static int _failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        for (String network : new String[]{"alarm", "big"}) {
+            List<String> queries = Files.readAllLines(DATA.resolve(network + "_queries.txt"));
+            String expected = Files.readString(DATA.resolve(network + "_expected.txt"));
+            for (String[] mode : MODES) {
+                String output = runEx1(queries, mode);
+                if (Arrays.asList(mode).contains("--prune")) {
+                    checkPruned(network + " " + Arrays.toString(mode), expected, output, network.equals("big"));
+                } else {
+                    check(expected.equals(output), network + " " + Arrays.toString(mode) + ": " + firstDifference(expected, output));
+                }
+            }
+        }
+
+        List<String> otherQueries = Arrays.asList(OTHER_ALGORITHMS);
+        String sequential = runEx1(otherQueries, new String[0]);
+        int resultLines = sequential.split("\n").length;
+        check(resultLines == otherQueries.size() - 1, "Algorithms 4-6: " + resultLines + " result lines for " + (otherQueries.size() - 1) + " queries");
+        String[][] otherModes = {{"--threads", "1"}, {"--threads", "4"}, {"--stream", "--threads", "3"}};
+        for (String[] mode : otherModes) {
+            String output = runEx1(otherQueries, mode);
+            check(sequential.equals(output), "Algorithms 4-6 " + Arrays.toString(mode) + ": " + firstDifference(sequential, output));
+        }
+
+        if (_failures > 0) {
+            System.out.println(_failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All regression checks passed");
+    }
+
+    // Runs Ex1 with the options on the query lines in a new directory, and returns output.txt
+    private static String runEx1(List<String> queryLines, String[] options) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("ex1-test");
+        try {
+            try (DirectoryStream<Path> networks = Files.newDirectoryStream(SOURCES, "*.xml")) {
+                for (Path network : networks) {
+                    Files.copy(network, directory.resolve(network.getFileName()));
+                }
+            }
+            Files.write(directory.resolve("input.txt"), queryLines, StandardCharsets.UTF_8);
+
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(absoluteClassPath());
+            command.add("Ex1");
+            command.addAll(Arrays.asList(options));
+            Process process = new ProcessBuilder(command).directory(directory.toFile())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            int exitCode = process.waitFor();
+            Path output = directory.resolve("output.txt");
+            if (exitCode != 0 || !Files.exists(output)) {
+                return "<Ex1 exited with " + exitCode + (Files.exists(output) ? "" : ", no output.txt") + ">";
+            }
+            return Files.readString(output);
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // The class path of this JVM, with absolute entries (Ex1 runs in another directory)
+    private static String absoluteClassPath() {
+        StringJoiner joiner = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            joiner.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        return joiner.toString();
+    }
+
+    // The pruned output has the probabilities of the expected one and never higher counts,
+    // and if countsDrop is set, some counts have to be lower
+    private static void checkPruned(String name, String expected, String pruned, boolean countsDrop) {
+        String[] expectedLines = expected.split("\n");
+        String[] prunedLines = pruned.split("\n");
+        if (expectedLines.length != prunedLines.length) {
+            check(false, name + ": " + prunedLines.length + " lines, expected " + expectedLines.length);
+            return;
+        }
+        int lower = 0;
+        String difference = null;
+        for (int i = 0; i < expectedLines.length && difference == null; i++) {
+            String[] e = expectedLines[i].split(",");
+            String[] p = prunedLines[i].split(",");
+            if (e.length != 3 || p.length != 3) {
+                if (!expectedLines[i].equals(prunedLines[i])) {
+                    difference = "line " + (i + 1) + " expected " + expectedLines[i] + ", got " + prunedLines[i];
+                }
+                continue;
+            }
+            long additions = Long.parseLong(p[1]);
+            long multiplications = Long.parseLong(p[2]);
+            if (!e[0].equals(p[0]) || additions > Long.parseLong(e[1]) || multiplications > Long.parseLong(e[2])) {
+                difference = "line " + (i + 1) + " expected " + expectedLines[i] + " or lower counts, got " + prunedLines[i];
+            } else if (additions < Long.parseLong(e[1]) || multiplications < Long.parseLong(e[2])) {
+                lower++;
+            }
+        }
+        check(difference == null, name + ": " + (difference == null ? "same probabilities" : difference));
+        if (countsDrop) {
+            check(lower > 0, name + ": " + lower + " of " + expectedLines.length + " lines have lower counts");
+        }
+    }
+
+    private static String firstDifference(String expected, String actual) {
+        if (expected.equals(actual)) {
+            return "same";
+        }
+        String[] expectedLines = expected.split("\n");
+        String[] actualLines = actual.split("\n");
+        for (int i = 0; i < Math.max(expectedLines.length, actualLines.length); i++) {
+            String e = i < expectedLines.length ? expectedLines[i] : "<none>";
+            String a = i < actualLines.length ? actualLines[i] : "<none>";
+            if (!e.equals(a)) {
+                return "line " + (i + 1) + " expected " + e + ", got " + a;
+            }
+        }
+        return "the line breaks differ";
+    }
+
+    private static void check(boolean condition, String message) {
+        if (condition) {
+            System.out.println("ok   " + message);
+        } else {
+            System.out.println("FAIL " + message);
+            _failures++;
+        }
+    }
+}